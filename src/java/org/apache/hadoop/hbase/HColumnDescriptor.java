@@ -78,6 +78,7 @@ public class HColumnDescriptor implements ISerializable, WritableComparable<HCol
   public static final String TTL = "TTL";
   public static final String BLOOMFILTER = "BLOOMFILTER";
   public static final String MULTIFAMILY = "MULTIFAMILY";
+  public static final String COALESCE_INCREMENTS = "COALESCE_INCREMENTS";
   public static final String FOREVER = "FOREVER";
   public static final String MAPFILE_INDEX_INTERVAL =
       "MAPFILE_INDEX_INTERVAL";
@@ -139,6 +140,11 @@ public class HColumnDescriptor implements ISerializable, WritableComparable<HCol
    * not. 
    */
   public static final boolean DEFAULT_MULTIFAMILY = false;
+
+  /**
+   * Default setting for whether increments of a cell are coalesced.
+   */
+  public static final boolean DEFAULT_COALESCE_INCREMENTS = false;
   
   /**
    * Default time to live of cell contents.
@@ -514,6 +520,33 @@ public class HColumnDescriptor implements ISerializable, WritableComparable<HCol
     setValue(HConstants.IN_MEMORY, Boolean.toString(inMemory));
   }
 
+  /**
+   * @return True if increments of a cell are coalesced in the region server
+   * and written behind.
+   */
+  @TOJSON
+  public boolean isCoalesceIncrements() {
+    String value = getValue(COALESCE_INCREMENTS);
+    if (value != null)
+      return Boolean.valueOf(value).booleanValue();
+    return DEFAULT_COALESCE_INCREMENTS;
+  }
+
+  /**
+   * Coalesce increments of a cell.  Counters are then kept in region server
+   * memory and only written, one edit per counter, to the write-ahead log
+   * and memcache once every
+   * <code>hbase.regionserver.coalesce.increments.period</code>.  Each caller
+   * still gets its post-increment value back at once, but increments not
+   * yet written are lost if the region server crashes, and reads of the
+   * counter may lag by up to the period.  Counters are written out before a
+   * Put or Delete on their row and when the region closes.
+   * @param coalesce
+   */
+  public void setCoalesceIncrements(boolean coalesce) {
+    setValue(COALESCE_INCREMENTS, Boolean.toString(coalesce));
+  }
+
   /**
    * @return Maximum value length.
    */
@@ -108,6 +108,23 @@ public class HMsg implements Writable {
      * Run Major Compaction
      */
     MSG_REGION_MAJOR_COMPACT,
+
+    /**
+     * Master tells region server to split the log of a dead server whose
+     * path is carried as the message
+     */
+    MSG_REGIONSERVER_SPLIT_LOG,
+
+    /**
+     * Region server has split the log whose path is carried as the message
+     */
+    MSG_REPORT_SPLIT_LOG,
+
+    /**
+     * Region server failed to split the log whose path is carried as the
+     * message
+     */
+    MSG_REPORT_SPLIT_LOG_FAILED,
   }
 
   private Type type = null;
@@ -72,6 +72,9 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor>, I
   public static final String MEMCACHE_FLUSHSIZE = "MEMCACHE_FLUSHSIZE";
   public static final ImmutableBytesWritable MEMCACHE_FLUSHSIZE_KEY =
     new ImmutableBytesWritable(Bytes.toBytes(MEMCACHE_FLUSHSIZE));
+  public static final String DEFERRED_LOG_FLUSH = "DEFERRED_LOG_FLUSH";
+  public static final ImmutableBytesWritable DEFERRED_LOG_FLUSH_KEY =
+    new ImmutableBytesWritable(Bytes.toBytes(DEFERRED_LOG_FLUSH));
   public static final String IS_ROOT = "IS_ROOT";
   public static final ImmutableBytesWritable IS_ROOT_KEY =
     new ImmutableBytesWritable(Bytes.toBytes(IS_ROOT));
@@ -93,6 +96,8 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor>, I
 
   public static final boolean DEFAULT_READONLY = false;
 
+  public static final boolean DEFAULT_DEFERRED_LOG_FLUSH = false;
+
   public static final int DEFAULT_MEMCACHE_FLUSH_SIZE = 1024*1024*64;
   
   public static final int DEFAULT_MAX_FILESIZE = 1024*1024*256;
@@ -392,6 +397,23 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor>, I
     setValue(READONLY_KEY, readOnly? TRUE: FALSE);
   }
 
+  /**
+   * @return true if edits to this table are not synced to the HLog as they
+   * are appended but by the region server's LogFlusher on its interval
+   */
+  public boolean isDeferredLogFlush() {
+    return isSomething(DEFERRED_LOG_FLUSH_KEY, DEFAULT_DEFERRED_LOG_FLUSH);
+  }
+
+  /**
+   * @param deferredLogFlush True if edits to this table may be left unsynced
+   * in the HLog for up to hbase.regionserver.optionallogflushinterval, losing
+   * them if the region server crashes in that time.
+   */
+  public void setDeferredLogFlush(final boolean deferredLogFlush) {
+    setValue(DEFERRED_LOG_FLUSH_KEY, deferredLogFlush? TRUE: FALSE);
+  }
+
   /** @return name of table */
   @TOJSON
   public byte [] getName() {
@@ -973,6 +973,19 @@ public class KeyValue implements HeapSize, Writable {
     return result;
   }
 
+  /**
+   * Do not use this unless you have to.
+   * Use {@link #getBuffer()} with appropriate offsets and lengths instead.
+   * @return Returns family. Makes a copy.
+   */
+  public byte [] getFamily() {
+    int o = getColumnOffset();
+    int familylength = getFamilyLength(o);
+    byte [] result = new byte[familylength];
+    System.arraycopy(getBuffer(), o, result, 0, familylength);
+    return result;
+  }
+
   /**
    * @return True if column is empty.
    */
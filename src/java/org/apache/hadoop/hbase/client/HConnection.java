@@ -27,10 +27,13 @@ import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HServerAddress;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.MasterNotRunningException;
+import org.apache.hadoop.hbase.io.Get;
+import org.apache.hadoop.hbase.io.Result;
 import org.apache.hadoop.hbase.io.Update;
 import org.apache.hadoop.hbase.ipc.HMasterInterface;
 import org.apache.hadoop.hbase.ipc.HRegionInterface;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWrapper;
+import org.apache.hadoop.io.Writable;
 
 /**
  * Cluster connection.
@@ -192,4 +195,32 @@ public interface HConnection {
    */
   public void processListOfUpdates(byte[] tableName, List<Update> list)
   throws IOException;
+
+  /**
+   * Apply a list of {@link org.apache.hadoop.hbase.io.Put}s and
+   * {@link org.apache.hadoop.hbase.io.Delete}s, sending all those for a
+   * region in one {@link HRegionInterface#batchMutate(byte[], Writable[])}
+   * call.  Only the mutations a region server asks to have retried are sent
+   * again.
+   * @param tableName The name of the table
+   * @param list Puts and Deletes
+   * @throws org.apache.hadoop.hbase.DoNotRetryIOException if a mutation
+   * failed for good; thrown once the other mutations have been applied
+   * @throws IOException
+   */
+  public void processBatchOfMutations(byte[] tableName, List<Writable> list)
+  throws IOException;
+
+  /**
+   * Perform a list of {@link Get}s.  The gets are grouped by the server
+   * hosting their region and each server is sent one
+   * {@link HRegionInterface#get(byte[][], Get[])} call, the calls running in
+   * parallel.  Only gets whose region moved are sent again.
+   * @param tableName The name of the table
+   * @param list The gets
+   * @return One Result per get, in order; null where the row was not found
+   * @throws IOException
+   */
+  public Result [] processBatchOfGets(byte[] tableName, List<Get> list)
+  throws IOException;
 }
\ No newline at end of file
@@ -20,6 +20,7 @@
 package org.apache.hadoop.hbase.client;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -27,9 +28,19 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,9 +54,13 @@ import org.apache.hadoop.hbase.HStoreKey;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.MasterNotRunningException;
+import org.apache.hadoop.hbase.RegionTooBusyException;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.client.MetaScanner.MetaScannerVisitor;
+import org.apache.hadoop.hbase.io.Delete;
+import org.apache.hadoop.hbase.io.Get;
+import org.apache.hadoop.hbase.io.Put;
 import org.apache.hadoop.hbase.io.Scan;
 import org.apache.hadoop.hbase.io.Update;
 import org.apache.hadoop.hbase.io.Result;
@@ -58,6 +73,7 @@ import org.apache.hadoop.hbase.util.MetaUtils;
 import org.apache.hadoop.hbase.util.SoftValueSortedMap;
 import org.apache.hadoop.hbase.util.Writables;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWrapper;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -150,6 +166,9 @@ public class HConnectionManager implements HConstants {
 
     private ZooKeeperWrapper zooKeeperWrapper;
 
+    // Runs the per-server calls of a batch of gets
+    private final ExecutorService batchPool;
+
     /** 
      * constructor
      * @param conf Configuration object
@@ -175,6 +194,20 @@ public class HConnectionManager implements HConstants {
       this.pause = conf.getLong("hbase.client.pause", 2 * 1000);
       this.numRetries = conf.getInt("hbase.client.retries.number", 10);
       this.maxRPCAttempts = conf.getInt("hbase.client.rpc.maxattempts", 1);
+
+      int batchThreads = conf.getInt("hbase.client.batch.threads", 10);
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(batchThreads,
+        batchThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HConnection.batch");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+      pool.allowCoreThreadTimeOut(true);
+      this.batchPool = pool;
       
       this.master = null;
       this.masterChecked = false;
@@ -898,9 +931,10 @@ public class HConnectionManager implements HConstants {
     throws IOException, RuntimeException {
       getMaster();
       List<Throwable> exceptions = new ArrayList<Throwable>();
+      boolean reload = false;
       for(int tries = 0; tries < numRetries; tries++) {
         try {
-          callable.instantiateServer(tries != 0);
+          callable.instantiateServer(reload);
           return callable.call();
         } catch (Throwable t) {
           if (t instanceof UndeclaredThrowableException) {
@@ -917,6 +951,8 @@ public class HConnectionManager implements HConstants {
             throw new RetriesExhaustedException(callable.getServerName(),
                 callable.getRegionName(), callable.getRow(), tries, exceptions);
           }
+          // A busy region is still where we think it is; just back off.
+          reload = !(t instanceof RegionTooBusyException);
         }
         try {
           Thread.sleep(getPauseTime(tries));
@@ -1099,6 +1135,191 @@ public class HConnectionManager implements HConstants {
       }
     }
       
+    public void processBatchOfMutations(final byte[] tableName,
+        final List<Writable> list)
+    throws IOException {
+      List<Writable> remaining = new ArrayList<Writable>(list);
+      // First row whose mutation failed for good.  Reported once the
+      // mutations that can be retried are done.
+      byte [] failedRow = null;
+      for (int tries = 0; !remaining.isEmpty(); tries++) {
+        // Group by region, in row order.
+        Map<byte [], List<Writable>> regions =
+          new TreeMap<byte [], List<Writable>>(Bytes.BYTES_COMPARATOR);
+        for (Writable mutation: remaining) {
+          HRegionLocation location = getRegionLocationForRowWithRetries(
+            tableName, getRow(mutation), tries > 0);
+          byte [] regionName = location.getRegionInfo().getRegionName();
+          List<Writable> batch = regions.get(regionName);
+          if (batch == null) {
+            batch = new ArrayList<Writable>();
+            regions.put(regionName, batch);
+          }
+          batch.add(mutation);
+        }
+        List<Writable> retry = new ArrayList<Writable>();
+        byte [] retryRegion = null;
+        for (Map.Entry<byte [], List<Writable>> e: regions.entrySet()) {
+          final Writable [] mutations =
+            e.getValue().toArray(new Writable[e.getValue().size()]);
+          int [] status = getRegionServerWithRetries(
+              new ServerCallable<int []>(this, tableName,
+                getRow(mutations[0])) {
+            public int [] call() throws IOException {
+              return server.batchMutate(location.getRegionInfo()
+                .getRegionName(), mutations);
+            }
+          });
+          for (int i = 0; i < status.length; i++) {
+            if (status[i] == HRegionInterface.MUTATION_RETRY) {
+              retry.add(mutations[i]);
+              retryRegion = e.getKey();
+            } else if (status[i] == HRegionInterface.MUTATION_FAILED &&
+                failedRow == null) {
+              failedRow = getRow(mutations[i]);
+            }
+          }
+        }
+        remaining = retry;
+        if (remaining.isEmpty()) {
+          break;
+        }
+        if (tries == numRetries - 1) {
+          throw new RetriesExhaustedException("Some server", retryRegion,
+            getRow(remaining.get(0)), tries, new ArrayList<Throwable>());
+        }
+        long sleepTime = getPauseTime(tries);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Retrying " + remaining.size() + " mutation(s) the " +
+            "regionserver didn't accept; tries=" + tries + " of max=" +
+            this.numRetries + ", waiting=" + sleepTime + "ms");
+        }
+        try {
+          Thread.sleep(sleepTime);
+        } catch (InterruptedException e) {
+          // continue
+        }
+      }
+      if (failedRow != null) {
+        throw new DoNotRetryIOException("Failed mutation of row " +
+          Bytes.toString(failedRow) + " in " + Bytes.toString(tableName));
+      }
+    }
+
+    public Result [] processBatchOfGets(final byte[] tableName,
+        final List<Get> list)
+    throws IOException {
+      Result [] results = new Result[list.size()];
+      List<Integer> remaining = new ArrayList<Integer>(list.size());
+      for (int i = 0; i < list.size(); i++) {
+        remaining.add(Integer.valueOf(i));
+      }
+      List<Throwable> exceptions = new ArrayList<Throwable>();
+      for (int tries = 0; !remaining.isEmpty(); tries++) {
+        // Group by server
+        Map<HServerAddress, List<Integer>> servers =
+          new HashMap<HServerAddress, List<Integer>>();
+        Map<Integer, byte []> regions = new HashMap<Integer, byte []>();
+        for (Integer i: remaining) {
+          HRegionLocation location = getRegionLocationForRowWithRetries(
+            tableName, list.get(i.intValue()).getRow(), tries > 0);
+          regions.put(i, location.getRegionInfo().getRegionName());
+          List<Integer> indices = servers.get(location.getServerAddress());
+          if (indices == null) {
+            indices = new ArrayList<Integer>();
+            servers.put(location.getServerAddress(), indices);
+          }
+          indices.add(i);
+        }
+        Map<List<Integer>, Future<Result []>> calls =
+          new HashMap<List<Integer>, Future<Result []>>();
+        for (Map.Entry<HServerAddress, List<Integer>> e: servers.entrySet()) {
+          final HServerAddress address = e.getKey();
+          List<Integer> indices = e.getValue();
+          final byte [][] regionNames = new byte[indices.size()][];
+          final Get [] gets = new Get[indices.size()];
+          for (int j = 0; j < indices.size(); j++) {
+            regionNames[j] = regions.get(indices.get(j));
+            gets[j] = list.get(indices.get(j).intValue());
+          }
+          Callable<Result []> call = new Callable<Result []>() {
+            public Result [] call() throws IOException {
+              return getHRegionConnection(address).get(regionNames, gets);
+            }
+          };
+          // No need for another thread when there is only one server to ask.
+          FutureTask<Result []> task = new FutureTask<Result []>(call);
+          if (servers.size() == 1) {
+            task.run();
+          } else {
+            this.batchPool.execute(task);
+          }
+          calls.put(indices, task);
+        }
+        List<Integer> retry = new ArrayList<Integer>();
+        for (Map.Entry<List<Integer>, Future<Result []>> e: calls.entrySet()) {
+          List<Integer> indices = e.getKey();
+          Result [] answers = null;
+          try {
+            answers = e.getValue().get();
+          } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted waiting on gets");
+          } catch (ExecutionException ex) {
+            Throwable t = ex.getCause();
+            if (t instanceof UndeclaredThrowableException) {
+              t = t.getCause();
+            }
+            if (t instanceof RemoteException) {
+              t = RemoteExceptionHandler.decodeRemoteException(
+                (RemoteException)t);
+            }
+            if (t instanceof DoNotRetryIOException) {
+              throw (DoNotRetryIOException)t;
+            }
+            exceptions.add(t);
+            retry.addAll(indices);
+            continue;
+          }
+          for (int j = 0; j < answers.length; j++) {
+            Integer i = indices.get(j);
+            if (answers[j] == null) {
+              // The get's region moved; relocate and retry just this get.
+              retry.add(i);
+            } else if (!answers[j].isEmpty()) {
+              results[i.intValue()] = answers[j];
+            }
+          }
+        }
+        remaining = retry;
+        if (remaining.isEmpty()) {
+          break;
+        }
+        if (tries == numRetries - 1) {
+          Integer first = remaining.get(0);
+          throw new RetriesExhaustedException("Some server",
+            regions.get(first), list.get(first.intValue()).getRow(), tries,
+            exceptions);
+        }
+        long sleepTime = getPauseTime(tries);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Retrying " + remaining.size() + " get(s) whose region " +
+            "moved; tries=" + tries + " of max=" + this.numRetries +
+            ", waiting=" + sleepTime + "ms");
+        }
+        try {
+          Thread.sleep(sleepTime);
+        } catch (InterruptedException e) {
+          // continue
+        }
+      }
+      return results;
+    }
+
+    private byte [] getRow(final Writable mutation) {
+      return mutation instanceof Put? ((Put)mutation).getRow():
+        ((Delete)mutation).getRow();
+    }
+
     void close(boolean stopProxy) {
       if (master != null) {
         if (stopProxy) {
@@ -54,6 +54,7 @@ import org.apache.hadoop.hbase.io.Result;
 import org.apache.hadoop.hbase.io.Update;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Writables;
+import org.apache.hadoop.io.Writable;
 
 /**
  * Used to communicate with a single HBase table
@@ -64,7 +65,7 @@ public class HTable {
   protected final int scannerTimeout;
   private volatile HBaseConfiguration configuration;
 //  private ArrayList<Put> writeBuffer;
-  private ArrayList<Update> writeBuffer = null;
+  private ArrayList<Writable> writeBuffer = null;
   private long writeBufferSize;
   private boolean autoFlush;
   private long currentWriteBufferSize;
@@ -120,7 +121,7 @@ public class HTable {
       conf.getInt("hbase.regionserver.lease.period", 60 * 1000);
     this.configuration = conf;
     this.connection.locateRegion(tableName, HConstants.EMPTY_START_ROW);
-    this.writeBuffer = new ArrayList<Update>();
+    this.writeBuffer = new ArrayList<Writable>();
     this.writeBufferSize = 
       this.configuration.getLong("hbase.client.write.buffer", 2097152);
     this.autoFlush = true;
@@ -307,6 +308,20 @@ public class HTable {
     );
   }
 
+
+  /**
+   * Get many rows at once.  The gets are sent to the servers hosting their
+   * regions in parallel, one call per server.
+   * @param gets the gets
+   * @return one Result per get, in the same order; null where the row was
+   * not found
+   * @throws IOException
+   */
+  public Result [] get(final List<Get> gets)
+  throws IOException {
+    return connection.processBatchOfGets(tableName, gets);
+  }
+
   
   /**
 //   * Get a single value for the specified row and column
@@ -1458,7 +1473,7 @@ public class HTable {
 //  }
 
   /**
-   * Commit to the table the buffer of BatchUpdate.
+   * Commit to the table the buffer of Puts and Deletes.
    * Called automaticaly in the commit methods when autoFlush is true.
    * @throws IOException
    */
@@ -1467,7 +1482,7 @@ public class HTable {
       return;
     }
     try {
-      connection.processListOfUpdates(tableName, writeBuffer);
+      connection.processBatchOfMutations(tableName, writeBuffer);
     } finally {
       currentWriteBufferSize = 0;
       writeBuffer.clear();
@@ -1584,7 +1599,7 @@ public class HTable {
    * Get the write buffer 
    * @return the current write buffer
    */
-  public ArrayList<Update> getWriteBuffer() {
+  public ArrayList<Writable> getWriteBuffer() {
     return writeBuffer;
   }
   
@@ -1600,6 +1615,52 @@ public class HTable {
     );
   }
 
+  /**
+   * Atomically increment a counter.
+   * @param row
+   * @param family
+   * @param qualifier
+   * @param amount
+   * @return the new value of the counter
+   * @throws IOException
+   */
+  public long incrementColumnValue(final byte [] row, final byte [] family,
+      final byte [] qualifier, final long amount)
+  throws IOException {
+    return connection.getRegionServerWithRetries(
+        new ServerCallable<Long>(connection, tableName, row) {
+          public Long call() throws IOException {
+            return server.incrementColumnValue(
+                location.getRegionInfo().getRegionName(), row, family,
+                qualifier, amount);
+          }
+        }
+    );
+  }
+
+  /**
+   * Atomically increment several counters of a row in one round trip.
+   * @param row
+   * @param family
+   * @param qualifiers counters to increment
+   * @param amounts amount to add to each counter
+   * @return the new value of each counter, in the order given
+   * @throws IOException
+   */
+  public long [] incrementColumnValues(final byte [] row,
+      final byte [] family, final byte [][] qualifiers, final long [] amounts)
+  throws IOException {
+    return connection.getRegionServerWithRetries(
+        new ServerCallable<long []>(connection, tableName, row) {
+          public long [] call() throws IOException {
+            return server.incrementColumnValues(
+                location.getRegionInfo().getRegionName(), row, family,
+                qualifiers, amounts);
+          }
+        }
+    );
+  }
+
   /**
    * Implements the scanner interface for the HBase client.
    * If there are multiple regions in a table, this scanner will iterate
@@ -143,6 +143,11 @@ public class HbaseObjectWritable implements Writable, Configurable {
 //    addToMap(RowUpdates.class, code++);
     addToMap(KeyValue.class, code++);
     addToMap(KeyValue[].class, code++);
+    addToMap(int [].class, code++);
+    addToMap(long [].class, code++);
+    addToMap(Get[].class, code++);
+    addToMap(Result.class, code++);
+    addToMap(Result[].class, code++);
   }
   
   private Class<?> declaredClass;
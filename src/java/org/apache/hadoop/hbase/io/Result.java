@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
 
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.RowResult;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -23,10 +24,17 @@ public class Result implements Writable{
   public Result(){}
   
   public Result(KeyValue[] kvs){
-    this.row = kvs[0].getRow();
+    this.row = kvs.length == 0? null: kvs[0].getRow();
     this.kvs = kvs;
   }
   
+  /**
+   * @return True if there are no KeyValues, i.e. the row was not found
+   */
+  public boolean isEmpty(){
+    return kvs == null || kvs.length == 0;
+  }
+  
   public byte[] getRow(){
     return this.row;
   }
@@ -64,6 +72,9 @@ public class Result implements Writable{
   throws IOException {
     this.row = Bytes.readByteArray(in);
     int length = in.readInt();
+    if(length == 0){
+      this.row = null;
+    }
     this.kvs = new KeyValue[length];
     KeyValue kv = null;
     for(int i=0; i<length; i++){
@@ -75,6 +86,11 @@ public class Result implements Writable{
   
   public void write(final DataOutput out)
   throws IOException {
+    if(isEmpty()){
+      Bytes.writeByteArray(out, HConstants.EMPTY_BYTE_ARRAY);
+      out.writeInt(0);
+      return;
+    }
     Bytes.writeByteArray(out, this.row);
     int len = kvs.length;
     out.writeInt(len);
@@ -19,17 +19,25 @@
  */
 package org.apache.hadoop.hbase.io.hfile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -214,6 +222,16 @@ public class HFile {
     // May be null if we were passed a stream.
     private Path path = null;
 
+    // If non-null, we are pipelined: data blocks fill in one of two buffers
+    // and a finished block is compressed and written out by this thread
+    // while the next block fills in the other.  See setPipelined.
+    private ExecutorService blockWriter = null;
+    private ByteArrayOutputStream [] blockBuffers = null;
+    private int currentBuffer = 0;
+    // Compress and write of the previous block, if any.  Returns the offset
+    // at which the block began.
+    private Future<Long> pendingBlock = null;
+
     /**
      * Constructor that uses all defaults for compression and block size.
      * @param fs
@@ -304,6 +322,39 @@ public class HFile {
         DEFAULT_COMPRESSION_ALGORITHM: compress;
     }
 
+    /**
+     * Compress and write out finished data blocks on a helper thread while
+     * the next block fills rather than inline on the appending thread.  Costs
+     * the memory of two uncompressed blocks.  Worth it when the compression
+     * is expensive; e.g. gz.  Call before the first append.
+     * @param pipelined
+     */
+    public void setPipelined(final boolean pipelined) {
+      if (this.out != null || !this.blockKeys.isEmpty()) {
+        throw new IllegalStateException("Blocks already written");
+      }
+      if (!pipelined) {
+        shutdownBlockWriter();
+        this.blockBuffers = null;
+        return;
+      }
+      if (this.blockWriter != null) {
+        return;
+      }
+      final String threadName = "HFile.Writer.blockWriter-" + this.name;
+      this.blockWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, threadName);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      this.blockBuffers = new ByteArrayOutputStream [] {
+        new ByteArrayOutputStream(this.blocksize * 2),
+        new ByteArrayOutputStream(this.blocksize * 2)};
+      this.currentBuffer = 0;
+    }
+
     /*
      * If at block boundary, opens new block.
      * @throws IOException
@@ -320,6 +371,10 @@ public class HFile {
      */
     private void finishBlock() throws IOException {
       if (this.out == null) return;
+      if (this.blockWriter != null) {
+        finishPipelinedBlock();
+        return;
+      }
       long size = releaseCompressingStream(this.out);
       this.out = null;
       blockKeys.add(firstKey);
@@ -329,14 +384,79 @@ public class HFile {
       this.totalBytes += written;
     }
 
+    /*
+     * Hand the filled buffer to the block writer.  Waits first on any
+     * previous block so at most one is in flight and the other buffer is
+     * free for the next block.
+     * @throws IOException
+     */
+    private void finishPipelinedBlock() throws IOException {
+      this.out.flush();
+      int written = this.out.size();
+      this.out = null;
+      blockKeys.add(firstKey);
+      blockDataSizes.add(Integer.valueOf(written));
+      this.totalBytes += written;
+      waitOnPendingBlock();
+      final ByteArrayOutputStream buffer = this.blockBuffers[this.currentBuffer];
+      this.currentBuffer = 1 - this.currentBuffer;
+      this.pendingBlock = this.blockWriter.submit(new Callable<Long>() {
+        public Long call() throws IOException {
+          long begin = outputStream.getPos();
+          DataOutputStream dos = getCompressingStream();
+          buffer.writeTo(dos);
+          releaseCompressingStream(dos);
+          return Long.valueOf(begin);
+        }
+      });
+    }
+
+    /*
+     * Wait on the in flight block, if any, and add where it began to the
+     * index.
+     * @throws IOException
+     */
+    private void waitOnPendingBlock() throws IOException {
+      if (this.pendingBlock == null) return;
+      try {
+        blockOffsets.add(this.pendingBlock.get());
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted writing block of " +
+          this.name);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException)e.getCause();
+        }
+        IOException ioe = new IOException("Failed writing block of " +
+          this.name);
+        ioe.initCause(e.getCause());
+        throw ioe;
+      } finally {
+        this.pendingBlock = null;
+      }
+    }
+
+    private void shutdownBlockWriter() {
+      if (this.blockWriter == null) return;
+      this.blockWriter.shutdown();
+      this.blockWriter = null;
+    }
+
     /*
      * Ready a new block for writing.
      * @throws IOException
      */
     private void newBlock() throws IOException {
-      // This is where the next block begins.
-      blockBegin = outputStream.getPos();
-      this.out = getCompressingStream();
+      if (this.blockWriter != null) {
+        // Buffer is free; its last block was waited on in finishBlock.
+        ByteArrayOutputStream buffer = this.blockBuffers[this.currentBuffer];
+        buffer.reset();
+        this.out = new DataOutputStream(buffer);
+      } else {
+        // This is where the next block begins.
+        blockBegin = outputStream.getPos();
+        this.out = getCompressingStream();
+      }
       this.out.write(DATABLOCKMAGIC);
       firstKey = null;
     }
@@ -533,7 +653,12 @@ public class HFile {
       // Write out the end of the data blocks, then write meta data blocks.
       // followed by fileinfo, data block index and meta block index.
 
-      finishBlock();
+      try {
+        finishBlock();
+        waitOnPendingBlock();
+      } finally {
+        shutdownBlockWriter();
+      }
 
       FixedFileTrailer trailer = new FixedFileTrailer();
       
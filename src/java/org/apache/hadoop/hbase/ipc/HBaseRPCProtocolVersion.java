@@ -69,7 +69,10 @@ public interface HBaseRPCProtocolVersion extends VersionedProtocol {
    * HMasterInterface.findRootRegion. We use ZooKeeper to store root region
    * location instead.</li>
    * <li>Version 17: Added incrementColumnValue.</li>
+   * <li>Version 18: Added HRegionInterface.batchMutate.</li>
+   * <li>Version 19: Added HRegionInterface.get(byte[][], Get[]).</li>
+   * <li>Version 20: Added incrementColumnValues.</li>
    * </ul>
    */
-  public static final long versionID = 17L;
+  public static final long versionID = 20L;
 }
@@ -39,6 +39,7 @@ import org.apache.hadoop.hbase.io.Result;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.io.Writable;
 
 /**
  * Clients interact with HRegionServers using a handle to the HRegionInterface.
@@ -48,6 +49,20 @@ import org.apache.hadoop.hbase.NotServingRegionException;
  * 
  */
 public interface HRegionInterface extends HBaseRPCProtocolVersion {
+  /** {@link #batchMutate(byte[], Writable[])} status: mutation applied */
+  public static final int MUTATION_APPLIED = 0;
+  /**
+   * {@link #batchMutate(byte[], Writable[])} status: mutation not applied
+   * but may be if sent again, e.g. its row has moved to another region or its
+   * row lock could not be had in time
+   */
+  public static final int MUTATION_RETRY = 1;
+  /**
+   * {@link #batchMutate(byte[], Writable[])} status: mutation not applied
+   * and sending it again will not help, e.g. no such column family
+   */
+  public static final int MUTATION_FAILED = 2;
+
   /** 
    * Get metainfo about an HRegion
    * 
@@ -242,6 +257,21 @@ public interface HRegionInterface extends HBaseRPCProtocolVersion {
   public Result getRow(final byte[] regionName, Get get,
       final long lockId)
   throws IOException;
+
+  /**
+   * Perform many {@link Get}s, possibly on different regions of this server,
+   * in one RPC.
+   * 
+   * @param regionNames region to read for each get
+   * @param gets the gets
+   * @return one Result per get, in order.  A Result with no KeyValues means
+   * the row was not found.  A null entry means the get's region is not on
+   * this server (or the row is not in it) and the get should be retried
+   * after relocating the region.
+   * @throws IOException
+   */
+  public Result [] get(final byte [][] regionNames, final Get [] gets)
+  throws IOException;
   
   
 //  public int putRow(final byte[] regionName, final Put put)
@@ -249,6 +279,23 @@ public interface HRegionInterface extends HBaseRPCProtocolVersion {
  
   public int updateRow(final byte[] regionName, final Update update)
   throws IOException;
+
+  /**
+   * Applies a batch of {@link Put}s and {@link Delete}s, possibly on many
+   * rows, to a region via one RPC.  Row locks are taken in row order.  The
+   * edits of the whole batch go to the write-ahead log in one append with at
+   * most one sync.  Mutations of one row are applied in the order given.
+   * 
+   * @param regionName name of the region to update
+   * @param mutations Puts and Deletes
+   * @return Status of each mutation: one of {@link #MUTATION_APPLIED},
+   * {@link #MUTATION_RETRY} or {@link #MUTATION_FAILED}
+   * @throws IOException e.g. NotServingRegionException if the region is not
+   * here; no mutation was applied.
+   */
+  public int [] batchMutate(final byte [] regionName,
+    final Writable [] mutations)
+  throws IOException;
   
 //  /**
 //   * Applies a batch of updates via one RPC for many rows
@@ -340,11 +387,26 @@ public interface HRegionInterface extends HBaseRPCProtocolVersion {
    * 
    * @param regionName
    * @param row
-   * @param column
+   * @param family
+   * @param qualifier
    * @param amount
    * @return new incremented column value
    * @throws IOException
    */
-  public long incrementColumnValue(byte[] regionName, byte[] family,
-      byte[] qualifier, byte[] column, long amount) throws IOException;
+  public long incrementColumnValue(byte[] regionName, byte[] row,
+      byte[] family, byte[] qualifier, long amount) throws IOException;
+
+  /**
+   * Atomically increments several counters of one row in one call.
+   * 
+   * @param regionName
+   * @param row
+   * @param family
+   * @param qualifiers counters to increment
+   * @param amounts amount to add to each counter
+   * @return new value of each counter, in the order given
+   * @throws IOException
+   */
+  public long [] incrementColumnValues(byte[] regionName, byte[] row,
+      byte[] family, byte[][] qualifiers, long[] amounts) throws IOException;
 }
@@ -0,0 +1,313 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.hbase.HMsg;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Hands out the logs of dead region servers to live region servers for
+ * splitting so that recovery of a server with many logs does not wait on the
+ * master splitting them one after the other.
+ *
+ * <p>Each log is a task.  Tasks go out as {@link HMsg.Type#MSG_REGIONSERVER_SPLIT_LOG}
+ * on the heartbeat reply, at most hbase.master.distributed.log.splitting.max.tasks
+ * to a server at a time.  The server answers with
+ * {@link HMsg.Type#MSG_REPORT_SPLIT_LOG} or
+ * {@link HMsg.Type#MSG_REPORT_SPLIT_LOG_FAILED}.  A task that failed or whose
+ * server went away is handed out again, as is one a server has not reported
+ * on within hbase.master.distributed.log.splitting.timeout; a timed out task
+ * counts as failed and is not handed back to the server it timed out on.  A
+ * task that failed hbase.master.distributed.log.splitting.retries times is
+ * given up on and left for the master to split itself; see
+ * {@link ProcessServerShutdown}.
+ */
+class DistributedLogSplitter {
+  static final Log LOG = LogFactory.getLog(DistributedLogSplitter.class);
+
+  private final boolean enabled;
+  private final int maxTasksPerServer;
+  private final int retries;
+  private final long timeout;
+
+  /* All state is guarded by this object's monitor. */
+
+  /** Logs waiting to be handed out, in the order submitted */
+  private final LinkedList<String> pending = new LinkedList<String>();
+  /** Log -> server currently splitting it */
+  private final Map<String, String> assigned = new HashMap<String, String>();
+  /** Log -> when it was handed out */
+  private final Map<String, Long> assignedTimes = new HashMap<String, Long>();
+  /** Log -> server it last timed out on */
+  private final Map<String, String> timedOut = new HashMap<String, String>();
+  /** Log -> when it last timed out */
+  private final Map<String, Long> timedOutTimes = new HashMap<String, Long>();
+  /** Log -> dead server it belongs to */
+  private final Map<String, String> owners = new HashMap<String, String>();
+  /** Log -> count of failed attempts */
+  private final Map<String, Integer> failures =
+    new HashMap<String, Integer>();
+  /** Dead server -> its logs not yet split */
+  private final Map<String, Set<String>> outstanding =
+    new HashMap<String, Set<String>>();
+  /** Dead server -> its logs given up on */
+  private final Map<String, List<String>> abandoned =
+    new HashMap<String, List<String>>();
+
+  /**
+   * @param conf
+   */
+  DistributedLogSplitter(final Configuration conf) {
+    this.enabled =
+      conf.getBoolean("hbase.master.distributed.log.splitting", false);
+    this.maxTasksPerServer = Math.max(1,
+      conf.getInt("hbase.master.distributed.log.splitting.max.tasks", 2));
+    this.retries =
+      conf.getInt("hbase.master.distributed.log.splitting.retries", 3);
+    this.timeout =
+      conf.getLong("hbase.master.distributed.log.splitting.timeout", 300000);
+  }
+
+  /**
+   * @return True if logs are to be split by the region servers.
+   */
+  boolean isEnabled() {
+    return this.enabled;
+  }
+
+  /**
+   * Queue up the logs of a dead server.
+   * @param deadServer
+   * @param logfiles
+   */
+  synchronized void submit(final String deadServer,
+      final FileStatus [] logfiles) {
+    Set<String> logs = new HashSet<String>();
+    for (FileStatus logfile: logfiles) {
+      String log = logfile.getPath().toString();
+      logs.add(log);
+      if (this.owners.containsKey(log)) {
+        // Already queued or being split
+        continue;
+      }
+      this.owners.put(log, deadServer);
+      this.pending.add(log);
+    }
+    this.outstanding.put(deadServer, logs);
+    this.abandoned.put(deadServer, new ArrayList<String>());
+    LOG.info("Queued " + logs.size() + " log(s) of " + deadServer +
+      " for distributed splitting");
+  }
+
+  /**
+   * @param deadServer
+   * @return True if no log of <code>deadServer</code> is waiting to be or
+   * being split.
+   */
+  synchronized boolean isDone(final String deadServer) {
+    Set<String> logs = this.outstanding.get(deadServer);
+    return logs == null || logs.isEmpty();
+  }
+
+  /**
+   * Forget about a dead server whose logs are all done.
+   * @param deadServer
+   * @return Logs of <code>deadServer</code> that the region servers could
+   * not split.
+   */
+  synchronized List<String> finish(final String deadServer) {
+    this.outstanding.remove(deadServer);
+    List<String> logs = this.abandoned.remove(deadServer);
+    return logs == null ? new ArrayList<String>() : logs;
+  }
+
+  /**
+   * Take back the logs of a dead server that have not been handed out yet,
+   * e.g. because there is no live server left to hand them to.  They are
+   * then reported by {@link #finish(String)} for the master to split.
+   * @param deadServer
+   */
+  synchronized void reclaim(final String deadServer) {
+    for (Iterator<String> i = this.pending.iterator(); i.hasNext();) {
+      String log = i.next();
+      if (deadServer.equals(this.owners.get(log))) {
+        i.remove();
+        this.abandoned.get(deadServer).add(log);
+        complete(log, deadServer);
+      }
+    }
+  }
+
+  /**
+   * Hand out split tasks to a server that has checked in.
+   * @param serverName
+   * @param returnMsgs Messages to go back to the server
+   */
+  synchronized void assignTasks(final String serverName,
+      final List<HMsg> returnMsgs) {
+    if (this.pending.isEmpty()) {
+      return;
+    }
+    int running = 0;
+    for (String server: this.assigned.values()) {
+      if (server.equals(serverName)) {
+        running++;
+      }
+    }
+    long now = System.currentTimeMillis();
+    for (Iterator<String> i = this.pending.iterator();
+        running < this.maxTasksPerServer && i.hasNext();) {
+      String log = i.next();
+      if (serverName.equals(this.timedOut.get(log))) {
+        // Leave it for another server
+        continue;
+      }
+      i.remove();
+      this.timedOutTimes.remove(log);
+      this.assigned.put(log, serverName);
+      this.assignedTimes.put(log, Long.valueOf(now));
+      returnMsgs.add(new HMsg(HMsg.Type.MSG_REGIONSERVER_SPLIT_LOG,
+        new HRegionInfo(), Bytes.toBytes(log)));
+      running++;
+    }
+  }
+
+  /**
+   * Take back the tasks that have been out longer than
+   * hbase.master.distributed.log.splitting.timeout, e.g. because their
+   * server is hung, and count each as a failed attempt.  A timed out task no
+   * other server has taken up within the timeout is left for the master.
+   */
+  synchronized void checkTimeouts() {
+    long now = System.currentTimeMillis();
+    List<String> expired = new ArrayList<String>();
+    for (Map.Entry<String, Long> e: this.assignedTimes.entrySet()) {
+      if (now - e.getValue().longValue() > this.timeout) {
+        expired.add(e.getKey());
+      }
+    }
+    for (String log: expired) {
+      String server = this.assigned.remove(log);
+      this.assignedTimes.remove(log);
+      LOG.warn("Split of " + log + " by " + server + " timed out after " +
+        this.timeout + "ms");
+      this.timedOut.put(log, server);
+      this.timedOutTimes.put(log, Long.valueOf(now));
+      failed(log);
+    }
+    for (Iterator<String> i = this.pending.iterator(); i.hasNext();) {
+      String log = i.next();
+      Long t = this.timedOutTimes.get(log);
+      if (t != null && now - t.longValue() > this.timeout) {
+        LOG.warn("No other server took up split of " + log +
+          "; master will split it");
+        i.remove();
+        String deadServer = this.owners.get(log);
+        this.abandoned.get(deadServer).add(log);
+        complete(log, deadServer);
+      }
+    }
+  }
+
+  /**
+   * Record the outcome of a split task.
+   * @param msg Report from the region server
+   * @param serverName
+   */
+  synchronized void taskDone(final HMsg msg, final String serverName) {
+    String log = Bytes.toString(msg.getMessage());
+    String server = this.assigned.get(log);
+    if (server == null || !server.equals(serverName)) {
+      LOG.warn("Ignoring report on log " + log + " from " + serverName +
+        "; not assigned to it");
+      return;
+    }
+    this.assigned.remove(log);
+    this.assignedTimes.remove(log);
+    if (msg.isType(HMsg.Type.MSG_REPORT_SPLIT_LOG)) {
+      complete(log, this.owners.get(log));
+      return;
+    }
+    failed(log);
+  }
+
+  /*
+   * Hand a task out again or, if it has failed too often, leave it for the
+   * master.
+   * @param log
+   */
+  private void failed(final String log) {
+    String deadServer = this.owners.get(log);
+    Integer count = this.failures.get(log);
+    count = Integer.valueOf(count == null ? 1 : count.intValue() + 1);
+    if (count.intValue() > this.retries) {
+      LOG.warn("Giving up distributed split of " + log + " after " +
+        count + " failures; master will split it");
+      this.abandoned.get(deadServer).add(log);
+      complete(log, deadServer);
+    } else {
+      this.failures.put(log, count);
+      this.pending.addFirst(log);
+    }
+  }
+
+  /**
+   * Put back the tasks a server was working on.
+   * @param serverName Server that is no longer with us
+   */
+  synchronized void serverGone(final String serverName) {
+    for (Iterator<Map.Entry<String, String>> i =
+        this.assigned.entrySet().iterator(); i.hasNext();) {
+      Map.Entry<String, String> e = i.next();
+      if (e.getValue().equals(serverName)) {
+        LOG.info("Requeuing split of " + e.getKey() + "; " + serverName +
+          " has gone");
+        this.pending.addFirst(e.getKey());
+        this.assignedTimes.remove(e.getKey());
+        i.remove();
+      }
+    }
+  }
+
+  private void complete(final String log, final String deadServer) {
+    this.owners.remove(log);
+    this.failures.remove(log);
+    this.timedOut.remove(log);
+    this.timedOutTimes.remove(log);
+    Set<String> logs = this.outstanding.get(deadServer);
+    if (logs != null) {
+      logs.remove(log);
+    }
+  }
+}
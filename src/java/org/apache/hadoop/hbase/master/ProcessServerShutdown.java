@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
@@ -49,6 +50,7 @@ class ProcessServerShutdown extends RegionServerOperation {
   private boolean rootRegionReassigned = false;
   private Path oldLogDir;
   private boolean logSplit;
+  private boolean logSplitSubmitted;
   private boolean rootRescanned;
   
 
@@ -75,6 +77,7 @@ class ProcessServerShutdown extends RegionServerOperation {
     this.deadServer = HServerInfo.getServerName(serverInfo);
     this.rootRegionServer = rootRegionServer;
     this.logSplit = false;
+    this.logSplitSubmitted = false;
     this.rootRescanned = false;
     this.oldLogDir =
       new Path(master.rootdir, HLog.getHLogDirectoryName(serverInfo));
@@ -238,6 +241,52 @@ class ProcessServerShutdown extends RegionServerOperation {
     }
   }
 
+  /*
+   * Split the logs of the dead server.  When distributed splitting is on and
+   * there are live region servers, the logs are handed out to them, one log
+   * per task, and we are called again until they are all done.  Otherwise,
+   * or for logs the region servers could not split, the master does it.
+   * @return True if the logs are split, false if we are to be called again.
+   * @throws IOException
+   */
+  private boolean splitLog() throws IOException {
+    DistributedLogSplitter splitter = master.serverManager.logSplitter;
+    if (!this.logSplitSubmitted) {
+      FileStatus [] logfiles = master.fs.listStatus(oldLogDir);
+      if (!splitter.isEnabled() || master.serverManager.numServers() == 0 ||
+          logfiles == null || logfiles.length == 0) {
+        if (!master.regionManager.splitLogLock.tryLock()) {
+          return false;
+        }
+        try {
+          HLog.splitLog(master.rootdir, oldLogDir, master.fs,
+            master.getConfiguration());
+        } finally {
+          master.regionManager.splitLogLock.unlock();
+        }
+        return true;
+      }
+      splitter.submit(this.deadServer, logfiles);
+      this.logSplitSubmitted = true;
+    }
+    // Take back tasks from servers that are hung on them
+    splitter.checkTimeouts();
+    if (master.serverManager.numServers() == 0) {
+      // Nobody left to hand the rest to
+      splitter.reclaim(this.deadServer);
+    }
+    if (!splitter.isDone(this.deadServer)) {
+      return false;
+    }
+    for (String log: splitter.finish(this.deadServer)) {
+      HLog.splitLogFile(master.rootdir, new Path(log), master.fs,
+        master.getConfiguration());
+    }
+    master.fs.delete(oldLogDir, true);
+    LOG.info("log file splitting completed for " + oldLogDir.toString());
+    return true;
+  }
+
   @Override
   protected boolean process() throws IOException {
     LOG.info("process shutdown of server " + this.deadServer +
@@ -249,16 +298,8 @@ class ProcessServerShutdown extends RegionServerOperation {
       master.regionManager.numOnlineMetaRegions());
     if (!logSplit) {
       // Process the old log file
-      if (master.fs.exists(oldLogDir)) {
-        if (!master.regionManager.splitLogLock.tryLock()) {
-          return false;
-        }
-        try {
-          HLog.splitLog(master.rootdir, oldLogDir, master.fs,
-            master.getConfiguration());
-        } finally {
-          master.regionManager.splitLogLock.unlock();
-        }
+      if (master.fs.exists(oldLogDir) && !splitLog()) {
+        return false;
       }
       logSplit = true;
     }
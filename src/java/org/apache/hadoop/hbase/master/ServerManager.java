@@ -102,6 +102,9 @@ class ServerManager implements HConstants {
    */
   private final int nobalancingCount;
 
+  /** Hands out logs of dead servers to live ones for splitting */
+  final DistributedLogSplitter logSplitter;
+
   /**
    * @param master
    */
@@ -112,6 +115,7 @@ class ServerManager implements HConstants {
       getLong("hbase.master.avgload.logging.period", 60000);
     this.nobalancingCount = master.getConfiguration().
       getInt("hbase.regions.nobalancing.count", 4);
+    this.logSplitter = new DistributedLogSplitter(master.getConfiguration());
   }
  
   /**
@@ -399,6 +403,12 @@ class ServerManager implements HConstants {
               returnMsgs);
           break;
 
+        case MSG_REPORT_SPLIT_LOG:
+        case MSG_REPORT_SPLIT_LOG_FAILED:
+          this.logSplitter.taskDone(incomingMsgs[i],
+            serverInfo.getServerName());
+          break;
+
         default:
           throw new IOException(
             "Impossible state during message processing. Instruction: " +
@@ -426,6 +436,8 @@ class ServerManager implements HConstants {
       // Send any pending table actions.
       this.master.regionManager.applyActions(serverInfo, returnMsgs);
     }
+    // Hand out logs of dead servers waiting to be split.
+    this.logSplitter.assignTasks(serverInfo.getServerName(), returnMsgs);
     return returnMsgs.toArray(new HMsg[returnMsgs.size()]);
   }
   
@@ -581,6 +593,7 @@ class ServerManager implements HConstants {
     // This method can be called a couple of times during shutdown.
     if (info != null) {
       LOG.info("Removing server's info " + serverName);
+      this.logSplitter.serverGone(serverName);
       if (master.getRootRegionLocation() != null &&
         info.getServerAddress().equals(master.getRootRegionLocation())) {
         master.regionManager.unsetRootRegion();
@@ -741,6 +754,7 @@ class ServerManager implements HConstants {
             }
           }
           deadServers.add(server);
+          logSplitter.serverGone(serverName);
           try {
             master.toDoQueue.put(new ProcessServerShutdown(master, info,
                 rootServer));
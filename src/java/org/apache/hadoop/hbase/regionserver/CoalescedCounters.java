@@ -0,0 +1,181 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Counters of a region whose increments are being coalesced.  The current
+ * value of each counter is kept here and written out to the HLog and
+ * memcache by the region at most once a period rather than on every
+ * increment.
+ *
+ * <p>The counters of a row must only be looked at or changed while holding
+ * the row's lock (or with the region closing and all row locks in).  The
+ * set of rows may be listed at any time.
+ */
+class CoalescedCounters {
+  /**
+   * A counter and whether it has changed since last written out.
+   */
+  static class Counter {
+    final byte [] row;
+    final byte [] family;
+    final byte [] qualifier;
+    long value;
+    // Timestamp of the newest version of the counter written out.
+    long timestamp;
+    boolean dirty;
+
+    Counter(final byte [] row, final byte [] family, final byte [] qualifier,
+        final long value, final long timestamp) {
+      this.row = row;
+      this.family = family;
+      this.qualifier = qualifier;
+      this.value = value;
+      this.timestamp = timestamp;
+      this.dirty = true;
+    }
+  }
+
+  private final ConcurrentHashMap<ImmutableBytesWritable, List<Counter>> rows =
+    new ConcurrentHashMap<ImmutableBytesWritable, List<Counter>>();
+
+  /**
+   * @param row
+   * @param family
+   * @param qualifier
+   * @return The counter or null if it is not held here.
+   */
+  Counter get(final byte [] row, final byte [] family,
+      final byte [] qualifier) {
+    List<Counter> counters = this.rows.get(new ImmutableBytesWritable(row));
+    if (counters == null) {
+      return null;
+    }
+    for (Counter c: counters) {
+      if (Bytes.equals(c.family, family) &&
+          Bytes.equals(c.qualifier, qualifier)) {
+        return c;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Start holding a counter.  It is dirty until first written out.
+   * @param row
+   * @param family
+   * @param qualifier
+   * @param value Current value
+   * @param timestamp Timestamp of the newest stored version or 0 if none.
+   * @return The new counter.
+   */
+  Counter add(final byte [] row, final byte [] family,
+      final byte [] qualifier, final long value, final long timestamp) {
+    ImmutableBytesWritable key = new ImmutableBytesWritable(row);
+    List<Counter> counters = this.rows.get(key);
+    if (counters == null) {
+      counters = new ArrayList<Counter>(1);
+      this.rows.put(key, counters);
+    }
+    Counter c = new Counter(row, family, qualifier, value, timestamp);
+    counters.add(c);
+    return c;
+  }
+
+  /**
+   * Stop holding the counters of a row.
+   * @param row
+   * @param family Family of the counters to drop or null for all.
+   * @return Dropped counters that are dirty.
+   */
+  List<Counter> remove(final byte [] row, final byte [] family) {
+    ImmutableBytesWritable key = new ImmutableBytesWritable(row);
+    List<Counter> counters = this.rows.get(key);
+    List<Counter> dirty = new ArrayList<Counter>();
+    if (counters == null) {
+      return dirty;
+    }
+    for (Iterator<Counter> i = counters.iterator(); i.hasNext();) {
+      Counter c = i.next();
+      if (family == null || Bytes.equals(c.family, family)) {
+        i.remove();
+        if (c.dirty) {
+          dirty.add(c);
+        }
+      }
+    }
+    if (counters.isEmpty()) {
+      this.rows.remove(key);
+    }
+    return dirty;
+  }
+
+  /**
+   * Get the counters of a row that are to be written out.  Counters that
+   * have not changed since last written are dropped; a counter stays only
+   * while it keeps being incremented.
+   * @param row
+   * @return Dirty counters of the row; they are marked clean.
+   */
+  List<Counter> drain(final byte [] row) {
+    ImmutableBytesWritable key = new ImmutableBytesWritable(row);
+    List<Counter> counters = this.rows.get(key);
+    List<Counter> dirty = new ArrayList<Counter>();
+    if (counters == null) {
+      return dirty;
+    }
+    for (Iterator<Counter> i = counters.iterator(); i.hasNext();) {
+      Counter c = i.next();
+      if (c.dirty) {
+        c.dirty = false;
+        dirty.add(c);
+      } else {
+        i.remove();
+      }
+    }
+    if (counters.isEmpty()) {
+      this.rows.remove(key);
+    }
+    return dirty;
+  }
+
+  /**
+   * @return Rows with counters held.
+   */
+  Set<ImmutableBytesWritable> getRows() {
+    return this.rows.keySet();
+  }
+
+  /**
+   * @return True if no counters are held.
+   */
+  boolean isEmpty() {
+    return this.rows.isEmpty();
+  }
+}
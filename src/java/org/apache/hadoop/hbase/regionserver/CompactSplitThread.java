@@ -22,8 +22,11 @@ package org.apache.hadoop.hbase.regionserver;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.hadoop.util.StringUtils;
@@ -44,6 +47,13 @@ import org.apache.hadoop.hbase.util.Writables;
 /** 
  * Compact region on request and then run split if appropriate
  *
+ * <p>This thread hands requested compactions to one of two pools so a long
+ * compaction does not hold up short ones.  Compactions that would read more
+ * than hbase.regionserver.compaction.large.threshold bytes go to the large
+ * pool of hbase.regionserver.compaction.large.threads threads; the rest go
+ * to the small pool of hbase.regionserver.compaction.small.threads.  In each
+ * pool the region with the most files in one store goes first.
+ *
  * NOTE: This class extends Thread rather than Chore because the sleep time
  * can be interrupted when there is something to do, rather than the Chore
  * sleep time which is invariant.
@@ -59,11 +69,17 @@ class CompactSplitThread extends Thread implements HConstants {
   private final HRegionServer server;
   private final HBaseConfiguration conf;
   
-  private final BlockingQueue<HRegion> compactionQueue =
-    new LinkedBlockingQueue<HRegion>();
+  private final BlockingQueue<CompactionRequest> compactionQueue =
+    new PriorityBlockingQueue<CompactionRequest>();
   
   private final HashSet<HRegion> regionsInQueue = new HashSet<HRegion>();
 
+  private final ThreadPoolExecutor smallCompactions;
+  private final ThreadPoolExecutor largeCompactions;
+  private final long largeThreshold;
+  private final CompactionThrottle throttle;
+  private final Object splitLock = new Object();
+
   private volatile int limit = 1;
 
   /** @param server */
@@ -74,7 +90,91 @@ class CompactSplitThread extends Thread implements HConstants {
     this.frequency =
       conf.getLong("hbase.regionserver.thread.splitcompactcheckfrequency",
       20 * 1000);
+    this.largeThreshold =
+      conf.getLong("hbase.regionserver.compaction.large.threshold",
+        2L * conf.getLong("hbase.hregion.max.filesize",
+          DEFAULT_MAX_FILE_SIZE));
+    this.throttle = new CompactionThrottle(conf);
+    this.smallCompactions = createPool("smallCompactions",
+      conf.getInt("hbase.regionserver.compaction.small.threads", 2));
+    this.largeCompactions = createPool("largeCompactions",
+      conf.getInt("hbase.regionserver.compaction.large.threads", 1));
+  }
+
+  private ThreadPoolExecutor createPool(final String name, final int threads) {
+    final String n = Thread.currentThread().getName();
+    return new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads),
+      60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, n + "." + name + "-" +
+            count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
   }
+
+  /*
+   * A region waiting on compaction.  Requests of regions with more files in
+   * one store sort first.
+   */
+  private class CompactionRequest
+  implements Runnable, Comparable<CompactionRequest> {
+    private final HRegion r;
+    private final int files;
+    private final long size;
+    private final long sequence;
+
+    CompactionRequest(final HRegion r, final long sequence) {
+      this.r = r;
+      this.files = r.getMaxStorefilesCount();
+      long s = 0;
+      try {
+        s = r.getCompactionSize();
+      } catch (IOException e) {
+        LOG.warn("Failed sizing compaction of " + r, e);
+      }
+      this.size = s;
+      this.sequence = sequence;
+    }
+
+    public int compareTo(final CompactionRequest o) {
+      if (this.files != o.files) {
+        return this.files > o.files? -1: 1;
+      }
+      // First come, first served
+      return this.sequence < o.sequence? -1:
+        this.sequence == o.sequence? 0: 1;
+    }
+
+    public void run() {
+      synchronized (regionsInQueue) {
+        regionsInQueue.remove(r);
+      }
+      if (server.isStopRequested()) {
+        return;
+      }
+      try {
+        byte [] midKey = r.compactStores();
+        if (midKey != null && !server.isStopRequested()) {
+          split(r, midKey);
+        }
+      } catch (IOException ex) {
+        LOG.error("Compaction/Split failed for region " +
+            Bytes.toString(r.getRegionName()),
+            RemoteExceptionHandler.checkIOException(ex));
+        server.checkFileSystem();
+      } catch (Exception ex) {
+        LOG.error("Compaction failed for region " +
+            Bytes.toString(r.getRegionName()), ex);
+        server.checkFileSystem();
+      }
+    }
+  }
+
+  private long requests = 0;
   
   @Override
   public void run() {
@@ -97,17 +197,16 @@ class CompactSplitThread extends Thread implements HConstants {
           }
           count = 0;
         }
-        r = compactionQueue.poll(this.frequency, TimeUnit.MILLISECONDS);
-        if (r != null && !this.server.isStopRequested()) {
-          synchronized (regionsInQueue) {
-            regionsInQueue.remove(r);
-          }
+        CompactionRequest cr =
+          compactionQueue.poll(this.frequency, TimeUnit.MILLISECONDS);
+        if (cr != null && !this.server.isStopRequested()) {
+          r = cr.r;
           lock.lock();
           try {
-            // Don't interrupt us while we are working
-            byte [] midKey = r.compactStores();
-            if (midKey != null && !this.server.isStopRequested()) {
-              split(r, midKey);
+            if (cr.size > this.largeThreshold) {
+              this.largeCompactions.execute(cr);
+            } else {
+              this.smallCompactions.execute(cr);
             }
           } finally {
             lock.unlock();
@@ -115,13 +214,6 @@ class CompactSplitThread extends Thread implements HConstants {
         }
       } catch (InterruptedException ex) {
         continue;
-      } catch (IOException ex) {
-        LOG.error("Compaction/Split failed" +
-            (r != null ? (" for region " + Bytes.toString(r.getRegionName())) : ""),
-            RemoteExceptionHandler.checkIOException(ex));
-        if (!server.checkFileSystem()) {
-          break;
-        }
       } catch (Exception ex) {
         LOG.error("Compaction failed" +
             (r != null ? (" for region " + Bytes.toString(r.getRegionName())) : ""),
@@ -133,9 +225,34 @@ class CompactSplitThread extends Thread implements HConstants {
     }
     regionsInQueue.clear();
     compactionQueue.clear();
+    // Drop the compactions that have not started yet but let those running
+    // finish; interrupting one would break it off in the middle of its IO.
+    this.smallCompactions.getQueue().clear();
+    this.largeCompactions.getQueue().clear();
+    this.smallCompactions.shutdown();
+    this.largeCompactions.shutdown();
+    awaitTermination(this.smallCompactions);
+    awaitTermination(this.largeCompactions);
     LOG.info(getName() + " exiting");
   }
 
+  /*
+   * Wait on the compactions running in <code>pool</code>.
+   * @param pool
+   */
+  private void awaitTermination(final ThreadPoolExecutor pool) {
+    while (!pool.isTerminated()) {
+      try {
+        if (!pool.awaitTermination(this.frequency, TimeUnit.MILLISECONDS)) {
+          LOG.info("Waiting on " + pool.getActiveCount() +
+            " running compaction(s)");
+        }
+      } catch (InterruptedException e) {
+        // continue
+      }
+    }
+  }
+
   /**
    * @param r HRegion store belongs to
    * @param why Why compaction requested -- used in debug messages
@@ -164,13 +281,44 @@ class CompactSplitThread extends Thread implements HConstants {
     }
     synchronized (regionsInQueue) {
       if (!regionsInQueue.contains(r)) {
-        compactionQueue.add(r);
+        compactionQueue.add(new CompactionRequest(r, this.requests++));
         regionsInQueue.add(r);
       }
     }
   }
+
+  /**
+   * @return Throttle shared by the compactions of this region server.
+   */
+  CompactionThrottle getThrottle() {
+    return this.throttle;
+  }
+
+  /**
+   * @return Count of compactions waiting for a thread of the small pool.
+   */
+  int getSmallCompactionQueueSize() {
+    return this.smallCompactions.getQueue().size();
+  }
+
+  /**
+   * @return Count of compactions waiting for a thread of the large pool.
+   */
+  int getLargeCompactionQueueSize() {
+    return this.largeCompactions.getQueue().size();
+  }
   
+  /*
+   * Splits run one at a time; they share the catalog table handles.
+   */
   private void split(final HRegion region, final byte [] midKey)
+  throws IOException {
+    synchronized (this.splitLock) {
+      doSplit(region, midKey);
+    }
+  }
+
+  private void doSplit(final HRegion region, final byte [] midKey)
   throws IOException {
     final HRegionInfo oldRegionInfo = region.getRegionInfo();
     final long startTime = System.currentTimeMillis();
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+/**
+ * Chooses the store files a minor compaction rewrites.  The implementation
+ * is named by hbase.hstore.compaction.policy and must have a public
+ * constructor that takes a {@link org.apache.hadoop.conf.Configuration}.
+ *
+ * <p>Policies see only file sizes and ages so that they can be run offline by
+ * {@link CompactionSimulator}.  Major compactions and compactions of stores
+ * holding references always take every file and do not consult the policy.
+ *
+ * @see DefaultCompactionPolicy
+ * @see RatioCompactionPolicy
+ * @see DateTieredCompactionPolicy
+ */
+public interface CompactionPolicy {
+  /**
+   * The chosen files must be adjacent so the compacted file can take their
+   * place in the sequence id order of the store.
+   * @param sizes Length of each store file, oldest first
+   * @param ages Milliseconds since the newest edit of each store file was
+   * flushed, oldest first
+   * @return Index of the first file to compact and one past the last, or null
+   * to compact nothing.
+   */
+  public int [] select(final long [] sizes, final long [] ages);
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Replays a trace of memcache flushes of one store against
+ * {@link CompactionPolicy}s.  It reports for each policy how much data it
+ * rewrites and how many files a read has to look at.  Use it to compare
+ * policies and tune their settings offline.
+ *
+ * <p>The trace has one flush a line: the flush time in milliseconds and the
+ * size of the flushed file in bytes, separated by white space.  If only the
+ * size is given, flushes are taken to be a minute apart.  Blank lines and
+ * lines starting with '#' are skipped.
+ *
+ * <p>Each flush is followed by at most one compaction, as when the region
+ * server asks for a compaction after a flush.  Compacted files are as big as
+ * their inputs added up; deletes, expired cells and extra versions are not
+ * modelled, and neither are major compactions.  The thresholds are read from
+ * the hbase configuration as they would be on a region server.
+ */
+public class CompactionSimulator {
+  private static final long DEFAULT_FLUSH_INTERVAL = 60 * 1000;
+
+  private final Configuration conf;
+  private final int compactionThreshold;
+
+  /**
+   * @param conf
+   */
+  public CompactionSimulator(final Configuration conf) {
+    this.conf = conf;
+    this.compactionThreshold =
+      conf.getInt("hbase.hstore.compactionThreshold", 3);
+  }
+
+  /**
+   * What a policy did over a trace.
+   */
+  public static class Result {
+    private final String policy;
+    private long flushes = 0;
+    private long flushedBytes = 0;
+    private long compactions = 0;
+    private long compactedBytes = 0;
+    private long files = 0;
+    private int maxFiles = 0;
+
+    Result(final String policy) {
+      this.policy = policy;
+    }
+
+    /** @return Count of compactions run */
+    public long getCompactions() {
+      return this.compactions;
+    }
+
+    /**
+     * @return Bytes written by flushes and compactions over bytes flushed
+     */
+    public double getWriteAmplification() {
+      return this.flushedBytes == 0? 0:
+        (double)(this.flushedBytes + this.compactedBytes) / this.flushedBytes;
+    }
+
+    /**
+     * @return Count of store files, on average between flushes
+     */
+    public double getFilesPerRead() {
+      return this.flushes == 0? 0: (double)this.files / this.flushes;
+    }
+
+    /** @return Most store files there were at once */
+    public int getMaxFiles() {
+      return this.maxFiles;
+    }
+
+    @Override
+    public String toString() {
+      return this.policy + ": flushes=" + this.flushes + ", flushed=" +
+        StringUtils.humanReadableInt(this.flushedBytes) + ", compactions=" +
+        this.compactions + ", compacted=" +
+        StringUtils.humanReadableInt(this.compactedBytes) +
+        ", writeAmplification=" +
+        String.format("%.2f", getWriteAmplification()) + ", filesPerRead=" +
+        String.format("%.2f", getFilesPerRead()) + ", maxFiles=" +
+        this.maxFiles;
+    }
+  }
+
+  /**
+   * Replay a trace against a policy.
+   * @param policy
+   * @param times When each flush happened, ascending
+   * @param sizes Size of each flushed file
+   * @return What the policy did
+   */
+  public Result simulate(final CompactionPolicy policy, final long [] times,
+      final long [] sizes) {
+    Result result = new Result(policy.getClass().getSimpleName());
+    // Store files, oldest first
+    List<Long> fileSizes = new ArrayList<Long>();
+    List<Long> flushTimes = new ArrayList<Long>();
+    for (int f = 0; f < times.length; f++) {
+      long now = times[f];
+      fileSizes.add(Long.valueOf(sizes[f]));
+      flushTimes.add(Long.valueOf(now));
+      result.flushes++;
+      result.flushedBytes += sizes[f];
+      if (fileSizes.size() >= this.compactionThreshold) {
+        compact(policy, fileSizes, flushTimes, now, result);
+      }
+      result.files += fileSizes.size();
+      result.maxFiles = Math.max(result.maxFiles, fileSizes.size());
+    }
+    return result;
+  }
+
+  private void compact(final CompactionPolicy policy,
+      final List<Long> fileSizes, final List<Long> flushTimes, final long now,
+      final Result result) {
+    long [] s = new long[fileSizes.size()];
+    long [] ages = new long[s.length];
+    for (int i = 0; i < s.length; i++) {
+      s[i] = fileSizes.get(i).longValue();
+      ages[i] = now - flushTimes.get(i).longValue();
+    }
+    int [] selection = policy.select(s, ages);
+    if (selection == null || selection[1] - selection[0] <= 1) {
+      return;
+    }
+    long size = 0;
+    long flushTime = -1;
+    for (int i = selection[1] - 1; i >= selection[0]; i--) {
+      size += fileSizes.remove(i).longValue();
+      flushTime = Math.max(flushTime, flushTimes.remove(i).longValue());
+    }
+    fileSizes.add(selection[0], Long.valueOf(size));
+    flushTimes.add(selection[0], Long.valueOf(flushTime));
+    result.compactions++;
+    result.compactedBytes += size;
+  }
+
+  /**
+   * Replay a trace against the policies named.
+   * @param trace Path to a trace file
+   * @param policies Class names of policies
+   * @return One result per policy
+   * @throws IOException
+   */
+  public List<Result> simulate(final String trace, final String [] policies)
+  throws IOException {
+    List<Long> times = new ArrayList<Long>();
+    List<Long> sizes = new ArrayList<Long>();
+    BufferedReader in = new BufferedReader(new FileReader(trace));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String [] fields = line.split("\\s+");
+        if (fields.length == 1) {
+          times.add(Long.valueOf(times.size() * DEFAULT_FLUSH_INTERVAL));
+          sizes.add(Long.valueOf(fields[0]));
+        } else {
+          times.add(Long.valueOf(fields[0]));
+          sizes.add(Long.valueOf(fields[1]));
+        }
+      }
+    } finally {
+      in.close();
+    }
+    long [] t = new long[times.size()];
+    long [] s = new long[sizes.size()];
+    for (int i = 0; i < t.length; i++) {
+      t[i] = times.get(i).longValue();
+      s[i] = sizes.get(i).longValue();
+    }
+    List<Result> results = new ArrayList<Result>();
+    for (String policy: policies) {
+      Configuration c = new Configuration(this.conf);
+      c.set("hbase.hstore.compaction.policy", policy);
+      results.add(simulate(Store.getCompactionPolicy(c), t, s));
+    }
+    return results;
+  }
+
+  private static void usage() {
+    System.err.println("Usage: java " + CompactionSimulator.class.getName() +
+      " <tracefile> [<policy class>...]");
+  }
+
+  /**
+   * Replay a trace against the named policies, or all shipped policies if
+   * none are named, and print what each did on <code>stdout</code>.
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      usage();
+      System.exit(-1);
+    }
+    String [] policies = new String [args.length - 1];
+    System.arraycopy(args, 1, policies, 0, policies.length);
+    if (policies.length == 0) {
+      policies = new String [] {DefaultCompactionPolicy.class.getName(),
+        RatioCompactionPolicy.class.getName(),
+        DateTieredCompactionPolicy.class.getName()};
+    }
+    CompactionSimulator simulator =
+      new CompactionSimulator(new HBaseConfiguration());
+    for (Result result: simulator.simulate(args[0], policies)) {
+      System.out.println(result);
+    }
+  }
+}
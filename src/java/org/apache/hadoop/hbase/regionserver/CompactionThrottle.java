@@ -0,0 +1,148 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Limits how fast the compactions of a region server read store files so
+ * they do not starve client requests of disk.  One instance is shared by all
+ * compactions running on a region server.  Writes are bounded too since a
+ * compaction never writes more than it reads.
+ *
+ * <p>The limit is hbase.regionserver.compaction.throughput.limit bytes a
+ * second, or hbase.regionserver.compaction.throughput.limit.offpeak between
+ * hbase.regionserver.compaction.offpeak.start.hour and
+ * hbase.regionserver.compaction.offpeak.end.hour.  A limit of zero or less
+ * means no limit.  Compactions of a store with hbase.hstore.blockingStoreFiles
+ * or more files are not held back since updates wait on them.
+ */
+class CompactionThrottle {
+  static final Log LOG = LogFactory.getLog(CompactionThrottle.class);
+
+  private final long limit;
+  private final long offPeakLimit;
+  private final int offPeakStartHour;
+  private final int offPeakEndHour;
+  private final int blockingStoreFiles;
+
+  // Time at which the bytes let through so far are paid for
+  private long nextFree = 0;
+
+  private final AtomicLong bytes = new AtomicLong(0);
+
+  /**
+   * @param conf
+   */
+  CompactionThrottle(final Configuration conf) {
+    this.limit =
+      conf.getLong("hbase.regionserver.compaction.throughput.limit", 0);
+    this.offPeakLimit =
+      conf.getLong("hbase.regionserver.compaction.throughput.limit.offpeak", 0);
+    this.offPeakStartHour =
+      conf.getInt("hbase.regionserver.compaction.offpeak.start.hour", -1);
+    this.offPeakEndHour =
+      conf.getInt("hbase.regionserver.compaction.offpeak.end.hour", -1);
+    int blocking = conf.getInt("hbase.hstore.blockingStoreFiles", -1);
+    if (blocking == -1) {
+      blocking = 1 + conf.getInt("hbase.hstore.compactionThreshold", 3);
+    }
+    this.blockingStoreFiles = blocking;
+    if (this.limit > 0) {
+      LOG.info("Compaction throughput limit=" +
+        StringUtils.humanReadableInt(this.limit) + "/s, offpeak limit=" +
+        (this.offPeakLimit > 0?
+          StringUtils.humanReadableInt(this.offPeakLimit) + "/s": "none") +
+        ", offpeak hours=" + this.offPeakStartHour + "-" +
+        this.offPeakEndHour);
+    }
+  }
+
+  /**
+   * Account for bytes read by a compaction, sleeping as long as it takes to
+   * keep under the limit.
+   * @param read Bytes read since last call
+   * @param storefiles Count of files in the store being compacted
+   */
+  void control(final long read, final int storefiles) {
+    this.bytes.addAndGet(read);
+    long l = getLimit(storefiles,
+      Calendar.getInstance().get(Calendar.HOUR_OF_DAY));
+    if (l <= 0) {
+      return;
+    }
+    long sleep;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      // No credit for time spent idle; a quiet spell would allow a burst.
+      long start = Math.max(now, this.nextFree);
+      this.nextFree = start + (read * 1000) / l;
+      sleep = start - now;
+    }
+    if (sleep > 0) {
+      try {
+        Thread.sleep(sleep);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @param storefiles Count of files in the store being compacted
+   * @param hour Hour of the day
+   * @return Bytes a second compactions may read; zero or less if no limit.
+   */
+  long getLimit(final int storefiles, final int hour) {
+    if (storefiles >= this.blockingStoreFiles) {
+      return 0;
+    }
+    return isOffPeak(hour)? this.offPeakLimit: this.limit;
+  }
+
+  /**
+   * @param hour Hour of the day
+   * @return True if <code>hour</code> is in the off-peak hours.  The hours
+   * may wrap around midnight, e.g. 22 to 6.
+   */
+  boolean isOffPeak(final int hour) {
+    if (this.offPeakStartHour < 0 || this.offPeakEndHour < 0 ||
+        this.offPeakStartHour == this.offPeakEndHour) {
+      return false;
+    }
+    if (this.offPeakStartHour < this.offPeakEndHour) {
+      return hour >= this.offPeakStartHour && hour < this.offPeakEndHour;
+    }
+    return hour >= this.offPeakStartHour || hour < this.offPeakEndHour;
+  }
+
+  /**
+   * @return Bytes read by compactions since the last call.
+   */
+  long getAndResetBytes() {
+    return this.bytes.getAndSet(0);
+  }
+}
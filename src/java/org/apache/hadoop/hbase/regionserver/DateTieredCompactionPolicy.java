@@ -0,0 +1,114 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Date-tiered selection for time-series data, where edits arrive in time order
+ * and old data is rarely rewritten.  Files are put in time windows by the age
+ * of their newest edit.  The newest window is
+ * hbase.hstore.compaction.date.tiered.base.window.millis wide; every
+ * hbase.hstore.compaction.date.tiered.windows.per.tier windows, the width is
+ * multiplied by that same count.  Only files in the same window are compacted
+ * together, so old data is rewritten a bounded number of times as its window
+ * widens, instead of with every flush.
+ *
+ * <p>The newest window with files to compact is compacted.  In the newest
+ * window, files are picked as by {@link RatioCompactionPolicy} so that each
+ * flush does not rewrite all the window holds.  In older windows, any two or
+ * more files are compacted, at most hbase.hstore.compaction.max, oldest
+ * first.  Files whose newest edit is older than
+ * hbase.hstore.compaction.date.tiered.max.age.millis are left alone; zero or
+ * less means no limit.
+ */
+public class DateTieredCompactionPolicy implements CompactionPolicy {
+  private final long baseWindow;
+  private final int windowsPerTier;
+  private final long maxAge;
+  private final int maxFilesToCompact;
+  private final CompactionPolicy newestWindowPolicy;
+
+  /**
+   * @param conf
+   */
+  public DateTieredCompactionPolicy(final Configuration conf) {
+    this.baseWindow = Math.max(1, conf.getLong(
+      "hbase.hstore.compaction.date.tiered.base.window.millis",
+      6 * 60 * 60 * 1000L));
+    this.windowsPerTier = Math.max(2,
+      conf.getInt("hbase.hstore.compaction.date.tiered.windows.per.tier", 4));
+    this.maxAge =
+      conf.getLong("hbase.hstore.compaction.date.tiered.max.age.millis", 0);
+    this.newestWindowPolicy = new RatioCompactionPolicy(conf);
+    this.maxFilesToCompact = Math.max(2,
+      conf.getInt("hbase.hstore.compaction.max", 10));
+  }
+
+  public int [] select(final long [] sizes, final long [] ages) {
+    // Walk the runs of files in the same window, newest first.
+    int end = sizes.length;
+    while (end > 0) {
+      if (this.maxAge > 0 && ages[end - 1] > this.maxAge) {
+        break;
+      }
+      int window = getWindow(ages[end - 1]);
+      int start = end - 1;
+      while (start > 0 && getWindow(ages[start - 1]) == window) {
+        start--;
+      }
+      if (window == 0) {
+        int count = end - start;
+        long [] s = new long[count];
+        long [] a = new long[count];
+        System.arraycopy(sizes, start, s, 0, count);
+        System.arraycopy(ages, start, a, 0, count);
+        int [] selection = this.newestWindowPolicy.select(s, a);
+        if (selection != null) {
+          return new int [] {start + selection[0], start + selection[1]};
+        }
+      } else if (end - start >= 2) {
+        return new int [] {start,
+          Math.min(end, start + this.maxFilesToCompact)};
+      }
+      end = start;
+    }
+    return null;
+  }
+
+  /**
+   * @param age Milliseconds since the newest edit of a file was flushed
+   * @return Index of the window the file falls in; 0 is the newest.
+   */
+  int getWindow(final long age) {
+    long start = 0;
+    long size = this.baseWindow;
+    int window = 0;
+    while (age - start >= size) {
+      start += size;
+      window++;
+      if (window % this.windowsPerTier == 0 &&
+          size < Long.MAX_VALUE / this.windowsPerTier) {
+        size *= this.windowsPerTier;
+      }
+    }
+    return window;
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The HBASE-745 rule: while the oldest file is more than twice the size of
+ * the next, leave it out, until no more than hbase.hstore.compaction.max files
+ * are left.  All newer files are compacted.
+ */
+public class DefaultCompactionPolicy implements CompactionPolicy {
+  private final int maxFilesToCompact;
+
+  /**
+   * @param conf
+   */
+  public DefaultCompactionPolicy(final Configuration conf) {
+    this.maxFilesToCompact = conf.getInt("hbase.hstore.compaction.max", 10);
+  }
+
+  public int [] select(final long [] sizes, final long [] ages) {
+    int countOfFiles = sizes.length;
+    int point = 0;
+    for (point = 0; point < countOfFiles - 1; point++) {
+      if ((sizes[point] < sizes[point + 1] * 2) && 
+           (countOfFiles - point) <= maxFilesToCompact) {
+        break;
+      }
+    }
+    return new int [] {point, countOfFiles};
+  }
+}
@@ -33,4 +33,12 @@ public interface FlushRequester {
    * @param region the HRegion requesting the cache flush
    */
   void request(HRegion region);
+
+  /**
+   * Tell the listener the region's memcache has grown enough that it is worth
+   * compacting it in memory ahead of a flush.
+   * 
+   * @param region the HRegion requesting the memcache compaction
+   */
+  void requestMemcacheCompaction(HRegion region);
 }
\ No newline at end of file
@@ -22,12 +22,23 @@ package org.apache.hadoop.hbase.regionserver;
 import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -37,6 +48,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.Syncable;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
@@ -46,6 +58,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
@@ -86,17 +99,33 @@ import org.apache.hadoop.io.compress.DefaultCodec;
  * rolling is not. To prevent log rolling taking place during this period, a
  * separate reentrant lock is used.
  *
+ * <p>
+ * Syncs are group committed.  Appenders that need their edits synced do not
+ * sync inline; they wait until the {@link LogSyncer} thread has done a sync
+ * that covers their last append.  One sync covers everything appended before
+ * it so concurrent appenders share syncs rather than queue behind each
+ * other's.
+ *
  */
 public class HLog implements HConstants, Syncable {
   private static final Log LOG = LogFactory.getLog(HLog.class);
   private static final String HLOG_DATFILE = "hlog.dat.";
+  /** Prefix of the per-log pieces written by {@link #splitLogFile} */
+  public static final String SPLIT_PIECE_PREFIX =
+    HREGION_OLDLOGFILE_NAME + ".split.";
   static final byte [] METACOLUMN = Bytes.toBytes("METACOLUMN:");
   static final byte [] METAROW = Bytes.toBytes("METAROW");
   final FileSystem fs;
   final Path dir;
   final Configuration conf;
   final LogRollListener listener;
+  private final String prefix;
+  // Compress log entries against per-file dictionaries
+  private final boolean dictionaryCompression;
+  // Dictionaries of the current log file if compressed; guarded by updateLock
+  private HLogDictionary.Context dictionaries = null;
   private final int maxlogentries;
+  private final long logrollsize;
   private final long optionalFlushInterval;
   private final long blocksize;
   private final int flushlogentries;
@@ -109,6 +138,20 @@ public class HLog implements HConstants, Syncable {
    */
   SequenceFile.Writer writer;
 
+  /*
+   * Next log file, opened ahead of the roll that will need it so the roll
+   * does not wait on the namenode while holding updateLock.
+   */
+  private final ExecutorService logCreator;
+  private Future<NextWriter> nextWriter = null;
+
+  /*
+   * Log file a roll has swapped out and is closing; guarded by updateLock.
+   * Nothing past what was appended to it is reported synced until it is
+   * closed.
+   */
+  private SequenceFile.Writer closingWriter = null;
+
   /*
    * Map of all log files but the current one. 
    */
@@ -121,16 +164,27 @@ public class HLog implements HConstants, Syncable {
   private final Map<byte [], Long> lastSeqWritten = Collections.
     synchronizedSortedMap(new TreeMap<byte [], Long>(Bytes.BYTES_COMPARATOR));
 
+  /*
+   * Map of consumer tailing this log to the sequence id of the last edit it
+   * is done with.  Logs with later edits are kept for it.
+   */
+  private final Map<String, Long> consumers =
+    new ConcurrentHashMap<String, Long>();
+
   private volatile boolean closed = false;
 
   private final Object sequenceLock = new Object();
   private volatile long logSeqNum = 0;
 
   private volatile long filenum = 0;
-  private volatile long old_filenum = -1;
   
   private volatile int numEntries = 0;
 
+  // About how many bytes have been appended to the current log file; written
+  // under updateLock.  Kept here so checking for a roll does not take the
+  // writer's lock, which the syncer holds while syncing.
+  private volatile long numBytes = 0;
+
   // This lock prevents starting a log roll during a cache flush.
   // synchronized is insufficient because a cache flush spans two method calls.
   private final Lock cacheFlushLock = new ReentrantLock();
@@ -138,6 +192,21 @@ public class HLog implements HConstants, Syncable {
   // We synchronize on updateLock to prevent updates and to prevent a log roll
   // during an update
   private final Object updateLock = new Object();
+
+  // Group commit.  Every append gets a transaction id; guarded by updateLock.
+  private long appendTxid = 0;
+  // Guards the below and is where appenders wait on the syncer.
+  private final Object syncLock = new Object();
+  // Highest transaction id asked to be synced.
+  private long syncRequestedTxid = 0;
+  // All appends up to and including this transaction id have been synced.
+  private volatile long syncedTillTxid = 0;
+  // If the last sync failed, appends up to this transaction id that were not
+  // already synced fail with syncFailure.
+  private long syncFailedTillTxid = 0;
+  private IOException syncFailure = null;
+
+  private final LogSyncer syncer;
   
   /*
    * If more than this many logs, force flush of oldest region to oldest edit
@@ -161,6 +230,28 @@ public class HLog implements HConstants, Syncable {
    */
   public HLog(final FileSystem fs, final Path dir, final Configuration conf,
     final LogRollListener listener)
+  throws IOException {
+    this(fs, dir, conf, listener, 0);
+  }
+
+  /**
+   * Create one of several edit logs sharing the given <code>dir</code>
+   * location.  A region server can run more than one log so updates to
+   * regions on different logs do not serialize on the one log.  Each log has
+   * its own files, sequence numbers and roller.  Log 0 makes the directory
+   * and names its files as a lone log does; the others put their index in
+   * their file names.  Splitting is unchanged; a region only ever writes the
+   * one log so the order of its edits is kept.
+   *
+   * @param fs
+   * @param dir
+   * @param conf
+   * @param listener
+   * @param index Which of the server's logs this is
+   * @throws IOException
+   */
+  public HLog(final FileSystem fs, final Path dir, final Configuration conf,
+    final LogRollListener listener, final int index)
   throws IOException {
     super();
     this.fs = fs;
@@ -173,16 +264,32 @@ public class HLog implements HConstants, Syncable {
       conf.getInt("hbase.regionserver.flushlogentries", 100);
     this.blocksize =
       conf.getLong("hbase.regionserver.hlog.blocksize", 1024L * 1024L);
+    this.logrollsize =
+      conf.getLong("hbase.regionserver.hlog.rollsize", 64L * 1024L * 1024L);
     this.optionalFlushInterval =
       conf.getLong("hbase.regionserver.optionallogflushinterval", 10 * 1000);
     this.threadWakeFrequency = conf.getLong(THREAD_WAKE_FREQUENCY, 10 * 1000);
     this.lastLogFlushTime = System.currentTimeMillis();
-    if (fs.exists(dir)) {
+    this.prefix = index == 0? HLOG_DATFILE: HLOG_DATFILE + index + ".";
+    this.dictionaryCompression =
+      conf.getBoolean("hbase.regionserver.hlog.compression.dictionary", false);
+    if (index == 0 && fs.exists(dir)) {
       throw new IOException("Target HLog directory already exists: " + dir);
     }
     fs.mkdirs(dir);
     this.maxLogs = conf.getInt("hbase.regionserver.maxlogs", 64);
+    this.logCreator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r,
+          Thread.currentThread().getName() + ".logCreator");
+        t.setDaemon(true);
+        return t;
+      }
+    });
     rollWriter();
+    this.syncer = new LogSyncer();
+    Threads.setDaemonThreadRunning(this.syncer,
+      Thread.currentThread().getName() + ".logSyncer");
   }
 
   /**
@@ -193,6 +300,14 @@ public class HLog implements HConstants, Syncable {
     return this.filenum;
   }
 
+  /**
+   * Accessor for tests.
+   * @return Transaction id of the last append known to be synced.
+   */
+  long getSyncedTillTxid() {
+    return this.syncedTillTxid;
+  }
+
   /**
    * Get the compression type for the hlog files.
    * @param c Configuration to use.
@@ -256,48 +371,126 @@ public class HLog implements HConstants, Syncable {
       if (closed) {
         return regionToFlush;
       }
+      // Get the next file before taking updateLock so appends carry on while
+      // it is created, if it was not created ahead of time.
+      NextWriter next = takeNextWriter();
+      SequenceFile.Writer oldWriter;
+      long oldFilenum;
+      long oldTxid;
+      long oldSeqNum;
+      int oldEntries;
       synchronized (updateLock) {
-        // Clean up current writer.
-        Path oldFile = cleanupCurrentWriter();
-        // Create a new one.
-        this.old_filenum = this.filenum;
-        this.filenum = System.currentTimeMillis();
-        Path newPath = computeFilename(this.filenum);
-
-        this.writer = SequenceFile.createWriter(this.fs, this.conf, newPath,
-          HLogKey.class, HLogEdit.class,
-          fs.getConf().getInt("io.file.buffer.size", 4096),
-          fs.getDefaultReplication(), this.blocksize,
-          SequenceFile.CompressionType.NONE, new DefaultCodec(), null,
-          new Metadata());
-
+        // Swap in the new writer.  The old one is closed below, after
+        // letting go of updateLock so appends carry on meanwhile.
+        oldWriter = this.writer;
+        oldFilenum = this.filenum;
+        oldTxid = this.appendTxid;
+        oldSeqNum = this.logSeqNum - 1;
+        oldEntries = this.numEntries;
+        this.closingWriter = oldWriter;
+        this.filenum = next.filenum;
+        this.writer = next.writer;
+        // A new file starts with empty dictionaries.
+        this.dictionaries = this.dictionaryCompression?
+          new HLogDictionary.Context(): null;
+        this.numEntries = 0;
+        this.numBytes = 0;
+        updateLock.notifyAll();
+      }
+      Path oldFile =
+        cleanupOldWriter(oldWriter, oldFilenum, oldTxid, oldSeqNum);
+      synchronized (updateLock) {
+        this.closingWriter = null;
         LOG.info((oldFile != null?
-          "Closed " + oldFile + ", entries=" + this.numEntries + ". ": "") +
-          "New log writer: " + FSUtils.getPath(newPath));
+          "Closed " + oldFile + ", entries=" + oldEntries + ". ": "") +
+          "New log writer: " + FSUtils.getPath(computeFilename(this.filenum)));
 
         // Can we delete any of the old log files?
         if (this.outputfiles.size() > 0) {
           if (this.lastSeqWritten.size() <= 0) {
-            LOG.debug("Last sequence written is empty. Deleting all old hlogs");
+            LOG.debug("Last sequence written is empty. Deleting all old hlogs" +
+              " not still to be read by a consumer");
             // If so, then no new writes have come in since all regions were
             // flushed (and removed from the lastSeqWritten map). Means can
             // remove all but currently open log file.
-            for (Map.Entry<Long, Path> e : this.outputfiles.entrySet()) {
+            SortedMap<Long, Path> deletable = this.outputfiles.headMap(
+              Long.valueOf(getConsumedSeqNum() + 1L));
+            for (Map.Entry<Long, Path> e : deletable.entrySet()) {
               deleteLogFile(e.getValue(), e.getKey());
             }
-            this.outputfiles.clear();
+            deletable.clear();
           } else {
             regionToFlush = cleanOldLogs();
           }
         }
-        this.numEntries = 0;
         updateLock.notifyAll();
       }
+      // Start on the file after this one.
+      this.nextWriter = this.logCreator.submit(new Callable<NextWriter>() {
+        public NextWriter call() throws IOException {
+          return createWriter();
+        }
+      });
     } finally {
       this.cacheFlushLock.unlock();
     }
     return regionToFlush;
   }
+
+  /*
+   * A log file opened ahead of when it is needed.
+   */
+  private static class NextWriter {
+    final long filenum;
+    final SequenceFile.Writer writer;
+
+    NextWriter(final long filenum, final SequenceFile.Writer writer) {
+      this.filenum = filenum;
+      this.writer = writer;
+    }
+  }
+
+  /*
+   * Create a new log file.  Its file number is the time now or one past the
+   * current file's so files sort in the order they are written.
+   * @return The new file and its number.
+   * @throws IOException
+   */
+  private NextWriter createWriter() throws IOException {
+    long fn = Math.max(System.currentTimeMillis(), this.filenum + 1);
+    Metadata metadata = new Metadata();
+    if (this.dictionaryCompression) {
+      HLogDictionary.markCompressed(metadata);
+    }
+    return new NextWriter(fn, SequenceFile.createWriter(this.fs, this.conf,
+      computeFilename(fn), HLogKey.class, HLogEdit.class,
+      fs.getConf().getInt("io.file.buffer.size", 4096),
+      fs.getDefaultReplication(), this.blocksize,
+      SequenceFile.CompressionType.NONE, new DefaultCodec(), null,
+      metadata));
+  }
+
+  /*
+   * Get the file opened ahead of time, or open one now if there is none or
+   * opening it failed.  Caller holds cacheFlushLock.
+   * @return The next log file.
+   * @throws IOException
+   */
+  private NextWriter takeNextWriter() throws IOException {
+    Future<NextWriter> f = this.nextWriter;
+    this.nextWriter = null;
+    if (f != null) {
+      try {
+        return f.get();
+      } catch (InterruptedException e) {
+        // Fall through and create one here
+      } catch (ExecutionException e) {
+        LOG.warn("Failed opening next log ahead of time; opening it now",
+          e.getCause());
+      }
+    }
+    return createWriter();
+  }
   
   /*
    * Clean up old commit logs.
@@ -308,11 +501,13 @@ public class HLog implements HConstants, Syncable {
   private byte [] cleanOldLogs() throws IOException {
     byte [] regionToFlush = null;
     Long oldestOutstandingSeqNum = getOldestOutstandingSeqNum();
+    long consumedSeqNum = getConsumedSeqNum();
     // Get the set of all log files whose final ID is older than or
-    // equal to the oldest pending region operation
+    // equal to the oldest pending region operation and that all consumers
+    // are done with
     TreeSet<Long> sequenceNumbers =
-      new TreeSet<Long>(this.outputfiles.headMap(
-        (Long.valueOf(oldestOutstandingSeqNum.longValue() + 1L))).keySet());
+      new TreeSet<Long>(this.outputfiles.headMap(Long.valueOf(Math.min(
+        oldestOutstandingSeqNum.longValue(), consumedSeqNum) + 1L)).keySet());
     // Now remove old log files (if any)
     byte [] oldestRegion = null;
     if (LOG.isDebugEnabled()) {
@@ -328,7 +523,9 @@ public class HLog implements HConstants, Syncable {
         deleteLogFile(this.outputfiles.remove(seq), seq);
       }
     }
-    int countOfLogs = this.outputfiles.size() - sequenceNumbers.size();
+    // Logs kept only for consumers are not helped by flushing.
+    int countOfLogs = this.outputfiles.headMap(
+      Long.valueOf(consumedSeqNum + 1L)).size();
     if (countOfLogs > this.maxLogs) {
       regionToFlush = oldestRegion != null?
         oldestRegion: getOldestRegion(oldestOutstandingSeqNum);
@@ -346,6 +543,17 @@ public class HLog implements HConstants, Syncable {
     return Collections.min(this.lastSeqWritten.values());
   }
 
+  /*
+   * @return Logs with no edit past this id have been read by all consumers.
+   */
+  private long getConsumedSeqNum() {
+    long seqnum = Long.MAX_VALUE - 1;
+    for (Long consumed: this.consumers.values()) {
+      seqnum = Math.min(seqnum, consumed.longValue());
+    }
+    return seqnum;
+  }
+
   private byte [] getOldestRegion(final Long oldestOutstandingSeqNum) {
     byte [] oldestRegion = null;
     for (Map.Entry<byte [], Long> e: this.lastSeqWritten.entrySet()) {
@@ -358,31 +566,44 @@ public class HLog implements HConstants, Syncable {
   }
 
   /*
-   * Cleans up current writer closing and adding to outputfiles.
-   * Presumes we're operating inside an updateLock scope.
-   * @return Path to current writer or null if none.
+   * Closes a writer a roll swapped out and adds it to outputfiles.  Called
+   * outside of updateLock; the close waits on any sync the syncer has under
+   * way on the writer.  Only once the close is done are the appends to it
+   * reported synced.
+   * @param oldWriter Writer swapped out, or null if none.
+   * @param oldFilenum Its file number.
+   * @param oldTxid Transaction id of the last append to it.
+   * @param oldSeqNum Highest sequence id written to it.
+   * @return Path to the closed writer or null if none.
    * @throws IOException
    */
-  private Path cleanupCurrentWriter() throws IOException {
+  private Path cleanupOldWriter(final SequenceFile.Writer oldWriter,
+      final long oldFilenum, final long oldTxid, final long oldSeqNum)
+  throws IOException {
     Path oldFile = null;
-    if (this.writer != null) {
-      // Close the current writer, get a new one.
+    if (oldWriter != null) {
       try {
-        this.writer.close();
+        oldWriter.close();
       } catch (IOException e) {
         // Failed close of log file.  Means we're losing edits.  For now,
         // shut ourselves down to minimize loss.  Alternative is to try and
-        // keep going.  See HBASE-930.
+        // keep going.  See HBASE-930.  Those waiting on a sync of the lost
+        // edits fail rather than wait on a sync that will not come.
+        synchronized (this.syncLock) {
+          this.syncFailedTillTxid = Math.max(this.syncFailedTillTxid, oldTxid);
+          this.syncFailure = e;
+          this.syncLock.notifyAll();
+        }
         FailedLogCloseException flce =
-          new FailedLogCloseException("#" + this.filenum);
+          new FailedLogCloseException("#" + oldFilenum);
         flce.initCause(e);
-        throw e; 
+        throw flce;
       }
-      oldFile = computeFilename(old_filenum);
-      if (filenum > 0) {
-        synchronized (this.sequenceLock) {
-          this.outputfiles.put(Long.valueOf(this.logSeqNum - 1), oldFile);
-        }
+      // Closing the writer flushed everything appended to it.
+      synced(oldTxid);
+      oldFile = computeFilename(oldFilenum);
+      if (oldFilenum > 0) {
+        this.outputfiles.put(Long.valueOf(oldSeqNum), oldFile);
       }
     }
     return oldFile;
@@ -401,7 +622,7 @@ public class HLog implements HConstants, Syncable {
    * @return Path
    */
   public Path computeFilename(final long fn) {
-    return new Path(dir, HLOG_DATFILE + fn);
+    return new Path(dir, this.prefix + fn);
   }
 
   /**
@@ -428,11 +649,34 @@ public class HLog implements HConstants, Syncable {
           LOG.debug("closing log writer in " + this.dir.toString());
         }
         this.writer.close();
+        synced(this.appendTxid);
         updateLock.notifyAll();
       }
+      discardNextWriter();
     } finally {
       cacheFlushLock.unlock();
     }
+    this.logCreator.shutdown();
+    this.syncer.interrupt();
+  }
+
+  /*
+   * Close and remove the log file opened ahead of time, if any; it has
+   * nothing in it.  Caller holds cacheFlushLock.
+   */
+  private void discardNextWriter() {
+    Future<NextWriter> f = this.nextWriter;
+    this.nextWriter = null;
+    if (f == null) {
+      return;
+    }
+    try {
+      NextWriter next = f.get();
+      next.writer.close();
+      this.fs.delete(computeFilename(next.filenum), false);
+    } catch (Exception e) {
+      LOG.warn("Failed removing unused log file", e);
+    }
   }
 
   /**
@@ -452,6 +696,10 @@ public class HLog implements HConstants, Syncable {
    * synchronized prevents appends during the completion of a cache flush or for
    * the duration of a log roll.
    *
+   * <p>Each run of edits on the same row is written as a single row edit
+   * under one HLogKey and sequence number rather than a record per
+   * KeyValue.
+   *
    * @param regionName
    * @param tableName
    * @param edits
@@ -460,12 +708,31 @@ public class HLog implements HConstants, Syncable {
    */
   void append(byte [] regionName, byte [] tableName, List<KeyValue> edits,
     boolean sync)
+  throws IOException {
+    append(regionName, tableName, edits, sync, false);
+  }
+
+  /**
+   * Append a set of edits to the log.
+   * @param regionName
+   * @param tableName
+   * @param edits
+   * @param sync True if the edits must be synced before returning.
+   * @param deferred True if the edits are of a table with deferred log flush;
+   * they are then left for the {@link LogFlusher} to sync.
+   * @throws IOException
+   * @see #append(byte[], byte[], List, boolean)
+   */
+  void append(byte [] regionName, byte [] tableName, List<KeyValue> edits,
+    boolean sync, boolean deferred)
   throws IOException {
     if (closed) {
       throw new IOException("Cannot append; log is closed");
     }
+    List<List<KeyValue>> rows = groupByRow(edits);
+    long txid;
     synchronized (updateLock) {
-      long seqNum[] = obtainSeqNum(edits.size());
+      long seqNum[] = obtainSeqNum(rows.size());
       // The 'lastSeqWritten' map holds the sequence number of the oldest
       // write for each region. When the cache is flushed, the entry for the
       // region being flushed is removed if the sequence number of the flush
@@ -474,38 +741,240 @@ public class HLog implements HConstants, Syncable {
         this.lastSeqWritten.put(regionName, Long.valueOf(seqNum[0]));
       }
       int counter = 0;
-      for (KeyValue kv: edits) {
+      for (List<KeyValue> row: rows) {
         HLogKey logKey =
           new HLogKey(regionName, tableName, seqNum[counter++]);
-       doWrite(logKey, new HLogEdit(kv), sync);
-
+        doWrite(logKey, new HLogEdit(row));
         this.numEntries++;
       }
+      txid = this.appendTxid;
       updateLock.notifyAll();
     }
-    if (this.numEntries > this.maxlogentries) {
-        requestLogRoll();
-    }
+    syncIfNeeded(txid, sync, deferred);
+    checkLogRoll();
   }
   
+  /*
+   * @param edits
+   * @return <code>edits</code> split into runs of KeyValues on the same row.
+   */
+  private static List<List<KeyValue>> groupByRow(final List<KeyValue> edits) {
+    List<List<KeyValue>> rows = new ArrayList<List<KeyValue>>(1);
+    List<KeyValue> row = null;
+    for (KeyValue kv: edits) {
+      if (row == null || !KeyValue.COMPARATOR.matchingRows(row.get(0), kv)) {
+        row = new ArrayList<KeyValue>();
+        rows.add(row);
+      }
+      row.add(kv);
+    }
+    return rows;
+  }
+
+  /**
+   * Returns when everything appended before the call has been synced.
+   * @throws IOException
+   */
   public void sync() throws IOException {
-    lastLogFlushTime = System.currentTimeMillis();
-    this.writer.sync();
-    unflushedEntries = 0;
+    long txid;
+    synchronized (updateLock) {
+      txid = this.appendTxid;
+    }
+    syncTo(txid);
   }
 
   void optionalSync() {
     if (!this.closed) {
-      synchronized (updateLock) {
-        if (((System.currentTimeMillis() - this.optionalFlushInterval) >
-        this.lastLogFlushTime) && this.unflushedEntries > 0) {
-          try {
-            sync();
-          } catch (IOException e) {
-            LOG.error("Error flushing HLog", e);
+      if (((System.currentTimeMillis() - this.optionalFlushInterval) >
+      this.lastLogFlushTime) && this.unflushedEntries > 0) {
+        long txid;
+        synchronized (updateLock) {
+          txid = this.appendTxid;
+        }
+        requestSync(txid);
+      }
+    }
+  }
+
+  /*
+   * Called after an append outside of updateLock.
+   * @param txid Transaction id of the last edit appended.
+   * @param sync True if caller needs its edits synced before returning.
+   * @param deferred True if the edits may wait on the LogFlusher.
+   * @throws IOException
+   */
+  private void syncIfNeeded(final long txid, final boolean sync,
+      final boolean deferred)
+  throws IOException {
+    if (sync ||
+        (!deferred && this.unflushedEntries >= this.flushlogentries)) {
+      // Wait on the syncer as an inline sync would have; it likely covers
+      // other appenders' edits too.
+      syncTo(txid);
+    }
+  }
+
+  /*
+   * Ask the syncer to sync up to at least <code>txid</code>.
+   * @param txid
+   */
+  private void requestSync(final long txid) {
+    synchronized (this.syncLock) {
+      if (txid > this.syncRequestedTxid) {
+        this.syncRequestedTxid = txid;
+        this.syncLock.notifyAll();
+      }
+    }
+  }
+
+  /*
+   * Wait until the syncer has synced up to at least <code>txid</code>.
+   * @param txid
+   * @throws IOException If the sync that covered <code>txid</code> failed.
+   */
+  private void syncTo(final long txid) throws IOException {
+    synchronized (this.syncLock) {
+      if (txid > this.syncRequestedTxid) {
+        this.syncRequestedTxid = txid;
+        this.syncLock.notifyAll();
+      }
+      while (this.syncedTillTxid < txid) {
+        if (txid <= this.syncFailedTillTxid) {
+          IOException ioe = new IOException("Failed sync of log");
+          ioe.initCause(this.syncFailure);
+          throw ioe;
+        }
+        if (this.closed) {
+          throw new IOException("Cannot sync; log is closed");
+        }
+        try {
+          this.syncLock.wait(this.threadWakeFrequency);
+        } catch (InterruptedException e) {
+          // continue
+        }
+      }
+    }
+  }
+
+  /*
+   * Record that all appends up to <code>txid</code> have been synced and
+   * wake those waiting on them.
+   * @param txid
+   */
+  private void synced(final long txid) {
+    synchronized (this.syncLock) {
+      if (txid > this.syncedTillTxid) {
+        this.syncedTillTxid = txid;
+      }
+      this.syncLock.notifyAll();
+    }
+  }
+
+  /*
+   * Sync everything appended so far.  Run by the syncer only.  The sync is
+   * done outside of updateLock so appends carry on meanwhile; it holds the
+   * writer's own lock, which the writer's appends take too.
+   * @return The writer if the sync failed, else null.
+   */
+  private SequenceFile.Writer doSync() {
+    long txid;
+    SequenceFile.Writer w;
+    synchronized (updateLock) {
+      txid = this.appendTxid;
+      if (this.closed || txid <= this.syncedTillTxid) {
+        return null;
+      }
+      if (this.closingWriter != null) {
+        // A roll is closing the last file.  Appends past it cannot be
+        // reported synced before it is closed; the roll reports it.
+        try {
+          updateLock.wait(this.threadWakeFrequency);
+        } catch (InterruptedException e) {
+          // continue
+        }
+        return null;
+      }
+      w = this.writer;
+    }
+    IOException failure = null;
+    try {
+      synchronized (w) {
+        w.sync();
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    synchronized (updateLock) {
+      if (failure != null && (w != this.writer || this.closed)) {
+        // A log roll or close shut the writer under us.  Closing it flushed
+        // all that was appended to it.
+        failure = null;
+      }
+      if (failure == null) {
+        this.lastLogFlushTime = System.currentTimeMillis();
+        this.unflushedEntries = (int)(this.appendTxid - txid);
+      }
+    }
+    if (failure == null) {
+      synced(txid);
+      return null;
+    }
+    LOG.fatal("Could not sync. Requesting close of log", failure);
+    requestLogRoll();
+    synchronized (this.syncLock) {
+      this.syncFailedTillTxid = txid;
+      this.syncFailure = failure;
+      this.syncLock.notifyAll();
+    }
+    return w;
+  }
+
+  /*
+   * After a failed sync, wait for the log roll to swap out the writer, or
+   * for threadWakeFrequency, whichever comes first, so the syncer does not
+   * spin on a broken writer.
+   * @param failed The writer whose sync failed.
+   */
+  private void waitOnLogRoll(final SequenceFile.Writer failed) {
+    long deadline = System.currentTimeMillis() + this.threadWakeFrequency;
+    synchronized (updateLock) {
+      long remaining;
+      while (!this.closed && this.writer == failed &&
+          (remaining = deadline - System.currentTimeMillis()) > 0) {
+        try {
+          updateLock.wait(remaining);
+        } catch (InterruptedException e) {
+          // continue
+        }
+      }
+    }
+  }
+
+  /**
+   * Thread that does syncs on behalf of appenders.  Each sync covers all
+   * that was appended up to when it started so waiting appenders are woken
+   * together.
+   */
+  class LogSyncer extends Thread {
+    @Override
+    public void run() {
+      while (!closed) {
+        synchronized (syncLock) {
+          if (syncRequestedTxid <= syncedTillTxid) {
+            try {
+              syncLock.wait(threadWakeFrequency);
+            } catch (InterruptedException e) {
+              // continue
+            }
+            continue;
           }
         }
+        SequenceFile.Writer failed = doSync();
+        if (failed != null) {
+          waitOnLogRoll(failed);
+        }
       }
+      LOG.debug(getName() + " exiting");
     }
   }
   
@@ -515,13 +984,19 @@ public class HLog implements HConstants, Syncable {
     }
   }
   
-  private void doWrite(HLogKey logKey, HLogEdit logEdit, boolean sync)
+  /*
+   * Append to the current writer.  Caller holds updateLock and syncs, if
+   * wanted, after letting it go.
+   */
+  private void doWrite(HLogKey logKey, HLogEdit logEdit)
   throws IOException {
     try {
+      logKey.setDictionaries(this.dictionaries);
+      logEdit.setDictionaries(this.dictionaries);
       this.writer.append(logKey, logEdit);
-      if (sync || ++unflushedEntries >= flushlogentries) {
-        sync();
-      }
+      this.numBytes += getWrittenSize(logKey, logEdit);
+      this.appendTxid++;
+      this.unflushedEntries++;
     } catch (IOException e) {
       LOG.fatal("Could not append. Requesting close of log", e);
       requestLogRoll();
@@ -553,6 +1028,9 @@ public class HLog implements HConstants, Syncable {
     }
     byte [] regionName = regionInfo.getRegionName();
     byte [] tableName = regionInfo.getTableDesc().getName();
+    boolean sync = regionInfo.isMetaRegion() || regionInfo.isRootRegion();
+    boolean deferred = regionInfo.getTableDesc().isDeferredLogFlush();
+    long txid;
     synchronized (updateLock) {
       long seqNum = obtainSeqNum();
       // The 'lastSeqWritten' map holds the sequence number of the oldest
@@ -564,16 +1042,41 @@ public class HLog implements HConstants, Syncable {
       }
 
       HLogKey logKey = new HLogKey(regionName, tableName, seqNum);
-      boolean sync = regionInfo.isMetaRegion() || regionInfo.isRootRegion();
-      doWrite(logKey, logEdit, sync);
+      doWrite(logKey, logEdit);
       this.numEntries++;
+      txid = this.appendTxid;
       updateLock.notifyAll();
     }
+    syncIfNeeded(txid, sync, deferred);
+    checkLogRoll();
+  }
 
-    if (this.numEntries > this.maxlogentries) {
-      if (listener != null) {
-        listener.logRollRequested();
-      }
+  /*
+   * @param logKey
+   * @param logEdit
+   * @return About how many bytes <code>logKey</code> and <code>logEdit</code>
+   * take in the log file.  Dictionary compression is not allowed for, so a
+   * compressed log is rolled somewhat before it reaches the roll size.
+   */
+  private static long getWrittenSize(final HLogKey logKey,
+      final HLogEdit logEdit) {
+    long size = logKey.getRegionName().length +
+      logKey.getTablename().length + Bytes.SIZEOF_LONG;
+    for (KeyValue kv: logEdit.getKeyValues()) {
+      size += kv.getLength() + Bytes.SIZEOF_INT;
+    }
+    return size;
+  }
+
+  /*
+   * Ask for a roll once the current file has grown past
+   * hbase.regionserver.hlog.rollsize bytes or, as a backstop,
+   * hbase.regionserver.maxlogentries entries.
+   */
+  private void checkLogRoll() {
+    if (this.numEntries > this.maxlogentries ||
+        this.numBytes > this.logrollsize) {
+      requestLogRoll();
     }
   }
 
@@ -598,6 +1101,58 @@ public class HLog implements HConstants, Syncable {
     return outputfiles.size();
   }
 
+  /**
+   * Read this log's edits from just after <code>position</code> on.  The
+   * consumer is registered so that logs holding edits it has not yet
+   * {@link HLogTailer#commit() committed} are not removed; a consumer that
+   * is already registered picks up from the new position.
+   * @param consumer Name of the consumer.
+   * @param position Sequence id of the last edit the consumer has seen, e.g.
+   * as saved from {@link HLogTailer#getPosition()}, or -1 to start with the
+   * oldest log still around.
+   * @return Reader of the log's edits.
+   */
+  public HLogTailer tail(final String consumer, final long position) {
+    this.consumers.put(consumer, Long.valueOf(position));
+    return new HLogTailer(this, consumer, position, this.fs, this.conf);
+  }
+
+  /*
+   * Record that a consumer is done with edits up to and including
+   * <code>seqnum</code>.
+   * @param consumer
+   * @param seqnum
+   */
+  void consumed(final String consumer, final long seqnum) {
+    if (this.consumers.containsKey(consumer)) {
+      this.consumers.put(consumer, Long.valueOf(seqnum));
+    }
+  }
+
+  /*
+   * Stop keeping logs for a consumer.
+   * @param consumer
+   */
+  void removeConsumer(final String consumer) {
+    this.consumers.remove(consumer);
+  }
+
+  /*
+   * @return All log files, oldest first, keyed by the highest sequence id
+   * they can hold.  The file being written is keyed by Long.MAX_VALUE.
+   */
+  SortedMap<Long, Path> getLogFiles() {
+    SortedMap<Long, Path> files = new TreeMap<Long, Path>();
+    synchronized (updateLock) {
+      files.putAll(this.outputfiles);
+      if (this.writer != null) {
+        files.put(Long.valueOf(Long.MAX_VALUE),
+          computeFilename(this.filenum));
+      }
+    }
+    return files;
+  }
+
   /**
    * Obtain a specified number of sequence numbers
    *
@@ -649,8 +1204,11 @@ public class HLog implements HConstants, Syncable {
         return;
       }
       synchronized (updateLock) {
-        this.writer.append(new HLogKey(regionName, tableName, logSeqId),
-          completeCacheFlushLogEdit());
+        HLogKey key = new HLogKey(regionName, tableName, logSeqId);
+        HLogEdit edit = completeCacheFlushLogEdit();
+        key.setDictionaries(this.dictionaries);
+        edit.setDictionaries(this.dictionaries);
+        this.writer.append(key, edit);
         this.numEntries++;
         Long seq = this.lastSeqWritten.get(regionName);
         if (seq != null && logSeqId >= seq.longValue()) {
@@ -713,7 +1271,7 @@ public class HLog implements HConstants, Syncable {
     }
     LOG.info("Splitting " + logfiles.length + " log(s) in " +
       srcDir.toString());
-    splitLog(rootDir, logfiles, fs, conf);
+    splitLog(rootDir, logfiles, fs, conf, HREGION_OLDLOGFILE_NAME);
     try {
       fs.delete(srcDir, true);
     } catch (IOException e) {
@@ -725,115 +1283,439 @@ public class HLog implements HConstants, Syncable {
     LOG.info("log file splitting completed for " + srcDir.toString());
   }
   
+  /**
+   * Split a single regionserver commit log file that is no longer being
+   * written to.  Used when splitting of a dead server's logs is spread over
+   * the cluster, one log per task.  Each region gets a piece named
+   * {@link #SPLIT_PIECE_PREFIX} plus the log name rather than the shared
+   * reconstruction log so logs of the one server can be split concurrently;
+   * the pieces are gathered up by {@link #mergeSplitLogPieces} when the
+   * region is next opened.  Redoing a split overwrites the pieces the
+   * earlier attempt wrote.  The log file is deleted when finished.
+   *
+   * @param rootDir qualified root directory of the HBase instance
+   * @param logfile Log file to split
+   * @param fs FileSystem
+   * @param conf HBaseConfiguration
+   * @throws IOException
+   */
+  public static void splitLogFile(final Path rootDir, final Path logfile,
+      final FileSystem fs, final Configuration conf)
+  throws IOException {
+    if (!fs.exists(logfile)) {
+      // Nothing to do; split already
+      return;
+    }
+    LOG.info("Splitting log " + logfile.toString());
+    splitLog(rootDir, new FileStatus [] {fs.getFileStatus(logfile)}, fs, conf,
+      SPLIT_PIECE_PREFIX + logfile.getName());
+    LOG.info("log file splitting completed for " + logfile.toString());
+  }
+
+  /**
+   * Gather the pieces left in a region directory by {@link #splitLogFile}
+   * into the region's reconstruction log, {@link #HREGION_OLDLOGFILE_NAME}.
+   * Pieces are appended in log name order, which is the order the logs were
+   * rolled, after the content of any reconstruction log already present.
+   * The pieces are deleted once copied.
+   *
+   * @param fs FileSystem
+   * @param regiondir Directory of the region
+   * @param conf HBaseConfiguration
+   * @throws IOException
+   */
+  public static void mergeSplitLogPieces(final FileSystem fs,
+      final Path regiondir, final Configuration conf)
+  throws IOException {
+    FileStatus [] pieces = fs.listStatus(regiondir, new PathFilter() {
+      public boolean accept(Path p) {
+        return p.getName().startsWith(SPLIT_PIECE_PREFIX);
+      }
+    });
+    if (pieces == null || pieces.length == 0) {
+      return;
+    }
+    Arrays.sort(pieces);
+    List<Path> inputs = new ArrayList<Path>(pieces.length + 1);
+    Path logfile = new Path(regiondir, HREGION_OLDLOGFILE_NAME);
+    if (fs.exists(logfile)) {
+      Path oldlogfile = new Path(logfile.toString() + ".old");
+      fs.rename(logfile, oldlogfile);
+      inputs.add(oldlogfile);
+    }
+    for (FileStatus piece: pieces) {
+      inputs.add(piece.getPath());
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Merging " + pieces.length + " split log piece(s) into " +
+        logfile);
+    }
+    SequenceFile.Writer w = SequenceFile.createWriter(fs, conf, logfile,
+      HLogKey.class, HLogEdit.class, getCompressionType(conf));
+    try {
+      HLogKey key = new HLogKey();
+      HLogEdit val = new HLogEdit();
+      for (Path input: inputs) {
+        SequenceFile.Reader in = new SequenceFile.Reader(fs, input, conf);
+        try {
+          while (in.next(key, val)) {
+            w.append(key, val);
+          }
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      w.close();
+    }
+    for (Path input: inputs) {
+      fs.delete(input, false);
+    }
+  }
+
   /*
+   * Splits the logs in parallel.  Logs are read in batches of up to
+   * hbase.regionserver.hlog.splitlog.reader.threads at a time, one log per
+   * reader thread.  Once a batch is read, each region's edits are appended to
+   * its output by a pool of hbase.regionserver.hlog.splitlog.writer.threads
+   * writers, one region at a time per writer.  A region's edits go out in the
+   * order the logs were passed and so in the order they were written.  Edits
+   * already in a store file of their family are dropped.
    * @param rootDir
    * @param logfiles
    * @param fs
    * @param conf
+   * @param outputName Name of the file written in each region directory.
    * @throws IOException
    */
   private static void splitLog(final Path rootDir, final FileStatus [] logfiles,
-    final FileSystem fs, final Configuration conf)
+    final FileSystem fs, final Configuration conf, final String outputName)
   throws IOException {
-    Map<byte [], SequenceFile.Writer> logWriters =
-      new TreeMap<byte [], SequenceFile.Writer>(Bytes.BYTES_COMPARATOR);
+    final Map<byte [], SequenceFile.Writer> logWriters =
+      Collections.synchronizedMap(
+        new TreeMap<byte [], SequenceFile.Writer>(Bytes.BYTES_COMPARATOR));
+    final Map<String, Long> flushedSeqIds =
+      new ConcurrentHashMap<String, Long>();
+    final AtomicLong skippedEdits = new AtomicLong(0);
+    int readerThreads = Math.max(1,
+      conf.getInt("hbase.regionserver.hlog.splitlog.reader.threads", 3));
+    int writerThreads = Math.max(1,
+      conf.getInt("hbase.regionserver.hlog.splitlog.writer.threads", 3));
+    ExecutorService readers = Executors.newFixedThreadPool(readerThreads);
+    ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+    boolean closed = false;
     try {
-      for (int i = 0; i < logfiles.length; i++) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Splitting " + (i + 1) + " of " + logfiles.length + ": " +
-            logfiles[i].getPath());
-        }
-        // Check for possibly empty file. With appends, currently Hadoop reports
-        // a zero length even if the file has been sync'd. Revisit if 
-        // HADOOP-4751 is committed.
-        boolean possiblyEmpty = logfiles[i].getLen() <= 0;
-        HLogKey key = new HLogKey();
-        HLogEdit val = new HLogEdit();
-        try {
-          SequenceFile.Reader in =
-            new SequenceFile.Reader(fs, logfiles[i].getPath(), conf);
-          try {
-            int count = 0;
-            for (; in.next(key, val); count++) {
-              byte [] tableName = key.getTablename();
-              byte [] regionName = key.getRegionName();
-              SequenceFile.Writer w = logWriters.get(regionName);
-              if (w == null) {
-                Path logfile = new Path(
-                    HRegion.getRegionDir(
-                        HTableDescriptor.getTableDir(rootDir, tableName),
-                        HRegionInfo.encodeRegionName(regionName)),
-                        HREGION_OLDLOGFILE_NAME);
-                Path oldlogfile = null;
-                SequenceFile.Reader old = null;
-                if (fs.exists(logfile)) {
-                  LOG.warn("Old log file " + logfile +
-                  " already exists. Copying existing file to new file");
-                  oldlogfile = new Path(logfile.toString() + ".old");
-                  fs.rename(logfile, oldlogfile);
-                  old = new SequenceFile.Reader(fs, oldlogfile, conf);
-                }
-                w = SequenceFile.createWriter(fs, conf, logfile, HLogKey.class,
-                    HLogEdit.class, getCompressionType(conf));
-                // Use copy of regionName; regionName object is reused inside in
-                // HStoreKey.getRegionName so its content changes as we iterate.
-                logWriters.put(regionName, w);
-                if (LOG.isDebugEnabled()) {
-                  LOG.debug("Creating new log file writer for path " + logfile +
-                      " and region " + Bytes.toString(regionName));
-                }
-
-                if (old != null) {
-                  // Copy from existing log file
-                  HLogKey oldkey = new HLogKey();
-                  HLogEdit oldval = new HLogEdit();
-                  for (; old.next(oldkey, oldval); count++) {
-                    if (LOG.isDebugEnabled() && count > 0 && count % 10000 == 0) {
-                      LOG.debug("Copied " + count + " edits");
-                    }
-                    w.append(oldkey, oldval);
-                  }
-                  old.close();
-                  fs.delete(oldlogfile, true);
-                }
-              }
-              w.append(key, val);
+      for (int i = 0; i < logfiles.length; i += readerThreads) {
+        int end = Math.min(logfiles.length, i + readerThreads);
+        List<Future<Map<byte [], List<Entry>>>> reads =
+          new ArrayList<Future<Map<byte [], List<Entry>>>>(end - i);
+        for (int j = i; j < end; j++) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Splitting " + (j + 1) + " of " + logfiles.length + ": " +
+              logfiles[j].getPath());
+          }
+          final FileStatus logfile = logfiles[j];
+          reads.add(readers.submit(new Callable<Map<byte [], List<Entry>>>() {
+            public Map<byte [], List<Entry>> call() throws IOException {
+              return readLog(rootDir, logfile, fs, conf, flushedSeqIds,
+                skippedEdits);
             }
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Applied " + count + " total edits from " +
-                  logfiles[i].getPath().toString());
+          }));
+        }
+        // Gather up the batch by region keeping log order.
+        Map<byte [], List<Entry>> regionEdits =
+          new TreeMap<byte [], List<Entry>>(Bytes.BYTES_COMPARATOR);
+        for (Future<Map<byte [], List<Entry>>> read: reads) {
+          for (Map.Entry<byte [], List<Entry>> e: getSplitResult(read).entrySet()) {
+            List<Entry> edits = regionEdits.get(e.getKey());
+            if (edits == null) {
+              regionEdits.put(e.getKey(), e.getValue());
+            } else {
+              edits.addAll(e.getValue());
             }
-          } catch (IOException e) {
-            e = RemoteExceptionHandler.checkIOException(e);
-            if (!(e instanceof EOFException)) {
-              LOG.warn("Exception processing " + logfiles[i].getPath() +
-                  " -- continuing. Possible DATA LOSS!", e);
+          }
+        }
+        List<Future<Object>> writes =
+          new ArrayList<Future<Object>>(regionEdits.size());
+        for (final Map.Entry<byte [], List<Entry>> e: regionEdits.entrySet()) {
+          writes.add(writers.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+              writeEdits(rootDir, e.getKey(), e.getValue(), outputName,
+                logWriters, fs, conf);
+              return null;
             }
-          } finally {
+          }));
+        }
+        for (Future<Object> write: writes) {
+          getSplitResult(write);
+        }
+      }
+      // Closing an output is what makes its edits durable.  If any close
+      // fails we throw and the input logs stay for the split to be redone.
+      synchronized (logWriters) {
+        for (SequenceFile.Writer w : logWriters.values()) {
+          w.close();
+        }
+      }
+      closed = true;
+    } finally {
+      readers.shutdown();
+      writers.shutdown();
+      if (!closed) {
+        synchronized (logWriters) {
+          for (SequenceFile.Writer w : logWriters.values()) {
             try {
-              in.close();
+              w.close();
             } catch (IOException e) {
-              LOG.warn("Close in finally threw exception -- continuing", e);
+              LOG.warn("Failed close of split output", e);
             }
-            // Delete the input file now so we do not replay edits.  We could
-            // have gotten here because of an exception.  If so, probably
-            // nothing we can do about it. Replaying it, it could work but we
-            // could be stuck replaying for ever. Just continue though we
-            // could have lost some edits.
-            fs.delete(logfiles[i].getPath(), true);
           }
-        } catch (IOException e) {
-          if (possiblyEmpty) {
-            continue;
+        }
+      }
+    }
+    // Now that all edits are out, delete the input files so we do not replay
+    // edits.  We could have had an exception reading.  If so, probably nothing
+    // we can do about it. Replaying it, it could work but we could be stuck
+    // replaying for ever. Just continue though we could have lost some edits.
+    for (int j = 0; j < logfiles.length; j++) {
+      fs.delete(logfiles[j].getPath(), true);
+    }
+    if (skippedEdits.get() > 0) {
+      LOG.info("Skipped " + skippedEdits.get() +
+        " edits already flushed to store files");
+    }
+  }
+
+  /*
+   * @param f
+   * @return Result of <code>f</code>.
+   * @throws IOException
+   */
+  private static <T> T getSplitResult(final Future<T> f) throws IOException {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted splitting logs");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      IOException ioe = new IOException("Failed splitting logs");
+      ioe.initCause(e.getCause());
+      throw ioe;
+    }
+  }
+
+  /*
+   * Read all edits out of a log.
+   * @param rootDir
+   * @param logfile
+   * @param fs
+   * @param conf
+   * @param flushedSeqIds Cache of highest flushed sequence id by region and
+   * family.
+   * @param skippedEdits Count of edits dropped because already flushed.
+   * @return Edits by region in the order found in the log.
+   * @throws IOException
+   */
+  private static Map<byte [], List<Entry>> readLog(final Path rootDir,
+    final FileStatus logfile, final FileSystem fs, final Configuration conf,
+    final Map<String, Long> flushedSeqIds, final AtomicLong skippedEdits)
+  throws IOException {
+    Map<byte [], List<Entry>> regionEdits =
+      new TreeMap<byte [], List<Entry>>(Bytes.BYTES_COMPARATOR);
+    // Check for possibly empty file. With appends, currently Hadoop reports
+    // a zero length even if the file has been sync'd. Revisit if
+    // HADOOP-4751 is committed.
+    boolean possiblyEmpty = logfile.getLen() <= 0;
+    try {
+      SequenceFile.Reader in =
+        new SequenceFile.Reader(fs, logfile.getPath(), conf);
+      try {
+        HLogDictionary.Context dictionaries = HLogDictionary.getContext(in);
+        int count = 0;
+        HLogKey key = new HLogKey();
+        HLogEdit val = new HLogEdit();
+        key.setDictionaries(dictionaries);
+        val.setDictionaries(dictionaries);
+        for (; in.next(key, val); count++) {
+          // Edits are written out again to uncompressed logs.
+          key.setDictionaries(null);
+          val.setDictionaries(null);
+          if (!val.isTransactionEntry()) {
+            val = dropFlushedEdits(rootDir, key, val, fs, flushedSeqIds,
+              skippedEdits);
           }
-          throw e;
+          if (val != null) {
+            List<Entry> edits = regionEdits.get(key.getRegionName());
+            if (edits == null) {
+              edits = new ArrayList<Entry>();
+              regionEdits.put(key.getRegionName(), edits);
+            }
+            edits.add(new Entry(key, val));
+          }
+          key = new HLogKey();
+          val = new HLogEdit();
+          key.setDictionaries(dictionaries);
+          val.setDictionaries(dictionaries);
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Read " + count + " total edits from " +
+            logfile.getPath().toString());
+        }
+      } catch (IOException e) {
+        e = RemoteExceptionHandler.checkIOException(e);
+        if (!(e instanceof EOFException)) {
+          LOG.warn("Exception processing " + logfile.getPath() +
+            " -- continuing. Possible DATA LOSS!", e);
+        }
+      } finally {
+        try {
+          in.close();
+        } catch (IOException e) {
+          LOG.warn("Close in finally threw exception -- continuing", e);
         }
       }
-    } finally {
-      for (SequenceFile.Writer w : logWriters.values()) {
-        w.close();
+    } catch (IOException e) {
+      if (!possiblyEmpty) {
+        throw e;
       }
     }
+    return regionEdits;
+  }
+
+  /*
+   * Drop KeyValues of <code>val</code> whose family has already flushed
+   * past the edit.
+   * @return <code>val</code>, a new edit of the KeyValues left, or null if
+   * none left.
+   * @throws IOException
+   */
+  private static HLogEdit dropFlushedEdits(final Path rootDir,
+    final HLogKey key, final HLogEdit val, final FileSystem fs,
+    final Map<String, Long> flushedSeqIds, final AtomicLong skippedEdits)
+  throws IOException {
+    List<KeyValue> kvs = val.getKeyValues();
+    List<KeyValue> unflushed = null;
+    for (int i = 0; i < kvs.size(); i++) {
+      KeyValue kv = kvs.get(i);
+      boolean flushed = !kv.matchingColumnNoDelimiter(METACOLUMN) &&
+        key.getLogSeqNum() <= getFlushedSeqId(rootDir, key, kv.getFamily(),
+          fs, flushedSeqIds);
+      if (flushed) {
+        skippedEdits.incrementAndGet();
+        if (unflushed == null) {
+          unflushed = new ArrayList<KeyValue>(kvs.subList(0, i));
+        }
+      } else if (unflushed != null) {
+        unflushed.add(kv);
+      }
+    }
+    if (unflushed == null) {
+      return val;
+    }
+    return unflushed.isEmpty()? null: new HLogEdit(unflushed);
+  }
+
+  /*
+   * @return Highest sequence id flushed to a store file of the family;
+   * -1 if nothing flushed.
+   * @throws IOException
+   */
+  private static long getFlushedSeqId(final Path rootDir, final HLogKey key,
+    final byte [] family, final FileSystem fs,
+    final Map<String, Long> flushedSeqIds)
+  throws IOException {
+    int encodedName = HRegionInfo.encodeRegionName(key.getRegionName());
+    String k = encodedName + "/" + Bytes.toString(family);
+    Long seqid = flushedSeqIds.get(k);
+    if (seqid == null) {
+      Path dir = Store.getStoreHomedir(
+        HTableDescriptor.getTableDir(rootDir, key.getTablename()),
+        encodedName, family);
+      seqid = Long.valueOf(StoreFile.getMaxSequenceId(fs, dir));
+      flushedSeqIds.put(k, seqid);
+    }
+    return seqid.longValue();
+  }
+
+  /*
+   * Append edits of a region to its output.  Only one thread writes a
+   * region at a time.  An existing reconstruction log is carried over into
+   * the new output; an existing split piece is from an earlier attempt at
+   * the same log and is overwritten.
+   * @throws IOException
+   */
+  private static void writeEdits(final Path rootDir, final byte [] regionName,
+    final List<Entry> edits, final String outputName,
+    final Map<byte [], SequenceFile.Writer> logWriters,
+    final FileSystem fs, final Configuration conf)
+  throws IOException {
+    SequenceFile.Writer w = logWriters.get(regionName);
+    if (w == null) {
+      byte [] tableName = edits.get(0).getKey().getTablename();
+      Path logfile = new Path(
+          HRegion.getRegionDir(
+              HTableDescriptor.getTableDir(rootDir, tableName),
+              HRegionInfo.encodeRegionName(regionName)),
+              outputName);
+      Path oldlogfile = null;
+      SequenceFile.Reader old = null;
+      if (outputName.equals(HREGION_OLDLOGFILE_NAME) && fs.exists(logfile)) {
+        LOG.warn("Old log file " + logfile +
+        " already exists. Copying existing file to new file");
+        oldlogfile = new Path(logfile.toString() + ".old");
+        fs.rename(logfile, oldlogfile);
+        old = new SequenceFile.Reader(fs, oldlogfile, conf);
+      }
+      w = SequenceFile.createWriter(fs, conf, logfile, HLogKey.class,
+          HLogEdit.class, getCompressionType(conf));
+      logWriters.put(regionName, w);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Creating new log file writer for path " + logfile +
+            " and region " + Bytes.toString(regionName));
+      }
+
+      if (old != null) {
+        // Copy from existing log file
+        HLogKey oldkey = new HLogKey();
+        HLogEdit oldval = new HLogEdit();
+        for (int count = 0; old.next(oldkey, oldval); count++) {
+          if (LOG.isDebugEnabled() && count > 0 && count % 10000 == 0) {
+            LOG.debug("Copied " + count + " edits");
+          }
+          w.append(oldkey, oldval);
+        }
+        old.close();
+        fs.delete(oldlogfile, true);
+      }
+    }
+    for (Entry e: edits) {
+      w.append(e.getKey(), e.getEdit());
+    }
+  }
+
+  /**
+   * A log key and its edit.
+   */
+  public static class Entry {
+    private final HLogKey key;
+    private final HLogEdit edit;
+
+    Entry(final HLogKey key, final HLogEdit edit) {
+      this.key = key;
+      this.edit = edit;
+    }
+
+    /** @return the key */
+    public HLogKey getKey() {
+      return this.key;
+    }
+
+    /** @return the edit */
+    public HLogEdit getEdit() {
+      return this.edit;
+    }
   }
 
   /**
@@ -917,8 +1799,11 @@ public class HLog implements HConstants, Syncable {
         }
         Reader log = new SequenceFile.Reader(fs, logPath, conf);
         try {
+          HLogDictionary.Context dictionaries = HLogDictionary.getContext(log);
           HLogKey key = new HLogKey();
           HLogEdit val = new HLogEdit();
+          key.setDictionaries(dictionaries);
+          val.setDictionaries(dictionaries);
           while (log.next(key, val)) {
             System.out.println(key.toString() + " " + val.toString());
           }
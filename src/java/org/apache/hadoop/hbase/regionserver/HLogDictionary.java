@@ -0,0 +1,150 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Dictionary of byte arrays seen in one log file.  The first time an entry
+ * is written it goes out in full and is given the next index; after that
+ * only the index is written.  The reader builds the same dictionary as it
+ * goes so a dictionary compressed log has to be read from the start, in
+ * order, as {@link HLog#splitLog} and replay do.  Once full, entries not
+ * already in the dictionary are always written in full.
+ *
+ * <p>A dictionary compressed log carries {@link #COMPRESSION_KEY} in its
+ * SequenceFile metadata.
+ */
+class HLogDictionary {
+  /** Metadata key naming the compression of a log file */
+  static final Text COMPRESSION_KEY = new Text("hlog.compression");
+  /** Metadata value of a dictionary compressed log file */
+  static final Text DICTIONARY = new Text("dictionary");
+
+  private static final int MAX_ENTRIES = Short.MAX_VALUE;
+  private static final int LITERAL = -1;
+
+  // Writers look up entries, readers index them.
+  private final Map<byte [], Integer> indexes =
+    new TreeMap<byte [], Integer>(Bytes.BYTES_COMPARATOR);
+  private final List<byte []> entries = new ArrayList<byte []>();
+
+  /**
+   * @param out
+   * @param b
+   * @throws IOException
+   */
+  void write(final DataOutput out, final byte [] b) throws IOException {
+    write(out, b, 0, b.length);
+  }
+
+  /**
+   * @param out
+   * @param b
+   * @param offset
+   * @param length
+   * @throws IOException
+   */
+  void write(final DataOutput out, final byte [] b, final int offset,
+      final int length)
+  throws IOException {
+    byte [] entry = b;
+    if (offset != 0 || length != b.length) {
+      entry = new byte[length];
+      System.arraycopy(b, offset, entry, 0, length);
+    }
+    Integer index = this.indexes.get(entry);
+    if (index != null) {
+      WritableUtils.writeVInt(out, index.intValue());
+      return;
+    }
+    WritableUtils.writeVInt(out, LITERAL);
+    Bytes.writeByteArray(out, entry);
+    if (this.indexes.size() < MAX_ENTRIES) {
+      this.indexes.put(entry, Integer.valueOf(this.indexes.size()));
+    }
+  }
+
+  /**
+   * @param in
+   * @return Entry read.  Shared with later reads of the same entry; do not
+   * modify.
+   * @throws IOException
+   */
+  byte [] read(final DataInput in) throws IOException {
+    int index = WritableUtils.readVInt(in);
+    if (index == LITERAL) {
+      byte [] entry = Bytes.readByteArray(in);
+      if (this.entries.size() < MAX_ENTRIES) {
+        this.entries.add(entry);
+      }
+      return entry;
+    }
+    if (index < 0 || index >= this.entries.size()) {
+      throw new IOException("Dictionary index " + index + " out of range " +
+        this.entries.size());
+    }
+    return this.entries.get(index);
+  }
+
+  /**
+   * The dictionaries of one log file.  Keys and edits use separate
+   * dictionaries so reading a key never depends on having read the value
+   * before it.
+   */
+  static class Context {
+    /** Region names of HLogKeys */
+    final HLogDictionary region = new HLogDictionary();
+    /** Table names of HLogKeys */
+    final HLogDictionary table = new HLogDictionary();
+    /** Rows of the KeyValues of HLogEdits */
+    final HLogDictionary row = new HLogDictionary();
+    /** Families of the KeyValues of HLogEdits */
+    final HLogDictionary family = new HLogDictionary();
+  }
+
+  /**
+   * @param metadata Metadata of a new log file.
+   */
+  static void markCompressed(final SequenceFile.Metadata metadata) {
+    metadata.set(COMPRESSION_KEY, DICTIONARY);
+  }
+
+  /**
+   * @param reader
+   * @return Dictionaries to read <code>reader</code> with, or null if the
+   * log is not dictionary compressed.
+   */
+  static Context getContext(final SequenceFile.Reader reader) {
+    return DICTIONARY.equals(reader.getMetadata().get(COMPRESSION_KEY))?
+      new Context(): null;
+  }
+}
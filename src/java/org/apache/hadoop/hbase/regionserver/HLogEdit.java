@@ -23,17 +23,29 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.io.BatchOperation;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * A log value.
  *
  * These aren't sortable; you need to sort by the matching HLogKey.
+ *
+ * <p>An edit carries either a single KeyValue or, for a row edit, all the
+ * KeyValues of one row mutation under the one HLogKey.  A row edit is
+ * written as an empty KeyValue followed by a count and the KeyValues.  A
+ * KeyValue is never empty so logs written before row edits still read.
+ *
+ * <p>In a dictionary compressed log an edit is written as a count and the
+ * KeyValues, each with its row and family replaced by a dictionary entry.
  * TODO: Remove.  Just output KVs.
  */
 public class HLogEdit implements Writable, HConstants {
@@ -64,18 +76,21 @@ public class HLogEdit implements Writable, HConstants {
   }
 
   private KeyValue kv;
+  // All KeyValues if this is a row edit, else null.  First is also kv.
+  private List<KeyValue> kvs = null;
   private static final int MAX_VALUE_LEN = 128;
   
   private boolean isTransactionEntry;
   private Long transactionId = null;
   private TransactionalOperation operation;
-
+  // Dictionaries of the log file being written or read, if compressed.
+  private HLogDictionary.Context dictionaries = null;
 
   /**
    * Default constructor used by Writable
    */
   public HLogEdit() {
-    this(null);
+    this((KeyValue)null);
   }
 
   /**
@@ -87,6 +102,17 @@ public class HLogEdit implements Writable, HConstants {
     this.isTransactionEntry = false;
   }
 
+  /**
+   * Construct a row edit.
+   * @param kvs KeyValues of one row mutation.  Cannot be empty.
+   */
+  public HLogEdit(final List<KeyValue> kvs) {
+    this(kvs.get(0));
+    if (kvs.size() > 1) {
+      this.kvs = kvs;
+    }
+  }
+
   /** 
    * Construct a WRITE transaction. 
    * @param transactionId
@@ -115,11 +141,24 @@ public class HLogEdit implements Writable, HConstants {
     this.isTransactionEntry = true;
   }
 
-  /** @return the KeyValue */
+  /** @return the KeyValue; the first KeyValue if a row edit */
   public KeyValue getKeyValue() {
     return this.kv;
   }
 
+  /** @return All KeyValues of this edit */
+  public List<KeyValue> getKeyValues() {
+    return this.kvs != null? this.kvs: Collections.singletonList(this.kv);
+  }
+
+  /**
+   * @param dictionaries Dictionaries of the log file this edit is written to
+   * or read from, or null if the log is not dictionary compressed.
+   */
+  void setDictionaries(final HLogDictionary.Context dictionaries) {
+    this.dictionaries = dictionaries;
+  }
+
   /** @return true if entry is a transactional entry */
   public boolean isTransactionEntry() {
     return isTransactionEntry;
@@ -159,6 +198,7 @@ public class HLogEdit implements Writable, HConstants {
       throw new RuntimeException("UTF8 encoding not present?", e);
     }
     return this.kv.toString() +
+      (this.kvs != null? "/kvs=" + this.kvs.size(): "") +
       (isTransactionEntry ? "/tran=" + transactionId + "/op=" +
         operation.toString(): "") + "/value=" + value;
   }
@@ -166,7 +206,21 @@ public class HLogEdit implements Writable, HConstants {
   // Writable
 
   public void write(DataOutput out) throws IOException {
-    Bytes.writeByteArray(out, kv.getBuffer(), kv.getOffset(), kv.getLength());
+    if (this.dictionaries != null) {
+      List<KeyValue> all = getKeyValues();
+      WritableUtils.writeVInt(out, all.size());
+      for (KeyValue k: all) {
+        writeCompressed(out, k);
+      }
+    } else if (this.kvs != null) {
+      Bytes.writeByteArray(out, HConstants.EMPTY_BYTE_ARRAY);
+      out.writeInt(this.kvs.size());
+      for (KeyValue k: this.kvs) {
+        Bytes.writeByteArray(out, k.getBuffer(), k.getOffset(), k.getLength());
+      }
+    } else {
+      Bytes.writeByteArray(out, kv.getBuffer(), kv.getOffset(), kv.getLength());
+    }
     out.writeBoolean(isTransactionEntry);
     if (isTransactionEntry) {
       out.writeLong(transactionId);
@@ -175,8 +229,38 @@ public class HLogEdit implements Writable, HConstants {
   }
   
   public void readFields(DataInput in) throws IOException {
+    if (this.dictionaries != null) {
+      int count = WritableUtils.readVInt(in);
+      if (count == 1) {
+        this.kvs = null;
+        this.kv = readCompressed(in);
+      } else {
+        this.kvs = new ArrayList<KeyValue>(count);
+        for (int i = 0; i < count; i++) {
+          this.kvs.add(readCompressed(in));
+        }
+        this.kv = this.kvs.get(0);
+      }
+      readTransaction(in);
+      return;
+    }
     byte [] kvbytes = Bytes.readByteArray(in);
-    this.kv = new KeyValue(kvbytes, 0, kvbytes.length);
+    if (kvbytes.length == 0) {
+      int count = in.readInt();
+      this.kvs = new ArrayList<KeyValue>(count);
+      for (int i = 0; i < count; i++) {
+        kvbytes = Bytes.readByteArray(in);
+        this.kvs.add(new KeyValue(kvbytes, 0, kvbytes.length));
+      }
+      this.kv = this.kvs.get(0);
+    } else {
+      this.kvs = null;
+      this.kv = new KeyValue(kvbytes, 0, kvbytes.length);
+    }
+    readTransaction(in);
+  }
+
+  private void readTransaction(final DataInput in) throws IOException {
     isTransactionEntry = in.readBoolean();
     if (isTransactionEntry) {
       transactionId = in.readLong();
@@ -184,6 +268,48 @@ public class HLogEdit implements Writable, HConstants {
     }
   }
 
+  /*
+   * Write a KeyValue with its row and family as dictionary entries followed
+   * by the value length and the rest of the KeyValue: qualifier, timestamp,
+   * type and value.
+   */
+  private void writeCompressed(final DataOutput out, final KeyValue k)
+  throws IOException {
+    byte [] b = k.getBuffer();
+    int rowoffset = k.getRowOffset();
+    int rowlength = k.getRowLength();
+    this.dictionaries.row.write(out, b, rowoffset, rowlength);
+    int familyoffset = k.getColumnOffset(rowlength);
+    int familylength = b[familyoffset - 1];
+    this.dictionaries.family.write(out, b, familyoffset, familylength);
+    int restoffset = familyoffset + familylength;
+    int restlength = k.getOffset() + k.getLength() - restoffset;
+    WritableUtils.writeVInt(out, k.getValueLength());
+    WritableUtils.writeVInt(out, restlength);
+    out.write(b, restoffset, restlength);
+  }
+
+  /*
+   * Rebuild a KeyValue written by writeCompressed.
+   */
+  private KeyValue readCompressed(final DataInput in) throws IOException {
+    byte [] row = this.dictionaries.row.read(in);
+    byte [] family = this.dictionaries.family.read(in);
+    int vlength = WritableUtils.readVInt(in);
+    int restlength = WritableUtils.readVInt(in);
+    int keylength = Bytes.SIZEOF_SHORT + row.length + Bytes.SIZEOF_BYTE +
+      family.length + restlength - vlength;
+    byte [] bytes = new byte[2 * Bytes.SIZEOF_INT + keylength + vlength];
+    int pos = Bytes.putInt(bytes, 0, keylength);
+    pos = Bytes.putInt(bytes, pos, vlength);
+    pos = Bytes.putShort(bytes, pos, (short)(row.length & 0x0000ffff));
+    pos = Bytes.putBytes(bytes, pos, row, 0, row.length);
+    pos = Bytes.putByte(bytes, pos, (byte)(family.length & 0x0000ff));
+    pos = Bytes.putBytes(bytes, pos, family, 0, family.length);
+    in.readFully(bytes, pos, restlength);
+    return new KeyValue(bytes, 0, bytes.length);
+  }
+
   /**
    * @param value
    * @return True if an entry and its content is {@link #DELETED_BYTES}.
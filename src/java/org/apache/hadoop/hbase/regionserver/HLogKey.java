@@ -38,6 +38,8 @@ public class HLogKey implements WritableComparable<HLogKey> {
   private byte [] regionName;
   private byte [] tablename;
   private long logSeqNum;
+  // Dictionaries of the log file being written or read, if compressed.
+  private HLogDictionary.Context dictionaries = null;
 
   /** Create an empty key useful when deserializing */
   public HLogKey() {
@@ -79,6 +81,14 @@ public class HLogKey implements WritableComparable<HLogKey> {
     return logSeqNum;
   }
   
+  /**
+   * @param dictionaries Dictionaries of the log file this key is written to
+   * or read from, or null if the log is not dictionary compressed.
+   */
+  void setDictionaries(final HLogDictionary.Context dictionaries) {
+    this.dictionaries = dictionaries;
+  }
+
   @Override
   public String toString() {
     return Bytes.toString(tablename) + "/" + Bytes.toString(regionName) + "/" +
@@ -124,14 +134,24 @@ public class HLogKey implements WritableComparable<HLogKey> {
   //
 
   public void write(DataOutput out) throws IOException {
-    Bytes.writeByteArray(out, this.regionName);
-    Bytes.writeByteArray(out, this.tablename);
+    if (this.dictionaries != null) {
+      this.dictionaries.region.write(out, this.regionName);
+      this.dictionaries.table.write(out, this.tablename);
+    } else {
+      Bytes.writeByteArray(out, this.regionName);
+      Bytes.writeByteArray(out, this.tablename);
+    }
     out.writeLong(logSeqNum);
   }
   
   public void readFields(DataInput in) throws IOException {
-    this.regionName = Bytes.readByteArray(in);
-    this.tablename = Bytes.readByteArray(in);
+    if (this.dictionaries != null) {
+      this.regionName = this.dictionaries.region.read(in);
+      this.tablename = this.dictionaries.table.read(in);
+    } else {
+      this.regionName = Bytes.readByteArray(in);
+      this.tablename = Bytes.readByteArray(in);
+    }
     this.logSeqNum = in.readLong();
   }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * Reads the edits of an {@link HLog} in the order they were appended, going
+ * from the rolled log files on to the one being written.  Get one from
+ * {@link HLog#tail(String, long)}.  Lets a consumer pick up what changed
+ * since it last looked rather than scanning tables.
+ *
+ * <p>The position of a tailer is the sequence id of the last edit it has
+ * returned.  A consumer that saves its position and passes it back to
+ * {@link HLog#tail(String, long)} later carries on where it left off.  Logs
+ * holding edits past the position last passed to {@link #commit()} are kept
+ * until the consumer moves past them or is {@link #close() closed}.
+ *
+ * <p>Only edits synced to the file system are seen.  Cache flush markers and
+ * transaction log entries are skipped.  Edits of a region server that died
+ * are gone once the master has split its logs.  Not thread-safe.
+ */
+public class HLogTailer {
+  static final Log LOG = LogFactory.getLog(HLogTailer.class);
+
+  private final HLog log;
+  private final String consumer;
+  private final FileSystem fs;
+  private final Configuration conf;
+
+  private long position;
+
+  // File reading last left off in, and where in it.  The offset is -1 if
+  // the file has to be read from the start, as for a compressed log.
+  private Path file = null;
+  private long offset = -1;
+
+  HLogTailer(final HLog log, final String consumer, final long position,
+      final FileSystem fs, final Configuration conf) {
+    this.log = log;
+    this.consumer = consumer;
+    this.position = position;
+    this.fs = fs;
+    this.conf = conf;
+  }
+
+  /**
+   * @param max Most edits to return.
+   * @return Up to <code>max</code> edits past the current position, oldest
+   * first.  Empty if there are none yet.
+   * @throws IOException
+   */
+  public List<HLog.Entry> next(final int max) throws IOException {
+    List<HLog.Entry> entries = new ArrayList<HLog.Entry>();
+    // Files that can hold edits past where we are, oldest first.
+    SortedMap<Long, Path> files =
+      this.log.getLogFiles().tailMap(Long.valueOf(this.position + 1));
+    for (Map.Entry<Long, Path> e: files.entrySet()) {
+      if (entries.size() >= max) {
+        break;
+      }
+      read(e.getValue(), max, entries);
+    }
+    return entries;
+  }
+
+  /*
+   * Read edits past the current position out of a log file.
+   * @param path
+   * @param max
+   * @param entries Where to add the edits read.
+   * @throws IOException
+   */
+  private void read(final Path path, final int max,
+      final List<HLog.Entry> entries)
+  throws IOException {
+    SequenceFile.Reader in = null;
+    try {
+      in = new SequenceFile.Reader(this.fs, path, this.conf);
+    } catch (FileNotFoundException e) {
+      LOG.warn(this.consumer + " skipping " + path + "; it has been removed");
+      return;
+    } catch (EOFException e) {
+      // Just created; not even the file header is synced yet.
+      return;
+    }
+    try {
+      HLogDictionary.Context dictionaries = HLogDictionary.getContext(in);
+      if (dictionaries == null && path.equals(this.file) && this.offset > 0) {
+        in.seek(this.offset);
+      }
+      while (entries.size() < max) {
+        HLogKey key = new HLogKey();
+        HLogEdit val = new HLogEdit();
+        key.setDictionaries(dictionaries);
+        val.setDictionaries(dictionaries);
+        try {
+          if (!in.next(key, val)) {
+            break;
+          }
+        } catch (EOFException e) {
+          // Rest of the file is not synced yet.
+          break;
+        }
+        if (key.getLogSeqNum() <= this.position) {
+          continue;
+        }
+        key.setDictionaries(null);
+        val.setDictionaries(null);
+        this.position = key.getLogSeqNum();
+        this.file = path;
+        this.offset = dictionaries == null? in.getPosition(): -1;
+        if (val.isTransactionEntry() || isCacheFlush(val)) {
+          continue;
+        }
+        entries.add(new HLog.Entry(key, val));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static boolean isCacheFlush(final HLogEdit val) {
+    List<KeyValue> kvs = val.getKeyValues();
+    return !kvs.isEmpty() &&
+      kvs.get(0).matchingColumnNoDelimiter(HLog.METACOLUMN);
+  }
+
+  /**
+   * @return Sequence id of the last edit returned.
+   */
+  public long getPosition() {
+    return this.position;
+  }
+
+  /**
+   * Let go of logs with no edits past the current position.  Call once the
+   * edits returned so far have been dealt with.
+   */
+  public void commit() {
+    this.log.consumed(this.consumer, this.position);
+  }
+
+  /**
+   * Stop tailing.  Logs are no longer kept for this consumer.
+   */
+  public void close() {
+    this.log.removeConsumer(this.consumer);
+  }
+}
@@ -20,8 +20,11 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -30,8 +33,15 @@ import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -53,6 +63,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.RegionHistorian;
+import org.apache.hadoop.hbase.RegionTooBusyException;
 import org.apache.hadoop.hbase.ValueOverMaxLengthException;
 import org.apache.hadoop.hbase.filter.RowFilterInterface;
 //import org.apache.hadoop.hbase.io.BatchOperation;
@@ -61,9 +72,11 @@ import org.apache.hadoop.hbase.filter.RowFilterInterface;
 //import org.apache.hadoop.hbase.io.Family;
 import org.apache.hadoop.hbase.io.Delete;
 import org.apache.hadoop.hbase.io.Get;
+import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.GetColumns;
 import org.apache.hadoop.hbase.io.GetFamilies;
 import org.apache.hadoop.hbase.io.HbaseMapWritable;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.io.Put;
 import org.apache.hadoop.hbase.io.Scan;
 //import org.apache.hadoop.hbase.io.RowResult;
@@ -73,6 +86,7 @@ import org.apache.hadoop.hbase.ipc.HRegionInterface;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.Writables;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.StringUtils;
@@ -129,8 +143,19 @@ public class HRegion implements HConstants {
   // Members
   //////////////////////////////////////////////////////////////////////////////
 
-  private final Map<Integer, byte []> locksToRows =
-    new ConcurrentHashMap<Integer, byte []>();
+  // Row lock id to the row it locks, and locked row to the latch its
+  // waiters wait on.  Rows are keyed by their bytes, not a hash of them.
+  private final ConcurrentHashMap<Integer, ImmutableBytesWritable> lockIds =
+    new ConcurrentHashMap<Integer, ImmutableBytesWritable>();
+  private final ConcurrentHashMap<ImmutableBytesWritable, CountDownLatch>
+    lockedRows =
+      new ConcurrentHashMap<ImmutableBytesWritable, CountDownLatch>();
+  private final AtomicInteger lockIdGenerator = new AtomicInteger(1);
+  private final long rowLockWaitDuration;
+  // Waits on row locks and time spent in them, ms, since last read by
+  // metrics.
+  final AtomicInteger rowLockWaits = new AtomicInteger(0);
+  final AtomicLong rowLockWaitTime = new AtomicLong(0);
   protected final Map<byte [], Store> stores =
     new ConcurrentSkipListMap<byte [], Store>(KeyValue.FAMILY_COMPARATOR);
   final AtomicLong memcacheSize = new AtomicLong(0);
@@ -161,6 +186,8 @@ public class HRegion implements HConstants {
     volatile boolean flushing = false;
     // Set when a flush has been requested.
     volatile boolean flushRequested = false;
+    // Set when an in-memory compaction of the memcaches has been requested.
+    volatile boolean memcacheCompactionRequested = false;
     // Set while a compaction is running.
     volatile boolean compacting = false;
     // Gets set in close. If set, cannot compact or flush again.
@@ -191,6 +218,14 @@ public class HRegion implements HConstants {
   private volatile long lastFlushTime;
   final FlushRequester flushListener;
   private final int blockingMemcacheSize;
+  // Milliseconds an update waits on a blocked region before being rejected
+  // with a RegionTooBusyException; negative to wait until unblocked.
+  private final long blockingWaitTime;
+  // Memcache size at which we first ask for an in-memory compaction of the
+  // memcaches; zero if in-memory compaction is disabled.
+  private final long memcacheCompactionSize;
+  // Memcache size at which we ask for the next in-memory compaction.
+  private volatile long nextMemcacheCompactionSize;
   final long threadWakeFrequency;
   // Used to guard splits and closes
   private final ReentrantReadWriteLock splitsAndClosesLock =
@@ -201,8 +236,13 @@ public class HRegion implements HConstants {
   // Stop updates lock
   private final ReentrantReadWriteLock updatesLock =
     new ReentrantReadWriteLock();
+  // Set while a flush wants or holds the updates write lock; a memcache
+  // compaction gives up its read lock when it sees this.
+  private final AtomicBoolean flushPending = new AtomicBoolean(false);
   private final Object splitLock = new Object();
   private long minSequenceId;
+  // Counters of families that coalesce increments
+  private final CoalescedCounters coalescedCounters = new CoalescedCounters();
   final AtomicInteger activeScannerCount = new AtomicInteger(0);
 
   /**
@@ -256,6 +296,13 @@ public class HRegion implements HConstants {
     this.memcacheFlushSize = flushSize;
     this.blockingMemcacheSize = this.memcacheFlushSize *
       conf.getInt("hbase.hregion.memcache.block.multiplier", 1);
+    this.blockingWaitTime =
+      conf.getLong("hbase.hregion.memcache.block.waittime", -1);
+    this.rowLockWaitDuration =
+      conf.getLong("hbase.rowlock.wait.duration", 30 * 1000);
+    this.memcacheCompactionSize = (long)(this.memcacheFlushSize *
+      conf.getFloat("hbase.hregion.memcache.compaction.ratio", 0.0f));
+    this.nextMemcacheCompactionSize = this.memcacheCompactionSize;
   }
 
   /**
@@ -276,12 +323,16 @@ public class HRegion implements HConstants {
       fs.rename(initialFiles, this.regiondir);
     }
 
-    // Load in all the HStores.
+    // Gather up any pieces left by a distributed split of our old server's
+    // logs into the one reconstruction log.
+    HLog.mergeSplitLogPieces(this.fs, this.regiondir, this.conf);
+
+    // Load in all the HStores.  The log is replayed below for all of them
+    // in one pass rather than by each as it is instantiated.
     long maxSeqId = -1;
     long minSeqId = Integer.MAX_VALUE;
-    for (HColumnDescriptor c : this.regionInfo.getTableDesc().getFamilies()) {
-      Store store = instantiateHStore(this.basedir, c, oldLogFile, reporter);
-      this.stores.put(c.getName(), store);
+    for (Store store: openStores(reporter)) {
+      this.stores.put(store.getFamily().getName(), store);
       long storeSeqId = store.getMaxSequenceId();
       if (storeSeqId > maxSeqId) {
         maxSeqId = storeSeqId;
@@ -292,7 +343,12 @@ public class HRegion implements HConstants {
     }
 
     // Play log if one.  Delete when done.
+    Store.runReconstructionLog(oldLogFile, this.regionInfo,
+      this.stores.values(), this.fs, this.conf, reporter);
     doReconstructionLog(oldLogFile, minSeqId, maxSeqId, reporter);
+    for (Store store: this.stores.values()) {
+      maxSeqId = Math.max(maxSeqId, store.getMaxSequenceId());
+    }
     if (fs.exists(oldLogFile)) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Deleting old log file: " + oldLogFile);
@@ -324,6 +380,59 @@ public class HRegion implements HConstants {
       " available");
   }
 
+  /*
+   * Instantiate the stores of all families, up to
+   * hbase.hregion.open.store.threads at a time, so the opening of their
+   * store files and the loading of their indices overlap.
+   * @param reporter
+   * @return The stores, in family order.
+   * @throws IOException
+   */
+  private List<Store> openStores(final Progressable reporter)
+  throws IOException {
+    Collection<HColumnDescriptor> families =
+      this.regionInfo.getTableDesc().getFamilies();
+    List<Store> result = new ArrayList<Store>(families.size());
+    int threads = Math.min(families.size(),
+      this.conf.getInt("hbase.hregion.open.store.threads", 3));
+    if (threads <= 1) {
+      for (HColumnDescriptor c: families) {
+        result.add(instantiateHStore(this.basedir, c, null, reporter));
+      }
+      return result;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Store>> opens = new ArrayList<Future<Store>>();
+      for (final HColumnDescriptor c: families) {
+        opens.add(pool.submit(new Callable<Store>() {
+          public Store call() throws IOException {
+            return instantiateHStore(basedir, c, null, reporter);
+          }
+        }));
+      }
+      for (Future<Store> open: opens) {
+        try {
+          result.add(open.get());
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted opening stores of " +
+            this.regionInfo.getRegionNameAsString());
+        } catch (ExecutionException e) {
+          Throwable t = e.getCause();
+          if (t instanceof IOException) {
+            throw (IOException)t;
+          }
+          IOException ioe = new IOException(t.toString());
+          ioe.initCause(t);
+          throw ioe;
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return result;
+  }
+
   /**
    * @return Updates to this region need to have a sequence id that is >= to
    * the this number.
@@ -432,6 +541,11 @@ public class HRegion implements HConstants {
   
           // Don't flush the cache if we are aborting
           if (!abort) {
+            // All row locks are in; write out coalesced counters.
+            for (ImmutableBytesWritable row:
+                this.coalescedCounters.getRows()) {
+              writeCounters(this.coalescedCounters.remove(row.get(), null));
+            }
             internalFlushcache();
           }
   
@@ -647,6 +761,16 @@ public class HRegion implements HConstants {
     FSUtils.deleteDirectory(this.fs, this.regionCompactionDir);
   }
 
+  /**
+   * Have the compactions of this region's stores held to a throughput limit.
+   * @param throttle Throttle shared by all compactions of the region server
+   */
+  void setCompactionThrottle(final CompactionThrottle throttle) {
+    for (Store store: this.stores.values()) {
+      store.setCompactionThrottle(throttle);
+    }
+  }
+
   void setForceMajorCompaction(final boolean b) {
     this.forceMajorCompaction = b;
   }
@@ -655,6 +779,30 @@ public class HRegion implements HConstants {
     return this.forceMajorCompaction;
   }
 
+  /**
+   * @return Estimate of the bytes of store files the next compaction of
+   * this region reads.
+   * @throws IOException
+   */
+  long getCompactionSize() throws IOException {
+    long size = 0;
+    for (Store store: stores.values()) {
+      size += store.getCompactionSize(this.forceMajorCompaction);
+    }
+    return size;
+  }
+
+  /**
+   * @return Most store files in any one store of this region.
+   */
+  int getMaxStorefilesCount() {
+    int count = 0;
+    for (Store store: stores.values()) {
+      count = Math.max(count, store.getStorefilesCount());
+    }
+    return count;
+  }
+
   /**
    * Called by compaction thread and after region is opened to compact the
    * HStores if necessary.
@@ -848,10 +996,12 @@ public class HRegion implements HConstants {
     // during the flush
     long sequenceId = -1L;
     long completeSequenceId = -1L;
+    final long currentMemcacheSize;
+    this.flushPending.set(true);
     this.updatesLock.writeLock().lock();
-    // Get current size of memcaches.
-    final long currentMemcacheSize = this.memcacheSize.get();
     try {
+      // Get current size of memcaches.
+      currentMemcacheSize = this.memcacheSize.get();
       for (Store s: stores.values()) {
         s.snapshot();
       }
@@ -859,6 +1009,7 @@ public class HRegion implements HConstants {
       completeSequenceId = this.getCompleteCacheFlushSequenceId(sequenceId);
     } finally {
       this.updatesLock.writeLock().unlock();
+      this.flushPending.set(false);
     }
 
     // Any failure from here on out will be catastrophic requiring server
@@ -878,6 +1029,13 @@ public class HRegion implements HConstants {
       }
       // Set down the memcache size by amount of flush.
       this.memcacheSize.addAndGet(-currentMemcacheSize);
+      this.nextMemcacheCompactionSize = this.memcacheCompactionSize;
+      // Notify anyone waiting on memcache to clear: e.g. checkResources().
+      // Done as soon as the size is set down rather than after the log has
+      // been told so blocked updates resume promptly.
+      synchronized (this) {
+        notifyAll();
+      }
     } catch (Throwable t) {
       // An exception here means that the snapshot was not persisted.
       // The hlog needs to be replayed so its content is restored to memcache.
@@ -901,12 +1059,6 @@ public class HRegion implements HConstants {
     this.log.completeCacheFlush(getRegionName(),
         regionInfo.getTableDesc().getName(), completeSequenceId);
 
-    // C. Finally notify anyone waiting on memcache to clear:
-    // e.g. checkResources().
-    synchronized (this) {
-      notifyAll();
-    }
-    
     if (LOG.isDebugEnabled()) {
       long now = System.currentTimeMillis();
       String timeTaken = StringUtils.formatTimeDiff(now, startTime);
@@ -1526,13 +1678,28 @@ public class HRegion implements HConstants {
    * Here we synchronize on HRegion, a broad scoped lock.  Its appropriate
    * given we're figuring in here whether this region is able to take on
    * writes.  This is only method with a synchronize (at time of writing),
-   * this and the synchronize on 'this' inside in internalFlushCache to send
-   * the notify.
+   * this and the synchronizes on 'this' inside in internalFlushCache and
+   * compactMemcaches to send the notify.
+   *
+   * If hbase.hregion.memcache.block.waittime is set, an update blocked for
+   * longer than it is rejected with a {@link RegionTooBusyException} rather
+   * than tying up the handler; the client backs off and retries.
+   * @throws RegionTooBusyException
    */
-  private void checkResources() {
+  private void checkResources() throws RegionTooBusyException {
     boolean blocked = false;
+    long deadline = this.blockingWaitTime < 0? Long.MAX_VALUE:
+      System.currentTimeMillis() + this.blockingWaitTime;
     while (this.memcacheSize.get() > this.blockingMemcacheSize) {
       requestFlush();
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new RegionTooBusyException("Rejecting update on region " +
+          Bytes.toString(getRegionName()) + ": Memcache size " +
+          StringUtils.humanReadableInt(this.memcacheSize.get()) +
+          " is >= than blocking " +
+          StringUtils.humanReadableInt(this.blockingMemcacheSize) + " size");
+      }
       if (!blocked) {
         LOG.info("Blocking updates for '" + Thread.currentThread().getName() +
           "' on region " + Bytes.toString(getRegionName()) +
@@ -1543,10 +1710,14 @@ public class HRegion implements HConstants {
       }
       blocked = true;
       synchronized(this) {
-        try {
-          wait(threadWakeFrequency);
-        } catch (InterruptedException e) {
-          // continue;
+        // Check again holding the lock the flusher notifies under so we
+        // don't miss the notify and sleep out a whole wake interval.
+        if (this.memcacheSize.get() > this.blockingMemcacheSize) {
+          try {
+            wait(Math.min(threadWakeFrequency, remaining));
+          } catch (InterruptedException e) {
+            // continue;
+          }
         }
       }
     }
@@ -1835,42 +2006,32 @@ public class HRegion implements HConstants {
   
   public void putRow(byte[] family, List<KeyValue> kvs, boolean writeToWAL)
   throws IOException {
+    if (!kvs.isEmpty()) {
+      writeCounters(this.coalescedCounters.remove(kvs.get(0).getRow(),
+        family));
+    }
     byte[] currTime = Bytes.toBytes(System.currentTimeMillis());
     boolean flush = false;
+    boolean compact = false;
     this.updatesLock.readLock().lock();
     try {
       if (writeToWAL) {
         this.log.append(regionInfo.getRegionName(),
           regionInfo.getTableDesc().getName(), kvs,
-          (regionInfo.isMetaRegion() || regionInfo.isRootRegion()));
-      }
-      long size = 0;
-      Store store = getStore(family);
-      byte[] bytes = null;
-      int keyLen = 0;
-      int tsInitOffset = 2*Bytes.SIZEOF_INT - Bytes.SIZEOF_BYTE - 
-        Bytes.SIZEOF_LONG;
-      int tsOffset = 0;
-      for (KeyValue kv: kvs) {
-        //Checking time in KeyValue. If time is LATEST_TIMESTAMP change it
-        //inplace to now
-        bytes = kv.getBuffer();
-        keyLen = Bytes.toInt(bytes, 0);
-        tsOffset = tsInitOffset + keyLen;
-        if(Bytes.compareTo(bytes, tsOffset, Bytes.SIZEOF_LONG, 
-            LONG_MAX_BYTES, 0, Bytes.SIZEOF_LONG) == 0){
-          Bytes.putBytes(bytes, tsOffset, currTime, 0, Bytes.SIZEOF_LONG);
-        }
-        
-        size = this.memcacheSize.addAndGet(store.put(kv));
+          (regionInfo.isMetaRegion() || regionInfo.isRootRegion()),
+          regionInfo.getTableDesc().isDeferredLogFlush());
       }
+      long size = addToMemcache(getStore(family), kvs, false, currTime);
       flush = isFlushSize(size);
+      compact = !flush && isMemcacheCompactionSize(size);
     } finally {
       this.updatesLock.readLock().unlock();
     }
     if (flush) {
       // Request a cache flush.  Do it outside update lock.
       requestFlush();
+    } else if (compact) {
+      requestMemcacheCompaction();
     }
   }
 
@@ -1884,46 +2045,239 @@ public class HRegion implements HConstants {
   
   public void deleteRow(byte[] family, List<KeyValue> kvs, boolean writeToWAL)
   throws IOException {
+    if (!kvs.isEmpty()) {
+      writeCounters(this.coalescedCounters.remove(kvs.get(0).getRow(),
+        family));
+    }
     byte[] currTime = Bytes.toBytes(System.currentTimeMillis());
     boolean flush = false;
+    boolean compact = false;
     this.updatesLock.readLock().lock();
     try {
       if (writeToWAL) {
         this.log.append(regionInfo.getRegionName(),
           regionInfo.getTableDesc().getName(), kvs,
-          (regionInfo.isMetaRegion() || regionInfo.isRootRegion()));
-      }
-      long size = 0;
-      Store store = getStore(family);
-      byte[] bytes = null;
-      int keyLen = 0;
-      int tsInitOffset = 2*Bytes.SIZEOF_INT - Bytes.SIZEOF_BYTE - 
-        Bytes.SIZEOF_LONG;
-      int tsOffset = 0;
-      for (KeyValue kv: kvs) {
-        //Checking time in KeyValue. If time is LATEST_TIMESTAMP change it
-        //inplace to now
-        bytes = kv.getBuffer();
-        keyLen = Bytes.toInt(bytes, 0);
-        tsOffset = tsInitOffset + keyLen;
-        if(Bytes.compareTo(bytes, tsOffset, Bytes.SIZEOF_LONG, 
-            LONG_MAX_BYTES, 0, Bytes.SIZEOF_LONG) == 0){
-          Bytes.putBytes(bytes, tsOffset, currTime, 0, Bytes.SIZEOF_LONG);
-        }
-      
-        size = this.memcacheSize.addAndGet(store.delete(kv));
+          (regionInfo.isMetaRegion() || regionInfo.isRootRegion()),
+          regionInfo.getTableDesc().isDeferredLogFlush());
       }
+      long size = addToMemcache(getStore(family), kvs, true, currTime);
       flush = isFlushSize(size);
+      compact = !flush && isMemcacheCompactionSize(size);
     } finally {
       this.updatesLock.readLock().unlock();
     }
     if (flush) {
       // Request a cache flush.  Do it outside update lock.
       requestFlush();
+    } else if (compact) {
+      requestMemcacheCompaction();
     }
   }
   
   
+  /*
+   * Add edits to a store's memcache, first setting any LATEST_TIMESTAMP
+   * timestamps to <code>currTime</code>.  Caller holds updatesLock.
+   * @param store
+   * @param kvs
+   * @param delete True if the edits are deletes
+   * @param currTime
+   * @return Size of the region's memcache after the adds.
+   */
+  private long addToMemcache(final Store store, final List<KeyValue> kvs,
+      final boolean delete, final byte [] currTime) {
+    long size = this.memcacheSize.get();
+    byte[] bytes = null;
+    int keyLen = 0;
+    int tsInitOffset = 2*Bytes.SIZEOF_INT - Bytes.SIZEOF_BYTE - 
+      Bytes.SIZEOF_LONG;
+    int tsOffset = 0;
+    for (KeyValue kv: kvs) {
+      //Checking time in KeyValue. If time is LATEST_TIMESTAMP change it
+      //inplace to now
+      bytes = kv.getBuffer();
+      keyLen = Bytes.toInt(bytes, 0);
+      tsOffset = tsInitOffset + keyLen;
+      if(Bytes.compareTo(bytes, tsOffset, Bytes.SIZEOF_LONG, 
+          LONG_MAX_BYTES, 0, Bytes.SIZEOF_LONG) == 0){
+        Bytes.putBytes(bytes, tsOffset, currTime, 0, Bytes.SIZEOF_LONG);
+      }
+      size = this.memcacheSize.addAndGet(delete? store.delete(kv):
+        store.put(kv));
+    }
+    return size;
+  }
+
+  /**
+   * Apply a batch of {@link Put}s and {@link Delete}s to this region.
+   *
+   * <p>Row locks are taken in row order so concurrent batches do not
+   * deadlock.  The edits of all mutations whose rows could be locked go to
+   * the HLog in one append and at most one sync, then to the memcache in the
+   * order given.  Mutations of one row are applied in the order given; each
+   * later one is stamped at least a millisecond after the one before.
+   * @param mutations Puts and Deletes
+   * @param lockids Row lock held by the caller for each mutation, or null
+   * where none is held
+   * @return Status of each mutation: one of
+   * {@link HRegionInterface#MUTATION_APPLIED},
+   * {@link HRegionInterface#MUTATION_RETRY} or
+   * {@link HRegionInterface#MUTATION_FAILED}.
+   * @throws IOException
+   */
+  public int [] batchMutate(final Writable [] mutations,
+      final Integer [] lockids)
+  throws IOException {
+    checkReadOnly();
+    // Do a rough check that we have resources to accept a write.
+    checkResources();
+    int [] status = new int[mutations.length];
+    Arrays.fill(status, HRegionInterface.MUTATION_FAILED);
+    splitsAndClosesLock.readLock().lock();
+    try {
+      // Rows and the lock to use for each; the ones taken here are released
+      // below.
+      Map<byte [], Integer> rowLocks =
+        new TreeMap<byte [], Integer>(Bytes.BYTES_COMPARATOR);
+      Map<byte [], Integer> acquired =
+        new TreeMap<byte [], Integer>(Bytes.BYTES_COMPARATOR);
+      List<Integer> valid = new ArrayList<Integer>(mutations.length);
+      for (int i = 0; i < mutations.length; i++) {
+        if (!(mutations[i] instanceof Put) &&
+            !(mutations[i] instanceof Delete)) {
+          LOG.warn("Not a Put or Delete: " + mutations[i]);
+          continue;
+        }
+        try {
+          checkRow(getRow(mutations[i]));
+          for (byte [] family: getFamilyMap(mutations[i]).keySet()) {
+            checkFamily(family);
+          }
+        } catch (WrongRegionException e) {
+          status[i] = HRegionInterface.MUTATION_RETRY;
+          continue;
+        } catch (NoSuchColumnFamilyException e) {
+          continue;
+        }
+        Integer lockid = lockids == null? null: lockids[i];
+        if (lockid != null) {
+          if (!isRowLocked(lockid)) {
+            LOG.warn("Invalid row lock " + lockid);
+            continue;
+          }
+          rowLocks.put(getRow(mutations[i]), lockid);
+        }
+        valid.add(Integer.valueOf(i));
+      }
+      try {
+        // TreeMap iterates rows in order.
+        Set<byte []> rows = new TreeSet<byte []>(Bytes.BYTES_COMPARATOR);
+        for (Integer i: valid) {
+          rows.add(getRow(mutations[i.intValue()]));
+        }
+        for (byte [] row: rows) {
+          if (rowLocks.containsKey(row)) {
+            continue;
+          }
+          try {
+            Integer lid = obtainRowLock(row);
+            rowLocks.put(row, lid);
+            acquired.put(row, lid);
+          } catch (IOException e) {
+            LOG.debug("Failed lock of row " + Bytes.toString(row) + ": " + e);
+          }
+        }
+        List<Integer> locked = new ArrayList<Integer>(valid.size());
+        List<KeyValue> edits = new ArrayList<KeyValue>();
+        for (Integer i: valid) {
+          Writable mutation = mutations[i.intValue()];
+          if (!rowLocks.containsKey(getRow(mutation))) {
+            status[i.intValue()] = HRegionInterface.MUTATION_RETRY;
+            continue;
+          }
+          if (mutation instanceof Delete && 
+              getFamilyMap(mutation).isEmpty()) {
+            // Delete of the whole row
+            for (byte [] family: regionInfo.getTableDesc().getFamiliesKeys()) {
+              ((Delete)mutation).deleteFamily(family);
+            }
+          }
+          for (Map.Entry<byte [], List<KeyValue>> e:
+              getFamilyMap(mutation).entrySet()) {
+            writeCounters(this.coalescedCounters.remove(getRow(mutation),
+              e.getKey()));
+            edits.addAll(e.getValue());
+          }
+          locked.add(i);
+        }
+        if (locked.isEmpty()) {
+          return status;
+        }
+        long now = System.currentTimeMillis();
+        // Time of the last mutation of each row in the batch.  A later
+        // mutation of the same row gets a later time so that, say, a Put
+        // after a row Delete is not masked by it.
+        Map<byte [], Long> rowTimes =
+          new TreeMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+        boolean flush = false;
+        boolean compact = false;
+        this.updatesLock.readLock().lock();
+        try {
+          this.log.append(regionInfo.getRegionName(),
+            regionInfo.getTableDesc().getName(), edits,
+            (regionInfo.isMetaRegion() || regionInfo.isRootRegion()),
+            regionInfo.getTableDesc().isDeferredLogFlush());
+          long size = this.memcacheSize.get();
+          for (Integer i: locked) {
+            Writable mutation = mutations[i.intValue()];
+            byte [] row = getRow(mutation);
+            long time = now;
+            Long last = rowTimes.get(row);
+            if (last != null && last.longValue() >= time) {
+              time = last.longValue() + 1;
+            }
+            rowTimes.put(row, Long.valueOf(time));
+            byte [] currTime = Bytes.toBytes(time);
+            for (Map.Entry<byte [], List<KeyValue>> e:
+                getFamilyMap(mutation).entrySet()) {
+              size = addToMemcache(getStore(e.getKey()), e.getValue(),
+                mutation instanceof Delete, currTime);
+            }
+            status[i.intValue()] = HRegionInterface.MUTATION_APPLIED;
+          }
+          flush = isFlushSize(size);
+          compact = !flush && isMemcacheCompactionSize(size);
+        } finally {
+          this.updatesLock.readLock().unlock();
+        }
+        if (flush) {
+          // Request a cache flush.  Do it outside update lock.
+          requestFlush();
+        } else if (compact) {
+          requestMemcacheCompaction();
+        }
+      } finally {
+        for (Integer lid: acquired.values()) {
+          releaseRowLock(lid);
+        }
+      }
+    } finally {
+      splitsAndClosesLock.readLock().unlock();
+    }
+    return status;
+  }
+
+  private static byte [] getRow(final Writable mutation) {
+    return mutation instanceof Put? ((Put)mutation).getRow():
+      ((Delete)mutation).getRow();
+  }
+
+  private static Map<byte [], List<KeyValue>> getFamilyMap(
+      final Writable mutation) {
+    return mutation instanceof Put? ((Put)mutation).getFamilyMap():
+      ((Delete)mutation).getFamilyMap();
+  }
+
   private void requestFlush() {
     if (this.flushListener == null) {
       return;
@@ -1948,6 +2302,97 @@ public class HRegion implements HConstants {
   private boolean isFlushSize(final long size) {
     return size > this.memcacheFlushSize;
   }
+
+  private void requestMemcacheCompaction() {
+    if (this.flushListener == null) {
+      return;
+    }
+    synchronized (writestate) {
+      if (this.writestate.memcacheCompactionRequested) {
+        return;
+      }
+      writestate.memcacheCompactionRequested = true;
+    }
+    this.flushListener.requestMemcacheCompaction(this);
+  }
+
+  /*
+   * @param size
+   * @return True if in-memory compaction is enabled and size is over the
+   * current in-memory compaction threshold
+   */
+  private boolean isMemcacheCompactionSize(final long size) {
+    return this.memcacheCompactionSize > 0 &&
+      size > this.nextMemcacheCompactionSize;
+  }
+
+  /**
+   * Compact the memcaches of all stores in memory: versions beyond the family
+   * max versions and cells covered by deletes are dropped so they never make
+   * it into a flush file.  Runs alongside updates and scanners.  Stores are
+   * done one at a time under the updates read lock so a flush cannot
+   * snapshot a memcache mid-compaction; a flush that wants the write lock
+   * makes the compaction give up at the next row and the rest is left for
+   * the next one.
+   *
+   * <p>Next compaction is asked for when the memcache has grown halfway from
+   * what is left after this one to the flush size, so a memcache with little
+   * to collapse doesn't get compacted over and over.
+   *
+   * @return Approximate number of bytes freed.
+   */
+  long compactMemcaches() {
+    long freed = 0;
+    try {
+      if (this.closed.get() || this.memcacheCompactionSize <= 0) {
+        return freed;
+      }
+      final long startTime = System.currentTimeMillis();
+      splitsAndClosesLock.readLock().lock();
+      try {
+        for (Store s: stores.values()) {
+          if (this.flushPending.get()) {
+            LOG.debug("Flush pending; giving up memcache compaction of " +
+              this);
+            break;
+          }
+          // Holding the updates read lock keeps a flush from snapshotting
+          // the memcache under us; updates carry on.  The freed size is
+          // taken off while still holding it so a flush cannot count it.
+          this.updatesLock.readLock().lock();
+          try {
+            long f = s.compactMemcache(this.flushPending);
+            this.memcacheSize.addAndGet(-f);
+            freed += f;
+          } finally {
+            this.updatesLock.readLock().unlock();
+          }
+        }
+        long size = this.memcacheSize.get();
+        this.nextMemcacheCompactionSize = Math.max(this.memcacheCompactionSize,
+          size + (this.memcacheFlushSize - size) / 2);
+        if (freed > 0) {
+          // Updates blocked in checkResources() may be able to go ahead.
+          synchronized (this) {
+            notifyAll();
+          }
+        }
+      } finally {
+        splitsAndClosesLock.readLock().unlock();
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Finished memcache compaction for region " + this + " in " +
+          (System.currentTimeMillis() - startTime) + "ms, freed ~" +
+          StringUtils.humanReadableInt(freed) + ", memcache size now " +
+          StringUtils.humanReadableInt(this.memcacheSize.get()));
+      }
+    } finally {
+      synchronized (writestate) {
+        this.writestate.memcacheCompactionRequested = false;
+      }
+    }
+    return freed;
+  }
   
   // Do any reconstruction needed from the log
   @SuppressWarnings("unused")
@@ -2056,19 +2501,41 @@ public class HRegion implements HConstants {
       if (this.closed.get()) {
         throw new NotServingRegionException("Region " + this + " closed");
       }
-      Integer key = Bytes.mapKey(row);
-      synchronized (locksToRows) {
-        while (locksToRows.containsKey(key)) {
+      ImmutableBytesWritable rowKey = new ImmutableBytesWritable(row);
+      CountDownLatch rowLatch = new CountDownLatch(1);
+      long start = System.currentTimeMillis();
+      boolean waited = false;
+      try {
+        // Only waiters on this row wait on its latch; releasing it wakes no
+        // one else.
+        CountDownLatch existing;
+        while ((existing = this.lockedRows.putIfAbsent(rowKey, rowLatch))
+            != null) {
+          waited = true;
+          long remaining =
+            start + this.rowLockWaitDuration - System.currentTimeMillis();
           try {
-            locksToRows.wait();
+            if (remaining <= 0 ||
+                !existing.await(remaining, TimeUnit.MILLISECONDS)) {
+              throw new IOException("Timed out after " +
+                this.rowLockWaitDuration + "ms waiting on lock for row " +
+                Bytes.toString(row) + " in region " + this);
+            }
           } catch (InterruptedException ie) {
             // Empty
           }
         }
-        locksToRows.put(key, row);
-        locksToRows.notifyAll();
-        return key;
+      } finally {
+        if (waited) {
+          this.rowLockWaits.incrementAndGet();
+          this.rowLockWaitTime.addAndGet(System.currentTimeMillis() - start);
+        }
       }
+      Integer lockId;
+      do {
+        lockId = Integer.valueOf(this.lockIdGenerator.getAndIncrement());
+      } while (this.lockIds.putIfAbsent(lockId, rowKey) != null);
+      return lockId;
     } finally {
       splitsAndClosesLock.readLock().unlock();
     }
@@ -2080,17 +2547,23 @@ public class HRegion implements HConstants {
    * @return Row that goes with <code>lockid</code>
    */
   byte [] getRowFromLock(final Integer lockid) {
-    return locksToRows.get(lockid);
+    ImmutableBytesWritable rowKey = this.lockIds.get(lockid);
+    return rowKey == null? null: rowKey.get();
   }
   
   /** 
    * Release the row lock!
-   * @param row Name of row whose lock we are to release
+   * @param lockid The lock id from {@link #obtainRowLock(byte[])}
    */
   void releaseRowLock(final Integer lockid) {
-    synchronized (locksToRows) {
-      locksToRows.remove(lockid);
-      locksToRows.notifyAll();
+    ImmutableBytesWritable rowKey = this.lockIds.remove(lockid);
+    if (rowKey == null) {
+      LOG.warn("Release of unknown row lock " + lockid + " in " + this);
+      return;
+    }
+    CountDownLatch rowLatch = this.lockedRows.remove(rowKey);
+    if (rowLatch != null) {
+      rowLatch.countDown();
     }
   }
   
@@ -2100,12 +2573,7 @@ public class HRegion implements HConstants {
    * @return boolean
    */
   private boolean isRowLocked(final Integer lockid) {
-    synchronized (locksToRows) {
-      if(locksToRows.containsKey(lockid)) {
-        return true;
-      }
-      return false;
-    }
+    return this.lockIds.containsKey(lockid);
   }
   
   /**
@@ -2129,11 +2597,11 @@ public class HRegion implements HConstants {
   }
   
   private void waitOnRowLocks() {
-    synchronized (locksToRows) {
-      while (this.locksToRows.size() > 0) {
-        LOG.debug("waiting for " + this.locksToRows.size() + " row locks");
+    while (!this.lockedRows.isEmpty()) {
+      LOG.debug("waiting for " + this.lockedRows.size() + " row locks");
+      for (CountDownLatch rowLatch: this.lockedRows.values()) {
         try {
-          this.locksToRows.wait();
+          rowLatch.await();
         } catch (InterruptedException e) {
           // Catch. Let while test determine loop-end.
         }
@@ -2819,77 +3287,221 @@ public class HRegion implements HConstants {
 
   
   
+  /**
+   * Atomically increment a counter.
+   * @param row
+   * @param family
+   * @param qualifier
+   * @param amount
+   * @return The new value of the counter.
+   * @throws IOException
+   * @see #incrementColumnValues(byte[], byte[], byte[][], long[])
+   */
   public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier,
       long amount)
   throws IOException {
+    return incrementColumnValues(row, family, new byte [][] {qualifier},
+      new long [] {amount})[0];
+  }
+
+  /**
+   * Atomically increment several counters of a row.
+   *
+   * <p>The current value of each counter is looked up in the memcache and
+   * only on a miss in the store files.  The new values go to the HLog in one
+   * append and each replaces the counter's older versions in the memcache,
+   * so a hot counter holds one KeyValue there.  Only the newest version of a
+   * counter is kept.
+   * @param row
+   * @param family
+   * @param qualifiers Counters to increment; a counter named more than once
+   * is incremented by the sum of its amounts.
+   * @param amounts Amount to add to each counter.
+   * @return The new value of each counter, in the order given.
+   * @throws IOException
+   */
+  public long [] incrementColumnValues(final byte [] row, final byte [] family,
+      final byte [][] qualifiers, final long [] amounts)
+  throws IOException {
+    if (qualifiers.length != amounts.length) {
+      throw new DoNotRetryIOException("Got " + qualifiers.length +
+        " qualifiers but " + amounts.length + " amounts");
+    }
+    checkReadOnly();
     checkRow(row);
     checkFamily(family);
-    
+    // Sum the amounts per counter.
+    Map<byte [], Long> counters =
+      new TreeMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+    for (int i = 0; i < qualifiers.length; i++) {
+      Long sum = counters.get(qualifiers[i]);
+      counters.put(qualifiers[i], Long.valueOf(amounts[i] +
+        (sum == null? 0: sum.longValue())));
+    }
+
+    // Rough check that we have resources to accept a write; see updateRow.
+    checkResources();
     Integer lid = obtainRowLock(row);
     splitsAndClosesLock.readLock().lock();
     try {
-      KeyValue kv = new KeyValue(row, family, qualifier);
-      long ts = System.currentTimeMillis();
-      byte [] value = null;
-
       Store store = getStore(family);
-
-      Get get = new Get(row);
-      get.addColumn(family, qualifier);
-      get.setMaxVersions(1);
-      ServerGet sget = new ServerGet(get);
-      List<KeyValue> result = new ArrayList<KeyValue>();
-      boolean multiFamily = false;
-      
-      // Try the memcache first.
-      store.lock.readLock().lock();
-      try {
-        store.memcache.getRow(sget, result, multiFamily);
-      } finally {
-        store.lock.readLock().unlock();
-      }
-      // Pick the latest value out of List<Cell> c:
-      if (result.size() >= 1) {
-        // Use the memcache timestamp value.
-        LOG.debug("Overwriting the memcache value for " + Bytes.toString(row) +
-          "/" + Bytes.toString(qualifier));
-        ts = result.get(0).getTimestamp();
-        value = result.get(0).getValue();
-      }
-
-      if (value == null) {
-        // Check the store (including disk) for the previous value.
+      boolean coalesce = store.getFamily().isCoalesceIncrements();
+      long now = System.currentTimeMillis();
+      List<KeyValue> edits = new ArrayList<KeyValue>(counters.size());
+      Map<byte [], Long> values =
+        new TreeMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+      List<KeyValue> result = new ArrayList<KeyValue>(1);
+      for (Map.Entry<byte [], Long> e: counters.entrySet()) {
+        byte [] qualifier = e.getKey();
+        CoalescedCounters.Counter counter = coalesce?
+          this.coalescedCounters.get(row, family, qualifier): null;
+        if (counter != null) {
+          counter.value += e.getValue().longValue();
+          counter.dirty = true;
+          values.put(qualifier, Long.valueOf(counter.value));
+          continue;
+        }
         result.clear();
-        store.getRow(sget, result);
-        if (result != null && result.size() == 1) {
-          LOG.debug("Using HFile previous value for " + Bytes.toString(row) +
-            "/" + Bytes.toString(qualifier));
-          value = result.get(0).getValue();
-        } else if (result != null && result.size() > 1) {
-          throw new DoNotRetryIOException("more than 1 value returned in " +
-            "incrementColumnValue from Store");
+        // Try the memcache first.
+        Set<byte []> columns = new TreeSet<byte []>(Bytes.BYTES_COMPARATOR);
+        columns.add(qualifier);
+        boolean inMemcache = store.memcache.getColumns(row, family, columns,
+          1, new TimeRange(), now, result);
+        if (!inMemcache) {
+          // Check the store (including disk) for the previous value.
+          Get get = new Get(row);
+          get.addColumn(family, qualifier);
+          get.setMaxVersions(1);
+          store.getRow(new ServerGet(get), result);
+          if (result.size() > 1) {
+            throw new DoNotRetryIOException("more than 1 value returned in " +
+              "incrementColumnValue from Store");
+          }
         }
+        byte [] value = null;
+        long ts = now;
+        long currentTs = 0;
+        if (result.isEmpty()) {
+          // Doesn't exist
+          value = Bytes.toBytes(e.getValue().longValue());
+        } else {
+          KeyValue current = result.get(0);
+          value = incrementBytes(current.getValue(), e.getValue().longValue());
+          currentTs = current.getTimestamp();
+          // Never stamp ahead of the clock, or later client edits stamped
+          // now would be masked.  If the current version is not older than
+          // now, reuse its timestamp; the upsert replaces its value.  A
+          // version in a store file cannot be replaced so step past it,
+          // once per flush at most.
+          ts = Math.max(now, inMemcache? currentTs: currentTs + 1);
+        }
+        values.put(qualifier, Long.valueOf(Bytes.toLong(value)));
+        if (coalesce) {
+          // Written out later by flushCoalescedCounters.
+          this.coalescedCounters.add(row, family, qualifier,
+            Bytes.toLong(value), currentTs);
+          continue;
+        }
+        edits.add(new KeyValue(row, family, qualifier, ts,
+          KeyValue.Type.Put, value));
       }
-      
-      if (value == null) {
-        // Doesn't exist
-        LOG.debug("Creating new counter value for " + Bytes.toString(row) +
-          "/"+ Bytes.toString(qualifier));
-        value = Bytes.toBytes(amount);
-      } else {
-        value = incrementBytes(value, amount);
-      }
 
-      Put put = new Put(row);
-      put.add(family, qualifier, ts, value);
-      updateRow(put, lid, true);
-      return Bytes.toLong(value);
+      upsert(edits);
+
+      long [] newValues = new long[qualifiers.length];
+      for (int i = 0; i < qualifiers.length; i++) {
+        newValues[i] = values.get(qualifiers[i]).longValue();
+      }
+      return newValues;
     } finally {
       splitsAndClosesLock.readLock().unlock();
       releaseRowLock(lid);
     }
   }
 
+  /**
+   * Write out the increments of coalescing families held since the last
+   * call.  Takes the lock of each row with counters in turn.  Called
+   * periodically by the region server.
+   * @throws IOException
+   */
+  public void flushCoalescedCounters() throws IOException {
+    if (this.coalescedCounters.isEmpty()) {
+      return;
+    }
+    splitsAndClosesLock.readLock().lock();
+    try {
+      if (this.closed.get()) {
+        return;
+      }
+      for (ImmutableBytesWritable row: this.coalescedCounters.getRows()) {
+        Integer lid = obtainRowLock(row.get());
+        try {
+          writeCounters(this.coalescedCounters.drain(row.get()));
+        } finally {
+          releaseRowLock(lid);
+        }
+      }
+    } finally {
+      splitsAndClosesLock.readLock().unlock();
+    }
+  }
+
+  /*
+   * Write out the current value of coalesced counters as one HLog append.
+   * Caller holds the lock of the counters' row.
+   * @param counters
+   * @throws IOException
+   */
+  private void writeCounters(final List<CoalescedCounters.Counter> counters)
+  throws IOException {
+    if (counters.isEmpty()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    List<KeyValue> edits = new ArrayList<KeyValue>(counters.size());
+    for (CoalescedCounters.Counter c: counters) {
+      // As in incrementColumnValues, reuse the last timestamp written rather
+      // than stamp ahead of the clock; the upsert replaces its value.
+      c.timestamp = Math.max(now, c.timestamp);
+      edits.add(new KeyValue(c.row, c.family, c.qualifier, c.timestamp,
+        KeyValue.Type.Put, Bytes.toBytes(c.value)));
+    }
+    upsert(edits);
+  }
+
+  /*
+   * Append counter values to the HLog and upsert them into the memcache.
+   * Caller holds the rows' locks.
+   * @param edits
+   * @throws IOException
+   */
+  private void upsert(final List<KeyValue> edits) throws IOException {
+    if (edits.isEmpty()) {
+      return;
+    }
+    boolean flush = false;
+    this.updatesLock.readLock().lock();
+    try {
+      this.log.append(regionInfo.getRegionName(),
+        regionInfo.getTableDesc().getName(), edits,
+        (regionInfo.isMetaRegion() || regionInfo.isRootRegion()),
+        regionInfo.getTableDesc().isDeferredLogFlush());
+      long size = 0;
+      for (KeyValue kv: edits) {
+        size = this.memcacheSize.addAndGet(
+          getStore(kv.getFamily()).upsert(kv));
+      }
+      flush = isFlushSize(size);
+    } finally {
+      this.updatesLock.readLock().unlock();
+    }
+    if (flush) {
+      // Request a cache flush.  Do it outside update lock.
+      requestFlush();
+    }
+  }
+
   private byte [] incrementBytes(byte[] value, long amount) throws IOException {
     // Hopefully this doesn't happen too often.
     if (value.length < Bytes.SIZEOF_LONG) {
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -46,7 +47,11 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -202,15 +207,26 @@ public class HRegionServer implements HConstants, HRegionInterface,
 
   // Cache flushing  
   final MemcacheFlusher cacheFlusher;
+
+  // In-memory compaction of memcaches
+  final MemcacheCompactor memcacheCompactor;
+
+  // Splitting of dead servers' logs on behalf of the master
+  final LogSplitWorker logSplitWorker;
   
   /* Check for major compactions.
    */
   final Chore majorCompactionChecker;
 
-  // HLog and HLog roller.  log is protected rather than private to avoid
-  // eclipse warning when accessed by inner classes
-  protected volatile HLog log;
-  final LogRoller logRoller;
+  // Writes out the coalesced increments of regions
+  final Chore coalescedCounterFlusher;
+
+  // HLogs and their rollers, one roller per log; there are
+  // hbase.regionserver.hlog.count of them.  Regions are spread over the logs
+  // by hash of their encoded name.  logs is protected rather than private to
+  // avoid eclipse warning when accessed by inner classes
+  protected volatile HLog [] logs;
+  final LogRoller [] logRollers;
   final LogFlusher logFlusher;
   
   // limit compactions while starting up
@@ -263,12 +279,22 @@ public class HRegionServer implements HConstants, HRegionInterface,
 
     // Cache flushing thread.
     this.cacheFlusher = new MemcacheFlusher(conf, this);
+
+    // Memcache compacting thread.
+    this.memcacheCompactor = new MemcacheCompactor(conf, this);
+
+    // Log splitting thread.
+    this.logSplitWorker = new LogSplitWorker(conf, this);
     
     // Compaction thread
     this.compactSplitThread = new CompactSplitThread(this);
     
-    // Log rolling thread
-    this.logRoller = new LogRoller(this);
+    // Log rolling threads
+    this.logRollers =
+      new LogRoller[Math.max(1, conf.getInt("hbase.regionserver.hlog.count", 1))];
+    for (int i = 0; i < this.logRollers.length; i++) {
+      this.logRollers[i] = new LogRoller(this);
+    }
     
     // Log flushing thread
     this.logFlusher =
@@ -281,10 +307,29 @@ public class HRegionServer implements HConstants, HRegionInterface,
     this.majorCompactionChecker = new MajorCompactionChecker(this,
       this.threadWakeFrequency * multiplier,  this.stopRequested);
 
+    // Bounds how long increments of coalescing families go unwritten.
+    this.coalescedCounterFlusher = new CoalescedCounterFlusher(this,
+      this.conf.getInt("hbase.regionserver.coalesce.increments.period", 1000),
+      this.stopRequested);
+
     // Task thread to process requests from Master
     this.worker = new Worker();
     this.workerThread = new Thread(worker);
 
+    // Region opens run in parallel, handed off by the worker.
+    final String n = Thread.currentThread().getName();
+    this.regionOpener = Executors.newFixedThreadPool(
+      this.conf.getInt("hbase.regionserver.open.threads", 10),
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r,
+            n + ".regionOpener-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
     // Server to handle client requests
     this.server = HBaseRPC.getServer(this, address.getBindAddress(), 
       address.getPort(), conf.getInt("hbase.regionserver.handler.count", 10),
@@ -436,14 +481,13 @@ public class HRegionServer implements HConstants, HRegionInterface,
                 if (checkFileSystem()) {
                   closeAllRegions();
                   try {
-                    log.closeAndDelete();
+                    closeAndDeleteHLogs();
                   } catch (Exception e) {
                     LOG.error("error closing and deleting HLog", e);
                   }
                   try {
                     serverInfo.setStartCode(System.currentTimeMillis());
-                    log = setupHLog();
-                    this.logFlusher.setHLog(log);
+                    setupHLogs();
                   } catch (IOException e) {
                     this.abortRequested = true;
                     this.stopRequested.set(true);
@@ -463,6 +507,12 @@ public class HRegionServer implements HConstants, HRegionInterface,
                 stopRequested.set(true);
                 break;
 
+              case MSG_REGIONSERVER_SPLIT_LOG:
+                if (fsOk) {
+                  this.logSplitWorker.request(msgs[i]);
+                }
+                break;
+
               case MSG_REGIONSERVER_QUIESCE:
                 if (!quiesceRequested) {
                   try {
@@ -525,6 +575,17 @@ public class HRegionServer implements HConstants, HRegionInterface,
     RegionHistorian.getInstance().offline();
     this.leases.closeAfterLeasesExpire();
     this.worker.stop();
+    // Let opens finish so that all regions are online before they are closed
+    // below.  Queued opens see the stop and skip.
+    this.regionOpener.shutdown();
+    try {
+      if (!this.regionOpener.awaitTermination(this.threadWakeFrequency,
+          TimeUnit.MILLISECONDS)) {
+        LOG.warn("Region opens still running");
+      }
+    } catch (InterruptedException e) {
+      // Go on with shutdown.
+    }
     this.server.stop();
     if (this.infoServer != null) {
       LOG.info("Stopping infoServer");
@@ -538,17 +599,24 @@ public class HRegionServer implements HConstants, HRegionInterface,
     // Send interrupts to wake up threads if sleeping so they notice shutdown.
     // TODO: Should we check they are alive?  If OOME could have exited already
     cacheFlusher.interruptIfNecessary();
+    memcacheCompactor.interruptIfNecessary();
+    logSplitWorker.interruptIfNecessary();
     logFlusher.interrupt();
     compactSplitThread.interruptIfNecessary();
-    logRoller.interruptIfNecessary();
+    for (LogRoller logRoller: this.logRollers) {
+      logRoller.interruptIfNecessary();
+    }
     this.majorCompactionChecker.interrupt();
+    this.coalescedCounterFlusher.interrupt();
 
     if (abortRequested) {
       if (this.fsOk) {
         // Only try to clean up if the file system is available
         try {
-          if (this.log != null) {
-            this.log.close();
+          if (this.logs != null) {
+            for (HLog log: this.logs) {
+              log.close();
+            }
             LOG.info("On abort, closed hlog");
           }
         } catch (Throwable e) {
@@ -562,7 +630,7 @@ public class HRegionServer implements HConstants, HRegionInterface,
     } else {
       ArrayList<HRegion> closedRegions = closeAllRegions();
       try {
-        log.closeAndDelete();
+        closeAndDeleteHLogs();
       } catch (Throwable e) {
         LOG.error("Close and delete failed",
           RemoteExceptionHandler.checkThrowable(e));
@@ -658,8 +726,7 @@ public class HRegionServer implements HConstants, HRegionInterface,
       this.hdfsShutdownThread = suppressHdfsShutdownHook();
 
       this.rootDir = new Path(this.conf.get(HConstants.HBASE_DIR));
-      this.log = setupHLog();
-      this.logFlusher.setHLog(log);
+      setupHLogs();
       // Init in here rather than in constructor after thread name has been set
       this.metrics = new RegionServerMetrics();
       startServiceThreads();
@@ -914,6 +981,35 @@ public class HRegionServer implements HConstants, HRegionInterface,
     }
   }
   
+  /*
+   * Inner class that periodically writes out the increments regions have
+   * been coalescing.
+   */
+  private static class CoalescedCounterFlusher extends Chore {
+    private final HRegionServer instance;
+
+    CoalescedCounterFlusher(final HRegionServer h,
+        final int sleepTime, final AtomicBoolean stopper) {
+      super(sleepTime, stopper);
+      this.instance = h;
+    }
+
+    @Override
+    protected void chore() {
+      Set<Integer> keys = this.instance.onlineRegions.keySet();
+      for (Integer i: keys) {
+        HRegion r = this.instance.onlineRegions.get(i);
+        try {
+          if (r != null) {
+            r.flushCoalescedCounters();
+          }
+        } catch (IOException e) {
+          LOG.warn("Failed writing coalesced increments of " + r, e);
+        }
+      }
+    }
+  }
+  
   /**
    * So, HDFS caches FileSystems so when you call FileSystem.get it's fast. In
    * order to make sure things are cleaned up, it also creates a shutdown hook
@@ -961,7 +1057,10 @@ public class HRegionServer implements HConstants, HRegionInterface,
     return isOnline;
   }
     
-  private HLog setupHLog() throws RegionServerRunningException,
+  /*
+   * Make the server's logs and hand them to their rollers and the flusher.
+   */
+  private void setupHLogs() throws RegionServerRunningException,
     IOException {
     
     Path logdir = new Path(rootDir, HLog.getHLogDirectoryName(serverInfo));
@@ -973,8 +1072,25 @@ public class HRegionServer implements HConstants, HRegionInterface,
         "running at " + this.serverInfo.getServerAddress().toString() +
         " because logdir " + logdir.toString() + " exists");
     }
-    HLog newlog = new HLog(fs, logdir, conf, logRoller);
-    return newlog;
+    HLog [] newlogs = new HLog[this.logRollers.length];
+    for (int i = 0; i < newlogs.length; i++) {
+      newlogs[i] = new HLog(fs, logdir, conf, this.logRollers[i], i);
+      this.logRollers[i].setHLog(newlogs[i]);
+    }
+    this.logs = newlogs;
+    this.logFlusher.setHLogs(newlogs);
+  }
+
+  /*
+   * Close the server's logs and delete the log directory.  Log 0 goes last
+   * since it deletes the directory the others write to.
+   * @throws IOException
+   */
+  private void closeAndDeleteHLogs() throws IOException {
+    for (int i = this.logs.length - 1; i > 0; i--) {
+      this.logs[i].close();
+    }
+    this.logs[0].closeAndDelete();
   }
   
   /*
@@ -990,10 +1106,14 @@ public class HRegionServer implements HConstants, HRegionInterface,
     int storefiles = 0;
     long memcacheSize = 0;
     long storefileIndexSize = 0;
+    int rowLockWaits = 0;
+    long rowLockWaitTime = 0;
     synchronized (this.onlineRegions) {
       for (Map.Entry<Integer, HRegion> e: this.onlineRegions.entrySet()) {
         HRegion r = e.getValue();
         memcacheSize += r.memcacheSize.get();
+        rowLockWaits += r.rowLockWaits.getAndSet(0);
+        rowLockWaitTime += r.rowLockWaitTime.getAndSet(0);
         synchronized (r.stores) {
           stores += r.stores.size();
           for(Map.Entry<byte [], Store> ee: r.stores.entrySet()) {
@@ -1013,6 +1133,15 @@ public class HRegionServer implements HConstants, HRegionInterface,
     this.metrics.storefiles.set(storefiles);
     this.metrics.memcacheSizeMB.set((int)(memcacheSize/(1024*1024)));
     this.metrics.storefileIndexSizeMB.set((int)(storefileIndexSize/(1024*1024)));
+    this.metrics.smallCompactionQueueSize.set(
+      this.compactSplitThread.getSmallCompactionQueueSize());
+    this.metrics.largeCompactionQueueSize.set(
+      this.compactSplitThread.getLargeCompactionQueueSize());
+    this.metrics.compactionThroughputKB.inc(
+      (int)(this.compactSplitThread.getThrottle().getAndResetBytes() / 1024));
+    if (rowLockWaits > 0) {
+      this.metrics.rowLockWait.inc(rowLockWaits, rowLockWaitTime);
+    }
   }
 
   /**
@@ -1042,17 +1171,25 @@ public class HRegionServer implements HConstants, HRegionInterface,
         LOG.fatal("Set stop flag in " + t.getName(), e);
       }
     };
-    Threads.setDaemonThreadRunning(this.logRoller, n + ".logRoller",
-        handler);
+    for (int i = 0; i < this.logRollers.length; i++) {
+      Threads.setDaemonThreadRunning(this.logRollers[i],
+        n + ".logRoller" + (i == 0? "": "." + i), handler);
+    }
     Threads.setDaemonThreadRunning(this.logFlusher, n + ".logFlusher",
         handler);
     Threads.setDaemonThreadRunning(this.cacheFlusher, n + ".cacheFlusher",
       handler);
+    Threads.setDaemonThreadRunning(this.memcacheCompactor,
+      n + ".memcacheCompactor", handler);
+    Threads.setDaemonThreadRunning(this.logSplitWorker,
+      n + ".logSplitWorker", handler);
     Threads.setDaemonThreadRunning(this.compactSplitThread, n + ".compactor",
         handler);
     Threads.setDaemonThreadRunning(this.workerThread, n + ".worker", handler);
     Threads.setDaemonThreadRunning(this.majorCompactionChecker,
         n + ".majorCompactionChecker", handler);
+    Threads.setDaemonThreadRunning(this.coalescedCounterFlusher,
+        n + ".coalescedCounterFlusher", handler);
     
     // Leases is not a Thread. Internally it runs a daemon thread.  If it gets
     // an unhandled exception, it will just exit.
@@ -1095,7 +1232,8 @@ public class HRegionServer implements HConstants, HRegionInterface,
     }
     // Verify that all threads are alive
     if (!(leases.isAlive() && compactSplitThread.isAlive() &&
-        cacheFlusher.isAlive() && logRoller.isAlive() &&
+        cacheFlusher.isAlive() && memcacheCompactor.isAlive() &&
+        logSplitWorker.isAlive() && logRollersAlive() &&
         workerThread.isAlive() && this.majorCompactionChecker.isAlive())) {
       // One or more threads are no longer alive - shut down
       stop();
@@ -1123,9 +1261,36 @@ public class HRegionServer implements HConstants, HRegionInterface,
     }
   }
 
-  /** @return the HLog */
+  /** @return the first HLog */
   HLog getLog() {
-    return this.log;
+    return this.logs[0];
+  }
+
+  /**
+   * @param info
+   * @return The HLog the region logs its edits to.
+   */
+  protected HLog getLog(final HRegionInfo info) {
+    HLog [] hlogs = this.logs;
+    return hlogs[(info.getEncodedName() & Integer.MAX_VALUE) % hlogs.length];
+  }
+
+  /**
+   * @return All of this server's HLogs; see {@link HLog#tail(String, long)}
+   * for reading the edits they hold.
+   */
+  public HLog [] getLogs() {
+    return this.logs.clone();
+  }
+
+  /* @return True if all log rollers are alive. */
+  private boolean logRollersAlive() {
+    for (LogRoller logRoller: this.logRollers) {
+      if (!logRoller.isAlive()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -1158,10 +1323,15 @@ public class HRegionServer implements HConstants, HRegionInterface,
    */
   void join() {
     Threads.shutdown(this.majorCompactionChecker);
+    Threads.shutdown(this.coalescedCounterFlusher);
     Threads.shutdown(this.workerThread);
     Threads.shutdown(this.cacheFlusher);
+    Threads.shutdown(this.memcacheCompactor);
+    Threads.shutdown(this.logSplitWorker);
     Threads.shutdown(this.compactSplitThread);
-    Threads.shutdown(this.logRoller);
+    for (LogRoller logRoller: this.logRollers) {
+      Threads.shutdown(logRoller);
+    }
   }
 
   private boolean getMaster() {
@@ -1271,6 +1441,20 @@ public class HRegionServer implements HConstants, HRegionInterface,
     outboundMsgs.add(new HMsg(HMsg.Type.MSG_REPORT_OPEN, newRegionB));
   }
 
+  /**
+   * Add to the outbound message buffer
+   *
+   * Tell the master how splitting a log it handed us went.
+   *
+   * @param msg Message from the master naming the log
+   * @param split True if the log was split
+   */
+  void reportLogSplit(final HMsg msg, final boolean split) {
+    outboundMsgs.add(new HMsg(split? HMsg.Type.MSG_REPORT_SPLIT_LOG:
+      HMsg.Type.MSG_REPORT_SPLIT_LOG_FAILED, msg.getRegionInfo(),
+      msg.getMessage()));
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // HMaster-given operations
   //////////////////////////////////////////////////////////////////////////////
@@ -1278,7 +1462,7 @@ public class HRegionServer implements HConstants, HRegionInterface,
   /*
    * Data structure to hold a HMsg and retries count.
    */
-  private static class ToDoEntry {
+  static class ToDoEntry {
     protected int tries;
     protected final HMsg msg;
     ToDoEntry(HMsg msg) {
@@ -1290,6 +1474,15 @@ public class HRegionServer implements HConstants, HRegionInterface,
   final BlockingQueue<ToDoEntry> toDo = new LinkedBlockingQueue<ToDoEntry>();
   private Worker worker;
   private Thread workerThread;
+  // Runs region opens
+  private final ExecutorService regionOpener;
+  // Map keys of regions being opened
+  private final Set<Integer> regionsInOpen =
+    Collections.synchronizedSet(new HashSet<Integer>());
+  // Closes that came in while their region was being opened, by map key.
+  // Guarded by regionsInOpen; requeued when the open is done.
+  private final Map<Integer, List<ToDoEntry>> closesAfterOpen =
+    new HashMap<Integer, List<ToDoEntry>>();
   
   /** Thread that performs long running requests from the master */
   class Worker implements Runnable {
@@ -1327,20 +1520,46 @@ public class HRegionServer implements HConstants, HRegionInterface,
                   toDo.put(e);
                 } catch (InterruptedException ex) {
                   LOG.warn("insertion into toDo queue was interrupted", ex);
-                  break;
                 }
+                break;
+              }
+              final HRegionInfo toOpen = info;
+              final Integer mapKey = Bytes.mapKey(info.getRegionName());
+              if (!regionsInOpen.add(mapKey)) {
+                LOG.info("Already opening " + info.getRegionNameAsString());
+                break;
+              }
+              // Open on the pool; the open is reported when it is done.
+              try {
+                regionOpener.execute(new Runnable() {
+                  public void run() {
+                    try {
+                      if (!stopRequested.get()) {
+                        openRegion(toOpen);
+                      }
+                    } finally {
+                      openDone(mapKey);
+                    }
+                  }
+                });
+              } catch (RejectedExecutionException ex) {
+                openDone(mapKey);
+                throw ex;
               }
-              openRegion(info);
               break;
 
             case MSG_REGION_CLOSE:
               // Close a region
-              closeRegion(e.msg.getRegionInfo(), true);
+              if (!deferIfOpening(e)) {
+                closeRegion(e.msg.getRegionInfo(), true);
+              }
               break;
 
             case MSG_REGION_CLOSE_WITHOUT_REPORT:
               // Close a region, don't reply
-              closeRegion(e.msg.getRegionInfo(), false);
+              if (!deferIfOpening(e)) {
+                closeRegion(e.msg.getRegionInfo(), false);
+              }
               break;
 
             case MSG_REGION_SPLIT:
@@ -1405,6 +1624,47 @@ public class HRegionServer implements HConstants, HRegionInterface,
     }
   }
   
+  /*
+   * Hold a close until the open of its region is done; closing now would
+   * find nothing online and the open would then put the region online.
+   * @param e A close
+   * @return True if the region is being opened and the close was held.
+   */
+  private boolean deferIfOpening(final ToDoEntry e) {
+    HRegionInfo info = e.msg.getRegionInfo();
+    Integer mapKey = Bytes.mapKey(info.getRegionName());
+    synchronized (this.regionsInOpen) {
+      if (!this.regionsInOpen.contains(mapKey)) {
+        return false;
+      }
+      List<ToDoEntry> closes = this.closesAfterOpen.get(mapKey);
+      if (closes == null) {
+        closes = new ArrayList<ToDoEntry>();
+        this.closesAfterOpen.put(mapKey, closes);
+      }
+      closes.add(e);
+    }
+    LOG.info("Holding close of " + info.getRegionNameAsString() +
+      " until its open is done");
+    return true;
+  }
+
+  /*
+   * Called when the open of a region is done, whether or not it worked.
+   * Requeues closes of the region that came in during the open.
+   * @param mapKey
+   */
+  private void openDone(final Integer mapKey) {
+    List<ToDoEntry> closes = null;
+    synchronized (this.regionsInOpen) {
+      this.regionsInOpen.remove(mapKey);
+      closes = this.closesAfterOpen.remove(mapKey);
+    }
+    if (closes != null) {
+      this.toDo.addAll(closes);
+    }
+  }
+
   void openRegion(final HRegionInfo regionInfo) {
     // If historian is not online and this is not a meta region, online it.
     if (!regionInfo.isMetaRegion() &&
@@ -1416,6 +1676,7 @@ public class HRegionServer implements HConstants, HRegionInterface,
     if (region == null) {
       try {
         region = instantiateRegion(regionInfo);
+        region.setCompactionThrottle(this.compactSplitThread.getThrottle());
         // Startup a compaction early if one is needed.
         this.compactSplitThread.
           compactionRequested(region, "Region open check");
@@ -1428,9 +1689,18 @@ public class HRegionServer implements HConstants, HRegionInterface,
         reportClose(regionInfo, StringUtils.stringifyException(t).getBytes());
         return;
       }
+      if (this.stopRequested.get()) {
+        // Finished opening after shutdown began; don't put it online.
+        try {
+          region.close();
+        } catch (IOException e) {
+          cleanup(e, "Error closing " + regionInfo.getRegionNameAsString());
+        }
+        return;
+      }
       this.lock.writeLock().lock();
       try {
-        this.log.setSequenceNumber(region.getMinSequenceId());
+        region.getLog().setSequenceNumber(region.getMinSequenceId());
         this.onlineRegions.put(mapKey, region);
       } finally {
         this.lock.writeLock().unlock();
@@ -1442,7 +1712,7 @@ public class HRegionServer implements HConstants, HRegionInterface,
   protected HRegion instantiateRegion(final HRegionInfo regionInfo)
       throws IOException {
     HRegion r = new HRegion(HTableDescriptor.getTableDir(rootDir, regionInfo
-        .getTableDesc().getName()), this.log, this.fs, conf, regionInfo,
+        .getTableDesc().getName()), getLog(regionInfo), this.fs, conf, regionInfo,
         this.cacheFlusher);
     r.initialize(null,  new Progressable() {
       public void progress() {
@@ -1484,40 +1754,57 @@ public class HRegionServer implements HConstants, HRegionInterface,
     } finally {
       this.lock.writeLock().unlock();
     }
-    for(HRegion region: regionsToClose) {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("closing region " + Bytes.toString(region.getRegionName()));
-      }
-      try {
-        region.close(abortRequested);
-      } catch (Throwable e) {
-        cleanup(e, "Error closing " + Bytes.toString(region.getRegionName()));
-      }
-    }
+    closeRegions(regionsToClose, abortRequested);
     return regionsToClose;
   }
-  
+
   /*
-   * Thread to run close of a region.
+   * Close regions in parallel, up to hbase.regionserver.close.threads at a
+   * time, and wait on them all.
+   * @param regions
+   * @param abort True if server is aborting
    */
-  private static class RegionCloserThread extends Thread {
-    private final HRegion r;
-
-    protected RegionCloserThread(final HRegion r) {
-      super(Thread.currentThread().getName() + ".regionCloser." + r.toString());
-      this.r = r;
+  private void closeRegions(final Collection<HRegion> regions,
+      final boolean abort) {
+    if (regions.isEmpty()) {
+      return;
     }
-
-    @Override
-    public void run() {
-      try {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Closing region " + r.toString());
+    final String n = Thread.currentThread().getName();
+    ExecutorService closer = Executors.newFixedThreadPool(
+      Math.min(regions.size(),
+        this.conf.getInt("hbase.regionserver.close.threads", 10)),
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        public Thread newThread(Runnable r) {
+          return new Thread(r, n + ".regionCloser-" + count.incrementAndGet());
+        }
+      });
+    try {
+      for (final HRegion region: regions) {
+        closer.execute(new Runnable() {
+          public void run() {
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("closing region " +
+                Bytes.toString(region.getRegionName()));
+            }
+            try {
+              region.close(abort);
+            } catch (Throwable e) {
+              cleanup(e, "Error closing " +
+                Bytes.toString(region.getRegionName()));
+            }
+          }
+        });
+      }
+    } finally {
+      closer.shutdown();
+      while (!closer.isTerminated()) {
+        try {
+          closer.awaitTermination(this.threadWakeFrequency,
+            TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // continue
         }
-        r.close();
-      } catch (Throwable e) {
-        LOG.error("Error closing region " + r.toString(),
-          RemoteExceptionHandler.checkThrowable(e));
       }
     }
   }
@@ -1542,24 +1829,7 @@ public class HRegionServer implements HConstants, HRegionInterface,
       this.lock.writeLock().unlock();
     }
     // Run region closes in parallel.
-    Set<Thread> threads = new HashSet<Thread>();
-    try {
-      for (final HRegion r : regionsToClose) {
-        RegionCloserThread t = new RegionCloserThread(r);
-        t.start();
-        threads.add(t);
-      }
-    } finally {
-      for (Thread t : threads) {
-        while (t.isAlive()) {
-          try {
-            t.join();
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-        }
-      }
-    }
+    closeRegions(regionsToClose, false);
     this.quiesced.set(true);
     if (onlineRegions.size() == 0) {
       outboundMsgs.add(REPORT_EXITING);
@@ -1603,6 +1873,34 @@ public class HRegionServer implements HConstants, HRegionInterface,
     }
   }
   
+  public Result [] get(final byte [][] regionNames, final Get [] gets)
+  throws IOException {
+    checkOpen();
+    requestCount.addAndGet(gets.length);
+    Result [] results = new Result[gets.length];
+    try {
+      List<KeyValue> result = new ArrayList<KeyValue>();
+      for (int i = 0; i < gets.length; i++) {
+        HRegion region = null;
+        try {
+          region = getRegion(regionNames[i]);
+          result.clear();
+          region.getRow(gets[i], result, null);
+        } catch (NotServingRegionException e) {
+          // Region moved or split; leave a null so the client relocates and
+          // retries just this get.
+          continue;
+        } catch (WrongRegionException e) {
+          continue;
+        }
+        results[i] = new Result(result.toArray(new KeyValue[result.size()]));
+      }
+      return results;
+    } catch (Throwable t) {
+      throw convertThrowableToIOE(cleanup(t));
+    }
+  }
+
   public Result getClosestRowBefore(final byte[] regionName, 
       final byte[] row, final byte[] family)
   throws IOException {
@@ -1657,6 +1955,30 @@ public class HRegionServer implements HConstants, HRegionInterface,
     }
   }
 
+  public int [] batchMutate(final byte [] regionName,
+      final Writable [] mutations)
+  throws IOException {
+    checkOpen();
+    try {
+      this.cacheFlusher.reclaimMemcacheMemory();
+      this.requestCount.addAndGet(mutations.length);
+      HRegion region = getRegion(regionName);
+      Integer [] lockids = new Integer[mutations.length];
+      for (int i = 0; i < mutations.length; i++) {
+        long lockId = -1L;
+        if (mutations[i] instanceof Put) {
+          lockId = ((Put)mutations[i]).getLockId();
+        } else if (mutations[i] instanceof Delete) {
+          lockId = ((Delete)mutations[i]).getLockId();
+        }
+        lockids[i] = getLockFromId(lockId);
+      }
+      return region.batchMutate(mutations, lockids);
+    } catch (Throwable t) {
+      throw convertThrowableToIOE(cleanup(t));
+    }
+  }
+
   public int updateRow(final byte[] regionName, final Update update)
   throws IOException {
     int i = 0;
@@ -2383,4 +2705,36 @@ public class HRegionServer implements HConstants, HRegionInterface,
     
     
   }
+
+  /** {@inheritDoc} */
+  public long [] incrementColumnValues(byte[] regionName, byte[] row,
+      byte[] family, byte[][] qualifiers, long[] amounts) throws IOException {
+    checkOpen();
+    
+    NullPointerException npe = null;
+    if (regionName == null) {
+      npe = new NullPointerException("regionName is null");
+    } else if (row == null) {
+      npe = new NullPointerException("row is null");
+    } else if (family == null) {
+      npe = new NullPointerException("family is null");
+    } else if (qualifiers == null) {
+      npe = new NullPointerException("qualifiers is null");
+    } else if (amounts == null) {
+      npe = new NullPointerException("amounts is null");
+    }
+    if (npe != null) {
+      IOException io = new IOException(
+          "Invalid arguments to incrementColumnValues", npe);
+      throw io;
+    }
+    requestCount.incrementAndGet();
+    try {
+      HRegion region = getRegion(regionName);
+      return region.incrementColumnValues(row, family, qualifiers, amounts);
+    } catch (IOException e) {
+      checkFileSystem();
+      throw e;
+    }
+  }
 }
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Comparator;
+
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * Merges the current keys of many sorted sources.  Used by compactions and
+ * scanners to find the source holding the lowest key without comparing
+ * against every source on every step.
+ *
+ * <p>Sources are indices into a <code>KeyValue</code> array owned by the
+ * caller; <code>keys[i]</code> is the current key of source i, or null when
+ * source i is exhausted.  The heap orders sources by their current key and,
+ * on equal keys, by index, so the lower index wins.  Callers put the newest
+ * source at the lowest index.
+ *
+ * <p>When the key of the top source changes, e.g. after its source was
+ * advanced, call {@link #topChanged()} rather than polling and adding it back.
+ * The key of a source must not change while it is in the heap but not on top.
+ * Not thread-safe.
+ */
+class KeyValueHeap {
+  private final KeyValue [] keys;
+  private final Comparator<KeyValue> comparator;
+  private final int [] heap;
+  private int size = 0;
+
+  /**
+   * @param keys Current key of each source
+   * @param comparator Orders the keys
+   */
+  KeyValueHeap(final KeyValue [] keys, final Comparator<KeyValue> comparator) {
+    this.keys = keys;
+    this.comparator = comparator;
+    this.heap = new int[keys.length];
+  }
+
+  /**
+   * Add a source.  Does nothing if its key is null.
+   * @param i Index of the source
+   */
+  void add(final int i) {
+    if (this.keys[i] == null) {
+      return;
+    }
+    this.heap[this.size] = i;
+    siftUp(this.size++);
+  }
+
+  /**
+   * @return Index of the source with the lowest key, or -1 if none.
+   */
+  int peek() {
+    return this.size == 0? -1: this.heap[0];
+  }
+
+  /**
+   * Remove the source with the lowest key.
+   * @return Its index, or -1 if none.
+   */
+  int poll() {
+    if (this.size == 0) {
+      return -1;
+    }
+    int top = this.heap[0];
+    this.heap[0] = this.heap[--this.size];
+    if (this.size > 0) {
+      siftDown(0);
+    }
+    return top;
+  }
+
+  /**
+   * Restore order after the key of the top source changed.  The top source is
+   * removed if its key is now null.
+   */
+  void topChanged() {
+    if (this.size == 0) {
+      return;
+    }
+    if (this.keys[this.heap[0]] == null) {
+      poll();
+    } else {
+      siftDown(0);
+    }
+  }
+
+  /** @return Count of sources in the heap */
+  int size() {
+    return this.size;
+  }
+
+  /** @return True if no source is left */
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /** Remove all sources */
+  void clear() {
+    this.size = 0;
+  }
+
+  /**
+   * Orders keys by row and, within a row, newest first.  This is the order in
+   * which the scanners pick the next row to return.
+   */
+  static class RowTimestampComparator implements Comparator<KeyValue> {
+    private final KeyValue.KVComparator comparator;
+
+    RowTimestampComparator(final KeyValue.KVComparator comparator) {
+      this.comparator = comparator;
+    }
+
+    public int compare(final KeyValue left, final KeyValue right) {
+      int ret = this.comparator.compareRows(left, right);
+      if (ret != 0) {
+        return ret;
+      }
+      long lts = left.getTimestamp();
+      long rts = right.getTimestamp();
+      return lts > rts? -1: lts == rts? 0: 1;
+    }
+  }
+
+  private boolean less(final int a, final int b) {
+    int ret = this.comparator.compare(this.keys[a], this.keys[b]);
+    return ret < 0 || (ret == 0 && a < b);
+  }
+
+  private void siftUp(int pos) {
+    int i = this.heap[pos];
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (!less(i, this.heap[parent])) {
+        break;
+      }
+      this.heap[pos] = this.heap[parent];
+      pos = parent;
+    }
+    this.heap[pos] = i;
+  }
+
+  private void siftDown(int pos) {
+    int i = this.heap[pos];
+    int half = this.size >>> 1;
+    while (pos < half) {
+      int child = 2 * pos + 1;
+      int right = child + 1;
+      if (right < this.size && less(this.heap[right], this.heap[child])) {
+        child = right;
+      }
+      if (!less(this.heap[child], i)) {
+        break;
+      }
+      this.heap[pos] = this.heap[child];
+      pos = child;
+    }
+    this.heap[pos] = i;
+  }
+}
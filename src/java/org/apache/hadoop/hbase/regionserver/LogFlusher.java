@@ -29,31 +29,33 @@ import org.apache.hadoop.hbase.Chore;
 
 /**
  * LogFlusher is a Chore that wakes every threadWakeInterval and calls
- * the HLog to do an optional sync if there are unflushed entries, and the
- * optionalFlushInterval has passed since the last flush.
+ * each HLog of the server to do an optional sync if there are unflushed
+ * entries, and the optionalFlushInterval has passed since the last flush.
  */
 public class LogFlusher extends Chore {
   static final Log LOG = LogFactory.getLog(LogFlusher.class);
   
-  private final AtomicReference<HLog> log =
-    new AtomicReference<HLog>(null);
+  private final AtomicReference<HLog []> logs =
+    new AtomicReference<HLog []>(null);
   
   LogFlusher(final int period, final AtomicBoolean stop) {
     super(period, stop);
   }
   
-  void setHLog(HLog log) {
-    synchronized (log) {
-      this.log.set(log);
+  void setHLogs(HLog [] logs) {
+    synchronized (this.logs) {
+      this.logs.set(logs);
     }
   }
 
   @Override
   protected void chore() {
-    synchronized (log) {
-      HLog hlog = log.get();
-      if (hlog != null) {
-        hlog.optionalSync();
+    synchronized (logs) {
+      HLog [] hlogs = logs.get();
+      if (hlogs != null) {
+        for (HLog hlog: hlogs) {
+          hlog.optionalSync();
+        }
       }
     }
   }
@@ -29,7 +29,9 @@ import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
- * Runs periodically to determine if the HLog should be rolled.
+ * Runs periodically to determine if the HLog should be rolled.  Each HLog of
+ * the server has its own roller so a roll of one log does not hold up the
+ * others.
  * 
  * NOTE: This class extends Thread rather than Chore because the sleep time
  * can be interrupted when there is something to do, rather than the Chore
@@ -40,6 +42,7 @@ class LogRoller extends Thread implements LogRollListener {
   private final ReentrantLock rollLock = new ReentrantLock();
   private final AtomicBoolean rollLog = new AtomicBoolean(false);
   private final HRegionServer server;
+  private volatile HLog log;
   
   /** @param server */
   public LogRoller(final HRegionServer server) {
@@ -47,6 +50,11 @@ class LogRoller extends Thread implements LogRollListener {
     this.server = server;
   }
 
+  /** @param log The HLog this roller rolls */
+  void setHLog(final HLog log) {
+    this.log = log;
+  }
+
   @Override
   public void run() {
     while (!server.isStopRequested()) {
@@ -62,7 +70,7 @@ class LogRoller extends Thread implements LogRollListener {
       }
       rollLock.lock();          // Don't interrupt us. We're working
       try {
-        byte [] regionToFlush = server.getLog().rollWriter();
+        byte [] regionToFlush = this.log.rollWriter();
         if (regionToFlush != null) {
           scheduleFlush(regionToFlush);
         }
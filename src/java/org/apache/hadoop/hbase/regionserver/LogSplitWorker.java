@@ -0,0 +1,132 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HMsg;
+import org.apache.hadoop.hbase.RemoteExceptionHandler;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Thread that splits logs of dead region servers on behalf of the master.
+ * The master hands out one log per
+ * {@link HMsg.Type#MSG_REGIONSERVER_SPLIT_LOG}; each is split with
+ * {@link HLog#splitLogFile} and the outcome reported back on the next
+ * heartbeat.
+ *
+ * <p>Runs on its own thread rather than the worker so splitting a log never
+ * holds up region opens and closes.
+ */
+class LogSplitWorker extends Thread {
+  static final Log LOG = LogFactory.getLog(LogSplitWorker.class);
+  private final BlockingQueue<HMsg> splitQueue =
+    new LinkedBlockingQueue<HMsg>();
+
+  private final long threadWakeFrequency;
+  private final HRegionServer server;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * @param conf
+   * @param server
+   */
+  public LogSplitWorker(final HBaseConfiguration conf,
+      final HRegionServer server) {
+    super();
+    this.server = server;
+    this.threadWakeFrequency =
+      conf.getLong(HConstants.THREAD_WAKE_FREQUENCY, 10 * 1000);
+  }
+
+  @Override
+  public void run() {
+    while (!server.isStopRequested()) {
+      HMsg msg = null;
+      try {
+        msg = splitQueue.poll(threadWakeFrequency, TimeUnit.MILLISECONDS);
+        if (msg == null) {
+          continue;
+        }
+        boolean split = false;
+        lock.lock();
+        try {
+          split = splitLog(new Path(Bytes.toString(msg.getMessage())));
+        } finally {
+          lock.unlock();
+        }
+        server.reportLogSplit(msg, split);
+        if (!split && !server.checkFileSystem()) {
+          break;
+        }
+      } catch (InterruptedException ex) {
+        continue;
+      }
+    }
+    splitQueue.clear();
+    LOG.info(getName() + " exiting");
+  }
+
+  /*
+   * @param logfile
+   * @return True if split.
+   */
+  private boolean splitLog(final Path logfile) {
+    try {
+      HLog.splitLogFile(server.getRootDir(), logfile, server.getFileSystem(),
+        server.getConfiguration());
+      return true;
+    } catch (IOException e) {
+      e = RemoteExceptionHandler.checkIOException(e);
+      LOG.error("Failed splitting " + logfile, e);
+    } catch (RuntimeException e) {
+      LOG.error("Failed splitting " + logfile, e);
+    }
+    return false;
+  }
+
+  /**
+   * @param msg Message from the master naming the log to split.
+   */
+  public void request(final HMsg msg) {
+    splitQueue.add(msg);
+  }
+
+  /**
+   * Only interrupt once it's done with a run through the work loop.
+   */ 
+  void interruptIfNecessary() {
+    lock.lock();
+    try {
+      this.interrupt();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
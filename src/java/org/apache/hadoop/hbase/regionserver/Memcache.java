@@ -36,7 +36,8 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -44,6 +45,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.io.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.regionserver.HRegion.Counter;
 import org.apache.hadoop.hbase.util.Bytes;
 
@@ -61,18 +63,13 @@ class Memcache {
 
   private final long ttl;
 
-  // Note that since these structures are always accessed with a lock held,
-  // no additional synchronization is required.
-  
-  // The currently active sorted set of edits.  Using explicit type because
-  // if I use NavigableSet, I lose some facility -- I can't get a NavigableSet
-  // when I do tailSet or headSet.
-  volatile ConcurrentSkipListSet<KeyValue> memcache;
-
-  // Snapshot of memcache.  Made for flusher.
-  volatile ConcurrentSkipListSet<KeyValue> snapshot;
-
-  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  // The active set of edits and the snapshot made for the flusher, held as
+  // one immutable pair.  Both sets are concurrent so no lock is taken on the
+  // read or write path: readers pin the current generation and so always see
+  // a consistent memcache/snapshot pair, and snapshot/clearSnapshot swap in
+  // a new generation.  Writers must not race a snapshot; HRegion excludes
+  // them by holding its updates write lock across the snapshot.
+  private final AtomicReference<Generation> generation;
 
   final KeyValue.KVComparator comparator;
 
@@ -116,19 +113,46 @@ class Memcache {
     this.comparatorIgnoreTimestamp =
       this.comparator.getComparatorIgnoringTimestamps();
     this.comparatorIgnoreType = this.comparator.getComparatorIgnoringType();
-    this.memcache = createSet(c);
-    this.snapshot = createSet(c);
+    this.generation = new AtomicReference<Generation>(
+      new Generation(createSet(c), createSet(c)));
   }
 
   static ConcurrentSkipListSet<KeyValue> createSet(final KeyValue.KVComparator c) {
     return new ConcurrentSkipListSet<KeyValue>(c);
   }
 
+  /*
+   * An immutable pairing of the active set of edits and the snapshot.
+   */
+  static class Generation {
+    // The currently active sorted set of edits.  Using explicit type because
+    // if I use NavigableSet, I lose some facility -- I can't get a
+    // NavigableSet when I do tailSet or headSet.
+    final ConcurrentSkipListSet<KeyValue> memcache;
+
+    // Snapshot of memcache.  Made for flusher.
+    final ConcurrentSkipListSet<KeyValue> snapshot;
+
+    Generation(final ConcurrentSkipListSet<KeyValue> memcache,
+        final ConcurrentSkipListSet<KeyValue> snapshot) {
+      this.memcache = memcache;
+      this.snapshot = snapshot;
+    }
+  }
+
+  /**
+   * @return The currently active set of edits.  Used by tests.
+   */
+  ConcurrentSkipListSet<KeyValue> getMemcache() {
+    return this.generation.get().memcache;
+  }
+
   void dump() {
-    for (KeyValue kv: this.memcache) {
+    Generation g = this.generation.get();
+    for (KeyValue kv: g.memcache) {
       LOG.info(kv);
     }
-    for (KeyValue kv: this.snapshot) {
+    for (KeyValue kv: g.snapshot) {
       LOG.info(kv);
     }
   }
@@ -139,25 +163,21 @@ class Memcache {
    * To get the snapshot made by this method, use {@link #getSnapshot}.
    */
   void snapshot() {
-    this.lock.writeLock().lock();
-    try {
+    Generation g;
+    do {
+      g = this.generation.get();
       // If snapshot currently has entries, then flusher failed or didn't call
       // cleanup.  Log a warning.
-      if (!this.snapshot.isEmpty()) {
+      if (!g.snapshot.isEmpty()) {
         LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
-      } else {
-        // We used to synchronize on the memcache here but we're inside a
-        // write lock so removed it. Comment is left in case removal was a
-        // mistake. St.Ack
-        if (!this.memcache.isEmpty()) {
-          this.snapshot = this.memcache;
-          this.memcache = createSet(this.comparator);
-        }
+        return;
       }
-    } finally {
-      this.lock.writeLock().unlock();
-    }
+      if (g.memcache.isEmpty()) {
+        return;
+      }
+    } while (!this.generation.compareAndSet(g,
+      new Generation(createSet(this.comparator), g.memcache)));
   }
 
   /**
@@ -169,7 +189,7 @@ class Memcache {
    * @see {@link #clearSnapshot(NavigableSet)}
    */
   ConcurrentSkipListSet<KeyValue> getSnapshot() {
-    return this.snapshot;
+    return this.generation.get().snapshot;
   }
 
   /**
@@ -180,20 +200,21 @@ class Memcache {
    */
   void clearSnapshot(final Set<KeyValue> ss)
   throws UnexpectedException {
-    this.lock.writeLock().lock();
-    try {
-      if (this.snapshot != ss) {
+    Generation g;
+    do {
+      g = this.generation.get();
+      if (g.snapshot != ss) {
         throw new UnexpectedException("Current snapshot is " +
-          this.snapshot + ", was passed " + ss);
+          g.snapshot + ", was passed " + ss);
       }
       // OK. Passed in snapshot is same as current snapshot.  If not-empty,
-      // create a new snapshot and let the old one go.
-      if (!ss.isEmpty()) {
-        this.snapshot = createSet(this.comparator);
+      // create a new snapshot and let the old one go.  Readers that pinned
+      // the old generation keep reading the old snapshot until done.
+      if (ss.isEmpty()) {
+        return;
       }
-    } finally {
-      this.lock.writeLock().unlock();
-    }
+    } while (!this.generation.compareAndSet(g,
+      new Generation(g.memcache, createSet(this.comparator))));
   }
 
 //  /**
@@ -224,17 +245,45 @@ class Memcache {
    * @return approximate size of the passed key and value.
    */
   long put(final KeyValue kv, boolean multiFamily) {
-    long size = -1;
-    this.lock.readLock().lock();
-    try {
-      boolean notpresent = this.memcache.add(kv);
-      size = heapSize(kv, notpresent);
-    } finally {
-      this.lock.readLock().unlock();
+    boolean notpresent = this.generation.get().memcache.add(kv);
+    return heapSize(kv, notpresent);
+  }
+  
+  /**
+   * Write a new version of a column and drop the older Put versions of the
+   * column from the active set, so a counter takes one KeyValue in the
+   * memcache however often it is incremented.  The new version goes in
+   * before the old come out; readers always find a value.  A version with
+   * the same timestamp as <code>kv</code> is replaced; readers may miss it
+   * for the moment between its removal and the add.
+   * @param kv
+   * @return memcache size delta; may be negative.
+   */
+  long upsert(final KeyValue kv) {
+    ConcurrentSkipListSet<KeyValue> memcache = this.generation.get().memcache;
+    long size = 0;
+    if (!memcache.add(kv)) {
+      // Same row, column, timestamp and type; swap in the new value.
+      KeyValue same = memcache.ceiling(kv);
+      if (same != null && memcache.remove(same)) {
+        size -= heapSize(same, true);
+      }
+      size += heapSize(kv, memcache.add(kv));
+    } else {
+      size += heapSize(kv, true);
+    }
+    // Older versions sort after the new one.
+    for (KeyValue older = memcache.higher(kv);
+        older != null && this.comparator.matchingRowColumn(kv, older);
+        older = memcache.higher(older)) {
+      if (older.getType() == KeyValue.Type.Put.getCode() &&
+          memcache.remove(older)) {
+        size -= heapSize(older, true);
+      }
     }
     return size;
   }
-  
+
   /**
    * Write an update
    * @param kv
@@ -242,85 +291,81 @@ class Memcache {
    */
   long delete(final KeyValue kv, boolean multiFamily) {
     long size = -1;
-    this.lock.readLock().lock();
     long deleteSize = 0L;
-    try {
-      //Have to find out what want to do here, to find the fastest way of removing
-      //things that are under a delete.
-      //Actions that will take place here are:
-      //1. Insert a put at the right place
-      //2. Insert a deleteFamily and a deleteColumn entry and deleting all the
-      //related entries already in there.
-      //3. Insert a delete, with timestamp, and finding the put in memcache,
-      //deleting both of them. 
-
-      //first check what type the current kv is
-      byte type = kv.getType();
-
-      boolean notpresent = false;
-      List<KeyValue> deletes = new ArrayList<KeyValue>();
-      SortedSet<KeyValue> tailSet = null;
-      if(type == KeyValue.Type.DeleteFamily.getCode()){
-        //need to check row/fam and bigger ts
-        //cases for mem:
-        //1. r/f same but ts bigger, next from headset
-        //2. r/f same and ts smaller or equal, add to deleteList
-        //3. r or f not the same, done get next kv
-        tailSet = this.memcache.tailSet(kv);
-        int tailsize = tailSet.size();
-        int ret = 0;
-        for(KeyValue mem : tailSet){
-          ret = deleteFamilyCompare(mem, kv, multiFamily);
-          if(ret == 0){
-            deletes.add(mem);
-            continue;
-          } else if(ret == 1){
-            break;
-          }
-        }
-        notpresent = this.memcache.add(kv);
-        size = heapSize(kv, notpresent);
-      } else if(type == KeyValue.Type.DeleteColumn.getCode()){
-        deletes = new ArrayList<KeyValue>();
-        //Need to check row/fam/col and bigger ts
-        tailSet = this.memcache.tailSet(kv);
-        int ret = 0;
-        for(KeyValue mem : tailSet){
-          ret = deleteColumnCompare(mem, kv, multiFamily);
-          if(ret == 0){
-            deletes.add(mem);
-            continue;
-          } else if(ret == 1){
-            break;
-          }
+    ConcurrentSkipListSet<KeyValue> memcache = this.generation.get().memcache;
+
+    //Have to find out what want to do here, to find the fastest way of removing
+    //things that are under a delete.
+    //Actions that will take place here are:
+    //1. Insert a put at the right place
+    //2. Insert a deleteFamily and a deleteColumn entry and deleting all the
+    //related entries already in there.
+    //3. Insert a delete, with timestamp, and finding the put in memcache,
+    //deleting both of them. 
+
+    //first check what type the current kv is
+    byte type = kv.getType();
+
+    boolean notpresent = false;
+    List<KeyValue> deletes = new ArrayList<KeyValue>();
+    SortedSet<KeyValue> tailSet = null;
+    if(type == KeyValue.Type.DeleteFamily.getCode()){
+      //need to check row/fam and bigger ts
+      //cases for mem:
+      //1. r/f same but ts bigger, next from headset
+      //2. r/f same and ts smaller or equal, add to deleteList
+      //3. r or f not the same, done get next kv
+      tailSet = memcache.tailSet(kv);
+      int tailsize = tailSet.size();
+      int ret = 0;
+      for(KeyValue mem : tailSet){
+        ret = deleteFamilyCompare(mem, kv, multiFamily);
+        if(ret == 0){
+          deletes.add(mem);
+          continue;
+        } else if(ret == 1){
+          break;
         }
-        notpresent = this.memcache.add(kv);
-        size = heapSize(kv, notpresent);
-      } else {
-        deletes = new ArrayList<KeyValue>();
-        //Need to check row/fam/col/ts
-        tailSet = this.memcache.tailSet(kv);
-        int tailsize = tailSet.size();
-
-        int ret = 0;
-        for(KeyValue mem : tailSet){
-          ret = deleteCompare(mem, kv, multiFamily);
-          if(ret == 0){
-            deletes.add(mem);
-            break;
-          } else if(ret == 1){
-            break;
-          }
+      }
+      notpresent = memcache.add(kv);
+      size = heapSize(kv, notpresent);
+    } else if(type == KeyValue.Type.DeleteColumn.getCode()){
+      deletes = new ArrayList<KeyValue>();
+      //Need to check row/fam/col and bigger ts
+      tailSet = memcache.tailSet(kv);
+      int ret = 0;
+      for(KeyValue mem : tailSet){
+        ret = deleteColumnCompare(mem, kv, multiFamily);
+        if(ret == 0){
+          deletes.add(mem);
+          continue;
+        } else if(ret == 1){
+          break;
         }
       }
-
-      for(KeyValue delete : deletes){
-        notpresent = this.memcache.remove(delete);
-        deleteSize += heapSize(delete, notpresent);
+      notpresent = memcache.add(kv);
+      size = heapSize(kv, notpresent);
+    } else {
+      deletes = new ArrayList<KeyValue>();
+      //Need to check row/fam/col/ts
+      tailSet = memcache.tailSet(kv);
+      int tailsize = tailSet.size();
+
+      int ret = 0;
+      for(KeyValue mem : tailSet){
+        ret = deleteCompare(mem, kv, multiFamily);
+        if(ret == 0){
+          deletes.add(mem);
+          break;
+        } else if(ret == 1){
+          break;
+        }
       }
+    }
 
-    } finally {
-      this.lock.readLock().unlock();
+    for(KeyValue delete : deletes){
+      notpresent = memcache.remove(delete);
+      deleteSize += heapSize(delete, notpresent);
     }
     return size - deleteSize;
   }
@@ -558,6 +603,130 @@ class Memcache {
       return -1;
   }
   
+  /**
+   * Collapse the active memcache in place.  Drops versions beyond
+   * <code>maxVersions</code> and cells covered by a delete marker.  The delete
+   * markers themselves are kept; they may still cover cells in the snapshot or
+   * in the store files.
+   *
+   * <p>Cells are removed one at a time from the live skip list, so concurrent
+   * adds carry on and MemcacheScanners, whose iterators are weakly consistent,
+   * never see a partial row; they see a cell or they don't, and any cell
+   * removed here is one a reader would have skipped anyway.  Only the covered
+   * puts are removed, never the marker that covers them.
+   *
+   * <p>Caller must make sure the memcache is not snapshotted while this runs
+   * or the returned size will be counted twice; HRegion does it by holding its
+   * updates read lock.
+   * @param maxVersions Versions to keep per column.
+   * @param multiFamily True if the store carries more than one family.
+   * @return approximate heap size freed.
+   */
+  long compact(final int maxVersions, final boolean multiFamily) {
+    return compact(maxVersions, multiFamily, null);
+  }
+
+  /**
+   * As {@link #compact(int, boolean)} but gives up between rows once
+   * <code>stop</code> is set.
+   * @param maxVersions Versions to keep per column.
+   * @param multiFamily True if the store carries more than one family.
+   * @param stop Checked before each row; may be null.
+   * @return approximate heap size freed.
+   */
+  long compact(final int maxVersions, final boolean multiFamily,
+      final AtomicBoolean stop) {
+    long freed = 0;
+    ConcurrentSkipListSet<KeyValue> memcache = this.generation.get().memcache;
+    List<KeyValue> familyDeletes = new ArrayList<KeyValue>();
+    KeyValue rowStart = memcache.isEmpty()? null: memcache.first();
+    while (rowStart != null && (stop == null || !stop.get())) {
+      NavigableSet<KeyValue> tailset = memcache.tailSet(rowStart, true);
+      // First pass over the row: find family deletes and where the next
+      // row starts.  Family deletes don't necessarily sort first in the row.
+      familyDeletes.clear();
+      KeyValue nextRow = null;
+      for (KeyValue kv: tailset) {
+        if (!this.comparator.matchingRows(rowStart, kv)) {
+          nextRow = kv;
+          break;
+        }
+        if (kv.getType() == KeyValue.Type.DeleteFamily.getCode()) {
+          familyDeletes.add(kv);
+        }
+      }
+      // Second pass: newest versions of a column come first, and at equal
+      // timestamps the delete types sort ahead of the puts.
+      KeyValue lastColumn = null;
+      KeyValue columnDelete = null;
+      long deleteTimestamp = -1L;
+      int versions = 0;
+      for (KeyValue kv: tailset) {
+        if (!this.comparator.matchingRows(rowStart, kv)) {
+          break;
+        }
+        if (lastColumn == null ||
+            !this.comparator.matchingRowColumn(lastColumn, kv)) {
+          lastColumn = kv;
+          columnDelete = null;
+          deleteTimestamp = -1L;
+          versions = 0;
+        }
+        byte type = kv.getType();
+        if (type != KeyValue.Type.Put.getCode()) {
+          if (type == KeyValue.Type.DeleteColumn.getCode() &&
+              columnDelete == null) {
+            columnDelete = kv;
+          } else if (type == KeyValue.Type.Delete.getCode()) {
+            deleteTimestamp = kv.getTimestamp();
+          }
+          continue;
+        }
+        long ts = kv.getTimestamp();
+        if (ts == deleteTimestamp ||
+            (columnDelete != null && ts <= columnDelete.getTimestamp()) ||
+            isFamilyDeleted(familyDeletes, kv, multiFamily) ||
+            ++versions > maxVersions) {
+          if (memcache.remove(kv)) {
+            freed += heapSize(kv, true);
+          }
+        }
+      }
+      rowStart = nextRow;
+    }
+    return freed;
+  }
+
+  /*
+   * @param familyDeletes DeleteFamily markers on the row of <code>kv</code>.
+   * @param kv
+   * @param multiFamily
+   * @return True if one of the passed markers covers <code>kv</code>.
+   */
+  private boolean isFamilyDeleted(final List<KeyValue> familyDeletes,
+      final KeyValue kv, final boolean multiFamily) {
+    for (KeyValue d: familyDeletes) {
+      if (kv.getTimestamp() > d.getTimestamp()) {
+        continue;
+      }
+      if (!multiFamily || matchingFamily(d, kv)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * @return True if <code>a</code> and <code>b</code> have the same family.
+   * Rows are presumed equal.
+   */
+  private boolean matchingFamily(final KeyValue a, final KeyValue b) {
+    int aoffset = a.getRowOffset() + a.getRowLength();
+    int boffset = b.getRowOffset() + b.getRowLength();
+    return Bytes.compareTo(a.getBuffer(), aoffset + 1, a.getBuffer()[aoffset],
+      b.getBuffer(), boffset + 1, b.getBuffer()[boffset]) == 0;
+  }
+
   /*
    * Calculate how the memcache size has changed, approximately.  Be careful.
    * If class changes, be sure to change the size calculation.
@@ -616,13 +785,8 @@ class Memcache {
    * @return Next row or null if none found.
    */
   KeyValue getNextRow(final KeyValue kv) {
-    this.lock.readLock().lock();
-    try {
-      return getLowest(getNextRow(kv, this.memcache),
-        getNextRow(kv, this.snapshot));
-    } finally {
-      this.lock.readLock().unlock();
-    }
+    Generation g = this.generation.get();
+    return getLowest(getNextRow(kv, g.memcache), getNextRow(kv, g.snapshot));
   }
 
   /*
@@ -753,28 +917,155 @@ class Memcache {
    */
   int getRow(ServerGet sget, List<KeyValue> results, boolean multiFamily)
   throws IOException {
-    this.lock.readLock().lock();
+    Generation g = this.generation.get();
     int retCode = 0;
-    try {
-      // Used to be synchronized but now with weak iteration, no longer needed.
-      retCode = internalGetRow(this.memcache, sget, results, multiFamily);
+    // Used to be synchronized but now with weak iteration, no longer needed.
+    retCode = internalGetRow(g.memcache, sget, results, multiFamily);
+    if(retCode == -1){
+      throw new IOException("Internal error in get, return code = -1");
+    } else if(retCode == 0){
+      sget.mergeGets();
+      sget.mergeDeletes(multiFamily);
+      sget.clear();
+      retCode = internalGetRow(g.snapshot, sget, results, multiFamily);
       if(retCode == -1){
         throw new IOException("Internal error in get, return code = -1");
-      } else if(retCode == 0){
-        sget.mergeGets();
-        sget.mergeDeletes(multiFamily);
-        sget.clear();
-        retCode = internalGetRow(this.snapshot, sget, results, multiFamily);
-        if(retCode == -1){
-          throw new IOException("Internal error in get, return code = -1");
-        }
       }
-    } finally {
-      this.lock.readLock().unlock();
     }
     return retCode;
   }  
   
+  /**
+   * Fast path for point gets of explicit columns.  Rather than walking the
+   * tail of the row calling {@link ServerGet#compareTo(KeyValue, boolean)} on
+   * every KeyValue, seeks straight to each requested column with a skip list
+   * <code>ceiling</code> and steps with <code>higher</code> until the first
+   * KeyValue that is not on the column.  Versions are counted in a local; no
+   * iterators or version lists are made.
+   *
+   * <p>Only answers when the memcache and snapshot hold enough versions of
+   * every requested column.  Otherwise nothing is added to
+   * <code>results</code> and the caller must take the general
+   * {@link #getRow(ServerGet, List, boolean)} path which also goes to the
+   * store files.
+   * @param row
+   * @param family
+   * @param qualifiers Columns wanted.
+   * @param maxVersions Versions wanted per column.
+   * @param tr Time range versions must fall in.
+   * @param now Time to check ttl against.
+   * @param results Where to add results found.
+   * @return True if all <code>qualifiers</code> were satisfied out of memory.
+   */
+  boolean getColumns(final byte [] row, final byte [] family,
+      final Set<byte []> qualifiers, final int maxVersions,
+      final TimeRange tr, final long now, final List<KeyValue> results) {
+    int initialSize = results.size();
+    boolean done = true;
+    Generation g = this.generation.get();
+    // Family deletes carry an empty qualifier so sort first on the family.
+    KeyValue first = new KeyValue(row, family, null,
+      HConstants.LATEST_TIMESTAMP, KeyValue.Type.Maximum);
+    if (hasFamilyDelete(g.memcache, first) ||
+        hasFamilyDelete(g.snapshot, first)) {
+      return false;
+    }
+    for (byte [] qualifier: qualifiers) {
+      KeyValue seek = new KeyValue(row, family, qualifier,
+        HConstants.LATEST_TIMESTAMP, KeyValue.Type.Maximum);
+      int versions = getColumn(g.memcache, null, seek, maxVersions, 0, tr,
+        now, results);
+      if (versions < maxVersions) {
+        versions = getColumn(g.snapshot, g.memcache, seek, maxVersions,
+          versions, tr, now, results);
+      }
+      if (versions < maxVersions) {
+        done = false;
+        break;
+      }
+    }
+    if (!done) {
+      for (int i = results.size() - 1; i >= initialSize; i--) {
+        results.remove(i);
+      }
+    }
+    return done;
+  }
+
+  /*
+   * @param set Set to look in.
+   * @param newer Set of newer edits whose deletes may cover <code>set</code>
+   * edits or null.
+   * @param seek First possible key on the column.
+   * @param maxVersions
+   * @param versions Versions found so far.
+   * @param tr
+   * @param now
+   * @param results
+   * @return Versions found so far, including those found in <code>set</code>.
+   * Stops short on a column delete; store files may hold versions newer than
+   * the delete.
+   */
+  private int getColumn(final ConcurrentSkipListSet<KeyValue> set,
+      final ConcurrentSkipListSet<KeyValue> newer, final KeyValue seek,
+      final int maxVersions, final int versions, final TimeRange tr,
+      final long now, final List<KeyValue> results) {
+    int count = versions;
+    long deleteTimestamp = -1L;
+    for (KeyValue kv = set.ceiling(seek);
+        kv != null && count < maxVersions &&
+          this.comparator.matchingRowColumn(seek, kv);
+        kv = set.higher(kv)) {
+      byte type = kv.getType();
+      long ts = kv.getTimestamp();
+      if (type == KeyValue.Type.DeleteColumn.getCode() ||
+          type == KeyValue.Type.DeleteFamily.getCode()) {
+        // Everything older on this column is gone but the store files may
+        // still have newer versions; let the general path sort it out.
+        break;
+      } else if (type != KeyValue.Type.Put.getCode()) {
+        deleteTimestamp = ts;
+        continue;
+      }
+      if (ts == deleteTimestamp || !tr.withinTimeRange(ts) ||
+          (this.ttl != HConstants.FOREVER && now > ts + this.ttl)) {
+        continue;
+      }
+      if (newer != null) {
+        // A Delete of this exact version in the newer set sorts right before
+        // where this Put would go.
+        KeyValue d = newer.lower(kv);
+        if (d != null && d.getType() == KeyValue.Type.Delete.getCode() &&
+            this.comparatorIgnoreType.compare(d, kv) == 0) {
+          continue;
+        }
+      }
+      results.add(kv);
+      count++;
+    }
+    return count;
+  }
+
+  /*
+   * @param set Set to look in.
+   * @param first First possible key on the row and family with an empty
+   * qualifier, which is where family deletes sort.
+   * @return True if <code>set</code> has a family delete on the row and
+   * family.  Newer puts and deletes of the empty qualifier sort ahead of an
+   * older family delete so all of them are looked at.
+   */
+  private boolean hasFamilyDelete(final ConcurrentSkipListSet<KeyValue> set,
+      final KeyValue first) {
+    for (KeyValue kv = set.ceiling(first);
+        kv != null && this.comparator.matchingRowColumn(first, kv);
+        kv = set.higher(kv)) {
+      if (kv.getType() == KeyValue.Type.DeleteFamily.getCode()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * 
    * @param set
@@ -845,13 +1136,9 @@ class Memcache {
   void getRowKeyAtOrBefore(final KeyValue kv,
       final NavigableSet<KeyValue> candidates, 
       final NavigableSet<KeyValue> deletes, final long now) {
-    this.lock.readLock().lock();
-    try {
-      getRowKeyAtOrBefore(memcache, kv, candidates, deletes, now);
-      getRowKeyAtOrBefore(snapshot, kv, candidates, deletes, now);
-    } finally {
-      this.lock.readLock().unlock();
-    }
+    Generation g = this.generation.get();
+    getRowKeyAtOrBefore(g.memcache, kv, candidates, deletes, now);
+    getRowKeyAtOrBefore(g.snapshot, kv, candidates, deletes, now);
   }
 
   private void getRowKeyAtOrBefore(final ConcurrentSkipListSet<KeyValue> set,
@@ -1059,13 +1346,8 @@ class Memcache {
 //    final NavigableSet<byte []> targetCols, final byte [] firstRow)
   InternalScanner getScanner(Scan scan)
   throws IOException {
-    this.lock.readLock().lock();
-    try {
-      return new MemcacheScanner(scan);
-//      return new MemcacheScanner(timestamp, targetCols, firstRow);
-    } finally {
-      this.lock.readLock().unlock();
-    }
+    return new MemcacheScanner(scan);
+//    return new MemcacheScanner(timestamp, targetCols, firstRow);
   }
 
   //////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Thread that compacts region memcaches in memory on request.  Regions ask
+ * once their memcache passes
+ * <code>hbase.hregion.memcache.compaction.ratio</code> of the flush size.
+ * A compaction drops versions beyond the family max versions and cells
+ * covered by deletes so they are never written out by a flush.
+ *
+ * <p>Runs on its own thread rather than the {@link MemcacheFlusher} so
+ * flushes are not queued behind memcache compactions.  A compaction holds
+ * the region's updates read lock one store at a time and gives it up at the
+ * next row once a flush asks for the write lock, so a flush waits at most on
+ * the compaction of one row.
+ * 
+ * @see HRegion#compactMemcaches()
+ */
+class MemcacheCompactor extends Thread {
+  static final Log LOG = LogFactory.getLog(MemcacheCompactor.class);
+  private final BlockingQueue<HRegion> compactionQueue =
+    new LinkedBlockingQueue<HRegion>();
+
+  private final HashSet<HRegion> regionsInQueue = new HashSet<HRegion>();
+
+  private final long threadWakeFrequency;
+  private final HRegionServer server;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * @param conf
+   * @param server
+   */
+  public MemcacheCompactor(final HBaseConfiguration conf,
+      final HRegionServer server) {
+    super();
+    this.server = server;
+    this.threadWakeFrequency =
+      conf.getLong(HConstants.THREAD_WAKE_FREQUENCY, 10 * 1000);
+  }
+
+  @Override
+  public void run() {
+    while (!server.isStopRequested()) {
+      HRegion r = null;
+      try {
+        r = compactionQueue.poll(threadWakeFrequency, TimeUnit.MILLISECONDS);
+        if (r == null) {
+          continue;
+        }
+        synchronized (regionsInQueue) {
+          regionsInQueue.remove(r);
+        }
+        lock.lock();
+        try {
+          r.compactMemcaches();
+        } finally {
+          lock.unlock();
+        }
+      } catch (InterruptedException ex) {
+        continue;
+      } catch (Exception ex) {
+        LOG.error("Memcache compaction failed" +
+          (r != null ? (" for region " + Bytes.toString(r.getRegionName())) : ""),
+          ex);
+      }
+    }
+    regionsInQueue.clear();
+    compactionQueue.clear();
+    LOG.info(getName() + " exiting");
+  }
+
+  /**
+   * @param r Region whose memcaches need compacting.
+   */
+  public void request(HRegion r) {
+    synchronized (regionsInQueue) {
+      if (!regionsInQueue.contains(r)) {
+        regionsInQueue.add(r);
+        compactionQueue.add(r);
+      }
+    }
+  }
+
+  /**
+   * Only interrupt once it's done with a run through the work loop.
+   */ 
+  void interruptIfNecessary() {
+    lock.lock();
+    try {
+      this.interrupt();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
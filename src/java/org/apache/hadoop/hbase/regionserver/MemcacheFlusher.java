@@ -176,6 +176,10 @@ class MemcacheFlusher extends Thread implements FlushRequester {
     }
   }
   
+  public void requestMemcacheCompaction(HRegion r) {
+    this.server.memcacheCompactor.request(r);
+  }
+
   /**
    * Only interrupt once it's done with a run through the work loop.
    */ 
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Tiered selection by size ratio.  Starting at the oldest file, a file is left
+ * out while it is bigger than hbase.hstore.compaction.ratio times the files
+ * after it that would be compacted with it.  The files compacted are then the
+ * first one kept and up to hbase.hstore.compaction.max - 1 newer, and there
+ * must be at least hbase.hstore.compactionThreshold of them.
+ *
+ * <p>Files about the size of their newer neighbours get merged; a large old
+ * file waits until enough data has piled up after it, which keeps the times
+ * any one edit is rewritten down to about log(store size / flush size).
+ */
+public class RatioCompactionPolicy implements CompactionPolicy {
+  private final float ratio;
+  private final int minFilesToCompact;
+  private final int maxFilesToCompact;
+
+  /**
+   * @param conf
+   */
+  public RatioCompactionPolicy(final Configuration conf) {
+    this.ratio = conf.getFloat("hbase.hstore.compaction.ratio", 1.2f);
+    this.minFilesToCompact =
+      Math.max(2, conf.getInt("hbase.hstore.compactionThreshold", 3));
+    this.maxFilesToCompact = Math.max(this.minFilesToCompact,
+      conf.getInt("hbase.hstore.compaction.max", 10));
+  }
+
+  public int [] select(final long [] sizes, final long [] ages) {
+    int countOfFiles = sizes.length;
+    for (int start = 0; countOfFiles - start >= this.minFilesToCompact;
+        start++) {
+      int end = Math.min(countOfFiles, start + this.maxFilesToCompact);
+      long newer = 0;
+      for (int i = start + 1; i < end; i++) {
+        newer += sizes[i];
+      }
+      if (sizes[start] <= newer * this.ratio) {
+        return new int [] {start, end};
+      }
+    }
+    return null;
+  }
+}
@@ -21,6 +21,7 @@ package org.apache.hadoop.hbase.regionserver;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,14 +35,21 @@ import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -104,7 +112,6 @@ public class Store implements HConstants {
   // ttl in milliseconds.
   protected long ttl;
   private long majorCompactionTime;
-  private int maxFilesToCompact;
   private final long desiredMaxFileSize;
   private volatile long storeSize = 0L;
   private final Object flushLock = new Object();
@@ -133,9 +140,16 @@ public class Store implements HConstants {
   private final Path compactionDir;
   private final Object compactLock = new Object();
   private final int compactionThreshold;
+  private final CompactionPolicy compactionPolicy;
   private final int blocksize;
   private final boolean bloomfilter;
   private final Compression.Algorithm compression;
+  // True if flushes compress blocks on a helper thread while the next fills.
+  private final boolean pipelinedFlush;
+  // Null if compactions run as fast as they can.
+  private volatile CompactionThrottle compactionThrottle = null;
+  // Bytes a compaction reads between calls to the throttle.
+  private static final int THROTTLE_CHUNK = 64 * 1024;
   
   // Comparing KeyValues
   final KeyValue.KVComparator comparator;
@@ -168,6 +182,8 @@ public class Store implements HConstants {
     this.bloomfilter = family.isBloomfilter();
     this.blocksize = family.getBlocksize();
     this.compression = family.getCompression();
+    this.pipelinedFlush = this.compression != Compression.Algorithm.NONE &&
+      conf.getBoolean("hbase.hstore.flush.pipelined", true);
     this.comparator = info.getComparator();
     this.comparatorIgnoringType = this.comparator.getComparatorIgnoringType();
     // getTimeToLive returns ttl in seconds.  Convert to milliseconds.
@@ -201,7 +217,7 @@ public class Store implements HConstants {
       this.majorCompactionTime = (new Long(strCompactionTime)).longValue();
     }
 
-    this.maxFilesToCompact = conf.getInt("hbase.hstore.compaction.max", 10);
+    this.compactionPolicy = getCompactionPolicy(conf);
 
     // loadStoreFiles calculates this.maxSeqId. as side-effect.
     this.storefiles.putAll(loadStoreFiles());
@@ -211,13 +227,17 @@ public class Store implements HConstants {
     }
 
     // Do reconstruction log.
-    runReconstructionLog(reconstructionLog, this.maxSeqId, reporter);
+    runReconstructionLog(reconstructionLog, reporter);
   }
 
   HColumnDescriptor getFamily() {
     return this.family;
   }
 
+  void setCompactionThrottle(final CompactionThrottle throttle) {
+    this.compactionThrottle = throttle;
+  }
+
   long getMaxSequenceId() {
     return this.maxSeqId;
   }
@@ -247,21 +267,41 @@ public class Store implements HConstants {
   /*
    * Run reconstruction log
    * @param reconstructionLog
-   * @param msid
    * @param reporter
    * @throws IOException
    */
   private void runReconstructionLog(final Path reconstructionLog,
-    final long msid, final Progressable reporter)
+    final Progressable reporter)
+  throws IOException {
+    List<Store> stores = new ArrayList<Store>(1);
+    stores.add(this);
+    runReconstructionLog(reconstructionLog, this.regioninfo, stores, this.fs,
+      this.conf, reporter);
+  }
+
+  /**
+   * Replay a region's reconstruction log into its stores.
+   * @param reconstructionLog
+   * @param info Region the log is for
+   * @param stores Stores of the region to apply the log to
+   * @param fs
+   * @param conf
+   * @param reporter Can be null.
+   * @throws IOException
+   */
+  static void runReconstructionLog(final Path reconstructionLog,
+    final HRegionInfo info, final Collection<Store> stores,
+    final FileSystem fs, final HBaseConfiguration conf,
+    final Progressable reporter)
   throws IOException {
     try {
-      doReconstructionLog(reconstructionLog, msid, reporter);
+      doReconstructionLog(reconstructionLog, info, stores, fs, conf, reporter);
     } catch (EOFException e) {
       // Presume we got here because of lack of HADOOP-1700; for now keep going
       // but this is probably not what we want long term.  If we got here there
       // has been data-loss
       LOG.warn("Exception processing reconstruction log " + reconstructionLog +
-        " opening " + Bytes.toString(this.storeName) +
+        " opening " + info.getRegionNameAsString() +
         " -- continuing.  Probably lack-of-HADOOP-1700 causing DATA LOSS!", e);
     } catch (IOException e) {
       // Presume we got here because of some HDFS issue. Don't just keep going.
@@ -269,28 +309,33 @@ public class Store implements HConstants {
       // again until human intervention but alternative has us skipping logs
       // and losing edits: HBASE-642.
       LOG.warn("Exception processing reconstruction log " + reconstructionLog +
-        " opening " + Bytes.toString(this.storeName), e);
+        " opening " + info.getRegionNameAsString(), e);
       throw e;
     }
   }
 
   /*
-   * Read the reconstructionLog to see whether we need to build a brand-new 
-   * file out of non-flushed log entries.  
+   * Read the reconstructionLog to see whether we need to build brand-new 
+   * files out of non-flushed log entries.  
    *
-   * We can ignore any log message that has a sequence ID that's equal to or 
-   * lower than maxSeqID.  (Because we know such log messages are already 
-   * reflected in the MapFiles.)
+   * The log is read once and each edit handed to the store of its family.
+   * A store ignores any log message that has a sequence ID that's equal to or
+   * lower than its maxSeqID.  (Because we know such log messages are already 
+   * reflected in its MapFiles.)  What each store gets is then flushed straight
+   * to a new store file, up to hbase.hregion.replay.threads stores at a time.
    */
-  private void doReconstructionLog(final Path reconstructionLog,
-    final long maxSeqID, final Progressable reporter)
+  private static void doReconstructionLog(final Path reconstructionLog,
+    final HRegionInfo info, final Collection<Store> stores,
+    final FileSystem fs, final HBaseConfiguration conf,
+    final Progressable reporter)
   throws UnsupportedEncodingException, IOException {
-    if (reconstructionLog == null || !this.fs.exists(reconstructionLog)) {
+    if (reconstructionLog == null || stores.isEmpty() ||
+        !fs.exists(reconstructionLog)) {
       // Nothing to do.
       return;
     }
     // Check its not empty.
-    FileStatus [] stats = this.fs.listStatus(reconstructionLog);
+    FileStatus [] stats = fs.listStatus(reconstructionLog);
     if (stats == null || stats.length == 0) {
       LOG.warn("Passed reconstruction log " + reconstructionLog +
         " is zero-length");
@@ -298,11 +343,17 @@ public class Store implements HConstants {
     }
     // TODO: This could grow large and blow heap out.  Need to get it into
     // general memory usage accounting.
+    final Store [] targets = stores.toArray(new Store[stores.size()]);
+    final List<ConcurrentSkipListSet<KeyValue>> reconstructedCaches =
+      new ArrayList<ConcurrentSkipListSet<KeyValue>>(targets.length);
+    long minSeqID = Long.MAX_VALUE;
+    for (Store store: targets) {
+      reconstructedCaches.add(Memcache.createSet(store.comparator));
+      minSeqID = Math.min(minSeqID, store.maxSeqId);
+    }
     long maxSeqIdInLog = -1;
-    ConcurrentSkipListSet<KeyValue> reconstructedCache =
-      Memcache.createSet(this.comparator);
-    SequenceFile.Reader logReader = new SequenceFile.Reader(this.fs,
-      reconstructionLog, this.conf);
+    SequenceFile.Reader logReader = new SequenceFile.Reader(fs,
+      reconstructionLog, conf);
     try {
       HLogKey key = new HLogKey();
       HLogEdit val = new HLogEdit();
@@ -310,43 +361,126 @@ public class Store implements HConstants {
       long editsCount = 0;
       // How many edits to apply before we send a progress report.
       int reportInterval =
-        this.conf.getInt("hbase.hstore.report.interval.edits", 2000);
+        conf.getInt("hbase.hstore.report.interval.edits", 2000);
       while (logReader.next(key, val)) {
         maxSeqIdInLog = Math.max(maxSeqIdInLog, key.getLogSeqNum());
-        if (key.getLogSeqNum() <= maxSeqID) {
+        if (key.getLogSeqNum() <= minSeqID) {
           skippedEdits++;
           continue;
         }
         // Check this edit is for me. Also, guard against writing the speical
         // METACOLUMN info such as HBASE::CACHEFLUSH entries
-        KeyValue kv = val.getKeyValue();
-        if (val.isTransactionEntry() || kv.matchingColumnNoDelimiter(HLog.METACOLUMN) ||
-          !Bytes.equals(key.getRegionName(), regioninfo.getRegionName()) ||
-          !kv.matchingFamily(family.getName())) {
+        if (val.isTransactionEntry() ||
+          !Bytes.equals(key.getRegionName(), info.getRegionName())) {
           continue;
         }
-        reconstructedCache.add(kv);
-        editsCount++;
-        // Every 2k edits, tell the reporter we're making progress.
-        // Have seen 60k edits taking 3minutes to complete.
-        if (reporter != null && (editsCount % reportInterval) == 0) {
-          reporter.progress();
+        // A row edit carries all KeyValues of a row mutation.
+        for (KeyValue kv: val.getKeyValues()) {
+          if (kv.matchingColumnNoDelimiter(HLog.METACOLUMN)) {
+            continue;
+          }
+          for (int i = 0; i < targets.length; i++) {
+            if (!kv.matchingFamily(targets[i].storeName)) {
+              continue;
+            }
+            if (key.getLogSeqNum() <= targets[i].maxSeqId) {
+              skippedEdits++;
+            } else {
+              reconstructedCaches.get(i).add(kv);
+              editsCount++;
+            }
+            break;
+          }
+          // Every 2k edits, tell the reporter we're making progress.
+          // Have seen 60k edits taking 3minutes to complete.
+          if (reporter != null && editsCount > 0 &&
+              (editsCount % reportInterval) == 0) {
+            reporter.progress();
+          }
         }
       }
       if (LOG.isDebugEnabled()) {
         LOG.debug("Applied " + editsCount + ", skipped " + skippedEdits +
-          " because sequence id <= " + maxSeqID);
+          " because sequence id <= store sequence id");
       }
     } finally {
       logReader.close();
     }
-    
-    if (reconstructedCache.size() > 0) {
-      // We create a "virtual flush" at maxSeqIdInLog+1.
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("flushing reconstructionCache");
+
+    // We create a "virtual flush" at maxSeqIdInLog+1.
+    final long flushSeqId = maxSeqIdInLog + 1;
+    int threads = Math.min(targets.length,
+      conf.getInt("hbase.hregion.replay.threads", 3));
+    if (threads <= 1) {
+      for (int i = 0; i < targets.length; i++) {
+        targets[i].flushReconstructedCache(reconstructedCaches.get(i),
+          flushSeqId);
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> flushes = new ArrayList<Future<Void>>();
+      for (int i = 0; i < targets.length; i++) {
+        final Store store = targets[i];
+        final ConcurrentSkipListSet<KeyValue> cache =
+          reconstructedCaches.get(i);
+        flushes.add(pool.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            store.flushReconstructedCache(cache, flushSeqId);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> flush: flushes) {
+        try {
+          flush.get();
+          if (reporter != null) {
+            reporter.progress();
+          }
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted flushing " +
+            "reconstruction log edits of " + info.getRegionNameAsString());
+        } catch (ExecutionException e) {
+          Throwable t = e.getCause();
+          if (t instanceof IOException) {
+            throw (IOException)t;
+          }
+          IOException ioe = new IOException(t.toString());
+          ioe.initCause(t);
+          throw ioe;
+        }
       }
-      internalFlushCache(reconstructedCache, maxSeqIdInLog + 1);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /*
+   * Write out edits replayed from the reconstruction log as a new store file.
+   * @param cache Replayed edits
+   * @param seqId Sequence id of the flush
+   * @throws IOException
+   */
+  private void flushReconstructedCache(
+    final ConcurrentSkipListSet<KeyValue> cache, final long seqId)
+  throws IOException {
+    if (cache.isEmpty()) {
+      return;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("flushing reconstructionCache of " + this.storeNameStr);
+    }
+    StoreFile sf = internalFlushCache(cache, seqId);
+    if (sf == null) {
+      return;
+    }
+    this.lock.writeLock().lock();
+    try {
+      this.storefiles.put(Long.valueOf(seqId), sf);
+      this.maxSeqId = seqId;
+    } finally {
+      this.lock.writeLock().unlock();
     }
   }
 
@@ -449,6 +583,38 @@ public class Store implements HConstants {
     }
   }
   
+  /**
+   * Adds a new version of a column to the memcache, replacing the older
+   * versions of the column there.
+   * 
+   * @param kv
+   * @return memcache size delta
+   */
+  protected long upsert(final KeyValue kv) {
+    lock.readLock().lock();
+    try {
+      return this.memcache.upsert(kv);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Collapse the memcache in place, dropping versions beyond the family's
+   * max versions and cells covered by deletes.
+   * @param stop Give up between rows once set; may be null.
+   * @return memcache size delta; amount freed.
+   */
+  long compactMemcache(final AtomicBoolean stop) {
+    lock.readLock().lock();
+    try {
+      return this.memcache.compact(family.getMaxVersions(),
+        family.getMultiFamily(), stop);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
   /**
    * @return All store files.
    */
@@ -535,6 +701,7 @@ public class Store implements HConstants {
     synchronized (flushLock) {
       // A. Write the map out to the disk
       writer = getWriter();
+      writer.setPipelined(this.pipelinedFlush);
       int entries = 0;
       try {
         for (KeyValue kv: cache) {
@@ -706,20 +873,22 @@ public class Store implements HConstants {
         fileSizes[i] = len;
         totalSize += len;
       }
+      long[] flushTimes = getFlushTimes(filesToCompact);
+      long flushTime = -1;
       if (!majorcompaction && !references) {
-        // Here we select files for incremental compaction.  
-        // The rule is: if the largest(oldest) one is more than twice the 
-        // size of the second, skip the largest, and continue to next...,
-        // until we meet the compactionThreshold limit.
-        for (point = 0; point < countOfFiles - 1; point++) {
-          if ((fileSizes[point] < fileSizes[point + 1] * 2) && 
-               (countOfFiles - point) <= maxFilesToCompact) {
-            break;
+        int [] selection = selectMinorCompaction(fileSizes, flushTimes);
+        int first = selection == null? 0: selection[0];
+        int last = selection == null? 0: selection[1];
+        for (int i = 0; i < countOfFiles; i++) {
+          if (i < first || i >= last) {
+            skipped += fileSizes[i];
+            point++;
+          } else {
+            flushTime = Math.max(flushTime, flushTimes[i]);
           }
-          skipped += fileSizes[point];
         }
-        filesToCompact = new ArrayList<StoreFile>(filesToCompact.subList(point,
-          countOfFiles));
+        filesToCompact = new ArrayList<StoreFile>(filesToCompact.subList(first,
+          last));
         if (filesToCompact.size() <= 1) {
           if (LOG.isDebugEnabled()) {
             LOG.debug("Skipped compaction of 1 file; compaction size of " +
@@ -734,6 +903,12 @@ public class Store implements HConstants {
             StringUtils.humanReadableInt(totalSize) + "; Skipped " + point +
             " file(s), size: " + skipped);
         }
+        // The compacted file takes the place of the newest file it replaces.
+        maxId = filesToCompact.get(filesToCompact.size() - 1).getMaxSequenceId();
+      } else {
+        for (int i = 0; i < countOfFiles; i++) {
+          flushTime = Math.max(flushTime, flushTimes[i]);
+        }
       }
  
       // Step through them, writing to the brand-new file
@@ -747,7 +922,7 @@ public class Store implements HConstants {
         compact(writer, filesToCompact, majorcompaction);
       } finally {
         // Now, write out an HSTORE_LOGINFOFILE for the brand-new TreeMap.
-        StoreFile.appendMetadata(writer, maxId, majorcompaction);
+        StoreFile.appendMetadata(writer, maxId, majorcompaction, flushTime);
         writer.close();
       }
 
@@ -762,6 +937,102 @@ public class Store implements HConstants {
     return checkSplit(forceSplit);
   }
 
+  /*
+   * Select files for incremental compaction using the configured
+   * {@link CompactionPolicy}.
+   * @param fileSizes Sizes of the store files, oldest first.
+   * @param flushTimes When the newest edit of each file was flushed.
+   * @return Index of the first file to compact and one past the last, or null.
+   */
+  private int [] selectMinorCompaction(final long [] fileSizes,
+      final long [] flushTimes) {
+    long now = System.currentTimeMillis();
+    long [] ages = new long[flushTimes.length];
+    for (int i = 0; i < ages.length; i++) {
+      ages[i] = now - flushTimes[i];
+    }
+    int [] selection = this.compactionPolicy.select(fileSizes, ages);
+    if (selection != null && (selection.length != 2 || selection[0] < 0 ||
+        selection[1] > fileSizes.length || selection[0] > selection[1])) {
+      LOG.warn(this.compactionPolicy.getClass().getName() +
+        " made a bad selection; compacting nothing");
+      return null;
+    }
+    return selection;
+  }
+
+  /*
+   * @param files Store files
+   * @return When the newest edit of each file was flushed.  Files that do not
+   * say are taken to be as old as their modification time.
+   * @throws IOException
+   */
+  private long [] getFlushTimes(final List<StoreFile> files)
+  throws IOException {
+    long [] flushTimes = new long[files.size()];
+    for (int i = 0; i < flushTimes.length; i++) {
+      StoreFile file = files.get(i);
+      flushTimes[i] = file.getFlushTime();
+      if (flushTimes[i] < 0) {
+        flushTimes[i] =
+          this.fs.getFileStatus(file.getPath()).getModificationTime();
+      }
+    }
+    return flushTimes;
+  }
+
+  /**
+   * @param conf
+   * @return The {@link CompactionPolicy} named by
+   * hbase.hstore.compaction.policy.
+   */
+  static CompactionPolicy getCompactionPolicy(final Configuration conf) {
+    Class<? extends CompactionPolicy> c =
+      conf.getClass("hbase.hstore.compaction.policy",
+        DefaultCompactionPolicy.class, CompactionPolicy.class);
+    try {
+      return c.getConstructor(Configuration.class).newInstance(conf);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed construction of compaction policy " +
+        c.getName(), e);
+    }
+  }
+
+  /**
+   * Estimate how many bytes a compaction would read, using the same file
+   * selection as {@link #compact(boolean)}.
+   * @param mc True if a major compaction is forced
+   * @return Bytes of store file input, or 0 if no compaction would run.
+   * @throws IOException
+   */
+  long getCompactionSize(final boolean mc) throws IOException {
+    List<StoreFile> files = new ArrayList<StoreFile>(this.storefiles.values());
+    if (files.isEmpty()) {
+      return 0;
+    }
+    boolean majorcompaction = mc || isMajorCompaction(files);
+    boolean references = hasReferences(files);
+    if (!majorcompaction && !references &&
+        files.size() < compactionThreshold) {
+      return 0;
+    }
+    long [] fileSizes = new long[files.size()];
+    for (int i = 0; i < fileSizes.length; i++) {
+      fileSizes[i] = files.get(i).getReader().length();
+    }
+    int [] selection = (majorcompaction || references)?
+      new int [] {0, fileSizes.length}:
+      selectMinorCompaction(fileSizes, getFlushTimes(files));
+    if (selection == null || selection[1] - selection[0] <= 1) {
+      return 0;
+    }
+    long size = 0;
+    for (int i = selection[0]; i < selection[1]; i++) {
+      size += fileSizes[i];
+    }
+    return size;
+  }
+
   /*
    * @param files
    * @return True if any of the files in <code>files</code> are References.
@@ -856,36 +1127,13 @@ public class Store implements HConstants {
     return copy.toArray(new StoreFile[0]);
   }
 
-  /*
-   * @param rdrs List of StoreFiles
-   * @param keys Current keys
-   * @param done Which readers are done
-   * @return The lowest current key in passed <code>rdrs</code>
-   */
-  private int getLowestKey(final HFileScanner [] rdrs, final KeyValue [] keys,
-      final boolean [] done) {
-    int lowestKey = -1;
-    for (int i = 0; i < rdrs.length; i++) {
-      if (done[i]) {
-        continue;
-      }
-      if (lowestKey < 0) {
-        lowestKey = i;
-      } else {
-        if (this.comparator.compare(keys[i], keys[lowestKey]) < 0) {
-          lowestKey = i;
-        }
-      }
-    }
-    return lowestKey;
-  }
-
   /*
    * Compact a list of StoreFiles.
    * 
    * We work by iterating through the readers in parallel looking at newest
-   * store file first. We always increment the lowest-ranked one. Updates to a
-   * single row/column will appear ranked by timestamp.
+   * store file first. We always increment the lowest-ranked one, found with a
+   * {@link KeyValueHeap}. Updates to a single row/column will appear ranked by
+   * timestamp.
    * @param compactedOut Where to write compaction.
    * @param pReaders List of readers sorted oldest to newest.
    * @param majorCompaction True to force a major compaction regardless of
@@ -899,28 +1147,27 @@ public class Store implements HConstants {
     StoreFile[] files = reverse(pReaders);
     HFileScanner [] rdrs = new HFileScanner[files.length];
     KeyValue [] kvs = new KeyValue[rdrs.length];
-    boolean[] done = new boolean[rdrs.length];
+    KeyValueHeap heap = new KeyValueHeap(kvs, this.comparator);
     // Now, advance through the readers in order. This will have the
     // effect of a run-time sort of the entire dataset.
-    int numDone = 0;
     for (int i = 0; i < rdrs.length; i++) {
       rdrs[i] = files[i].getReader().getScanner();
-      done[i] = !rdrs[i].seekTo();
-      if (done[i]) {
-        numDone++;
-      } else {
+      if (rdrs[i].seekTo()) {
         kvs[i] = rdrs[i].getKeyValue();
+        heap.add(i);
       }
     }
 
+    CompactionThrottle throttle = this.compactionThrottle;
+    long unthrottled = 0;
     long now = System.currentTimeMillis();
     int timesSeen = 0;
     KeyValue lastSeen = KeyValue.LOWESTKEY;
     KeyValue lastDelete = null;
     int maxVersions = family.getMaxVersions();
-    while (numDone < done.length) {
+    while (!heap.isEmpty()) {
       // Get lowest key in all store files.
-      int lowestKey = getLowestKey(rdrs, kvs, done);
+      int lowestKey = heap.peek();
       KeyValue kv = kvs[lowestKey];
       // If its same row and column as last key, increment times seen.
       if (this.comparator.matchingRowColumn(lastSeen, kv)) {
@@ -969,15 +1216,23 @@ public class Store implements HConstants {
       // Update last-seen items
       lastSeen = kv;
 
+      if (throttle != null) {
+        unthrottled += kv.getLength();
+        if (unthrottled >= THROTTLE_CHUNK) {
+          throttle.control(unthrottled, this.storefiles.size());
+          unthrottled = 0;
+        }
+      }
+
       // Advance the smallest key. If that reader's all finished, then
-      // mark it as done.
+      // drop it from the heap.
       if (!rdrs[lowestKey].next()) {
-        done[lowestKey] = true;
+        kvs[lowestKey] = null;
         rdrs[lowestKey] = null;
-        numDone++;
       } else {
         kvs[lowestKey] = rdrs[lowestKey].getKeyValue();
       }
+      heap.topChanged();
     }
   }
 
@@ -1200,15 +1455,25 @@ public class Store implements HConstants {
     sget.setTTL(ttl);
     sget.setNow();
     int retCode = 0;
-    
-    // get from the memcache first.
-    boolean multiFamily = family.getMultiFamily();
-    retCode = this.memcache.getRow(sget, result, multiFamily);
-    
-    if(retCode == 1){
-      return;
-    }
     try {
+      // Point get of explicit columns; try answering out of the memcache
+      // with direct seeks before falling back to the general path.
+      if (sget instanceof ServerGetColumns) {
+        Set<byte []> qualifiers = sget.get.getFamilyMap().get(family.getName());
+        if (qualifiers != null && !qualifiers.isEmpty() &&
+            this.memcache.getColumns(sget.getRow(), family.getName(),
+              qualifiers, sget.getMaxVersions(), sget.getTimeRange(),
+              sget.getNow(), result)) {
+          return;
+        }
+      }
+
+      // get from the memcache first.
+      boolean multiFamily = family.getMultiFamily();
+      retCode = this.memcache.getRow(sget, result, multiFamily);
+      if(retCode == 1){
+        return;
+      }
       for(Map.Entry<Long, StoreFile> entry :
         this.storefiles.descendingMap().entrySet()){
         sget.mergeGets();
@@ -29,6 +29,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
@@ -76,6 +77,10 @@ public class StoreFile implements HConstants {
   // whenever you get a Reader.
   private AtomicBoolean majorCompaction = null;
 
+  private static final byte [] FLUSH_TIME_KEY = Bytes.toBytes("FLUSH_TIME_KEY");
+  // When the newest edit in this file was flushed; -1 if not recorded.
+  private long flushTime = -1;
+
   /*
    * Regex that will work for straight filenames and for reference names.
    * If reference, then the regex has more than just one group.  Group 1 is
@@ -186,6 +191,14 @@ public class StoreFile implements HConstants {
     return this.majorCompaction.get();
   }
 
+  /**
+   * @return When the newest edit in this file was flushed from the memcache,
+   * or -1 if the file does not say.
+   */
+  long getFlushTime() {
+    return this.flushTime;
+  }
+
   /**
    * @return This files maximum edit sequence id.
    */
@@ -196,6 +209,34 @@ public class StoreFile implements HConstants {
     return this.sequenceid;
   }
 
+  /**
+   * @param fs
+   * @param dir Store/family directory.
+   * @return Highest edit sequence id in the store files under
+   * <code>dir</code>; -1 if none or <code>dir</code> does not exist.
+   * @throws IOException
+   */
+  static long getMaxSequenceId(final FileSystem fs, final Path dir)
+  throws IOException {
+    long result = -1;
+    if (!fs.exists(dir)) {
+      return result;
+    }
+    FileStatus [] files = fs.listStatus(dir);
+    for (int i = 0; files != null && i < files.length; i++) {
+      if (files[i].isDir() || files[i].getLen() <= 0) {
+        continue;
+      }
+      StoreFile sf = new StoreFile(fs, files[i].getPath());
+      try {
+        result = Math.max(result, sf.sequenceid);
+      } finally {
+        sf.close();
+      }
+    }
+    return result;
+  }
+
   /**
    * Opens reader on this store file.  Called by Constructor.
    * @return Reader for the store file.
@@ -240,6 +281,10 @@ public class StoreFile implements HConstants {
         this.majorCompaction.set(mc);
       }
     }
+    b = map.get(FLUSH_TIME_KEY);
+    if (b != null) {
+      this.flushTime = Bytes.toLong(b);
+    }
     return this.reader;
   }
   
@@ -444,7 +489,7 @@ public class StoreFile implements HConstants {
    */
   static void appendMetadata(final HFile.Writer w, final long maxSequenceId)
   throws IOException {
-    appendMetadata(w, maxSequenceId, false);
+    appendMetadata(w, maxSequenceId, false, System.currentTimeMillis());
   }
 
   /**
@@ -457,9 +502,28 @@ public class StoreFile implements HConstants {
    */
   static void appendMetadata(final HFile.Writer w, final long maxSequenceId,
     final boolean mc)
+  throws IOException {
+    appendMetadata(w, maxSequenceId, mc, -1);
+  }
+
+  /**
+   * Writes metadata.
+   * Call before you call close on the passed <code>w</code> since its written
+   * as metadata to that file.
+   * @param maxSequenceId Maximum sequence id.
+   * @param mc True if this file is product of a major compaction
+   * @param flushTime When the newest edit in the file was flushed; not
+   * written if less than zero.
+   * @throws IOException
+   */
+  static void appendMetadata(final HFile.Writer w, final long maxSequenceId,
+    final boolean mc, final long flushTime)
   throws IOException {
     w.appendFileInfo(MAX_SEQ_ID_KEY, Bytes.toBytes(maxSequenceId));
     w.appendFileInfo(MAJOR_COMPACTION_KEY, Bytes.toBytes(mc));
+    if (flushTime >= 0) {
+      w.appendFileInfo(FLUSH_TIME_KEY, Bytes.toBytes(flushTime));
+    }
   }
 
   /*
@@ -42,6 +42,9 @@ implements ChangedReadersObserver {
   
   // Readers we go against.
   private volatile HFileScanner [] scanners;
+
+  // Readers with a key left, lowest row first.
+  private volatile KeyValueHeap heap;
   
   // Store this scanner came out of.
   private final Store store;
@@ -107,6 +110,12 @@ implements ChangedReadersObserver {
         }
       }
     }
+    KeyValueHeap h = new KeyValueHeap(this.keys,
+      new KeyValueHeap.RowTimestampComparator(this.store.comparator));
+    for (int i = 0; i < this.scanners.length; i++) {
+      h.add(i);
+    }
+    this.heap = h;
   }
 
   /**
@@ -147,9 +156,15 @@ implements ChangedReadersObserver {
         return false;
       }
 
-      // Grab all the values that match this row/timestamp
+      // Grab all the values that match this row/timestamp.  Only the readers
+      // on the viable row have any; the heap has them on top.
       boolean addedItem = false;
-      for (int i = 0; i < keys.length; i++) {
+      while (!this.heap.isEmpty()) {
+        int i = this.heap.peek();
+        if (this.store.comparator.compareRows(this.keys[i], viable) != 0) {
+          break;
+        }
+        this.heap.poll();
         // Fetch the data
         while ((keys[i] != null) &&
             (this.store.comparator.compareRows(this.keys[i], viable) == 0)) {
@@ -184,6 +199,7 @@ implements ChangedReadersObserver {
                 !columnMatch(i))) {
           getNext(i);
         }
+        this.heap.add(i);
       }
       return addedItem;
     } finally {
@@ -196,40 +212,21 @@ implements ChangedReadersObserver {
    * @throws IOException
    */
   private KeyValue getNextViableRow() throws IOException {
-    // Find the next viable row label (and timestamp).
-    KeyValue viable = null;
-    long viableTimestamp = -1;
-    long ttl = store.ttl;
-    for (int i = 0; i < keys.length; i++) {
-      // The first key that we find that matches may have a timestamp greater
-      // than the one we're looking for. We have to advance to see if there
-      // is an older version present, since timestamps are sorted descending
-      while (keys[i] != null &&
-          keys[i].getTimestamp() > this.timestamp &&
-          columnMatch(i) &&
-          getNext(i)) {
-        if (columnMatch(i)) {
-          break;
-        }
-      }
-      if((keys[i] != null)
-          // If we get here and keys[i] is not null, we already know that the
-          // column matches and the timestamp of the row is less than or equal
-          // to this.timestamp, so we do not need to test that here
-          && ((viable == null) ||
-            (this.store.comparator.compareRows(this.keys[i], viable) < 0) ||
-            ((this.store.comparator.compareRows(this.keys[i], viable) == 0) &&
-              (keys[i].getTimestamp() > viableTimestamp)))) {
-        if (ttl == HConstants.FOREVER || now < keys[i].getTimestamp() + ttl) {
-          viable = keys[i];
-        } else {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("getNextViableRow :" + keys[i] + ": expired, skipped");
-          }
-        }
+    // The lowest row, newest first, is on top of the heap.
+    while (!this.heap.isEmpty()) {
+      int i = this.heap.peek();
+      // The key on top may have a timestamp greater than the one we're
+      // looking for or be of a column we don't want. We have to advance to
+      // see if there is an older version present, since timestamps are
+      // sorted descending.  Expired keys were skipped by getNext.
+      if (keys[i].getTimestamp() > this.timestamp || !columnMatch(i)) {
+        getNext(i);
+        this.heap.topChanged();
+        continue;
       }
+      return keys[i];
     }
-    return viable;
+    return null;
   }
 
   /*
@@ -301,6 +298,9 @@ implements ChangedReadersObserver {
     if (!this.scannerClosed) {
       this.store.deleteChangedReaderObserver(this);
       try {
+        if (this.heap != null) {
+          this.heap.clear();
+        }
         for(int i = 0; i < this.scanners.length; i++) {
           closeSubScanner(i);
         }
@@ -44,6 +44,9 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
 
   private InternalScanner [] scanners;
   private List<KeyValue> [] resultSets;
+  // First key of each result set and the sub-scanners ordered by it.
+  private final KeyValue [] keys;
+  private final KeyValueHeap heap;
   private boolean wildcardMatch = false;
   private boolean multipleMatchers = false;
   private RowFilterInterface dataFilter;
@@ -76,6 +79,9 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
     }
     this.scanners = new InternalScanner[2];
     this.resultSets = new List[scanners.length];
+    this.keys = new KeyValue[scanners.length];
+    this.heap = new KeyValueHeap(this.keys,
+      new KeyValueHeap.RowTimestampComparator(store.comparator));
     // Save these args in case we need them later handling change in readers
     // See updateReaders below.
     this.timestamp = Bytes.toLong(scan.getTimeRange().getMax());
@@ -125,6 +131,18 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
     if (this.scanners[i] != null && !this.scanners[i].next(this.resultSets[i])) {
       closeScanner(i);
     }
+    setCurrent(i);
+    this.heap.add(i);
+  }
+
+  /*
+   * Note the first key of the result set of a sub-scanner.  The sub-scanner
+   * must not be in the heap.
+   * @param i
+   */
+  private void setCurrent(final int i) {
+    this.keys[i] = this.resultSets[i] == null || this.resultSets[i].isEmpty()?
+      null: this.resultSets[i].get(0);
   }
 
   /** @return true if the scanner is a wild card scanner */
@@ -147,23 +165,9 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
     boolean moreToFollow = true;
     while (filtered && moreToFollow) {
       // Find the lowest-possible key.
-      KeyValue chosen = null;
-      long chosenTimestamp = -1;
-      for (int i = 0; i < this.scanners.length; i++) {
-        KeyValue kv = this.resultSets[i] == null || this.resultSets[i].isEmpty()?
-          null: this.resultSets[i].get(0);
-        if (kv == null) {
-          continue;
-        }
-        if (scanners[i] != null &&
-            (chosen == null ||
-              (this.store.comparator.compareRows(kv, chosen) < 0) ||
-              ((this.store.comparator.compareRows(kv, chosen) == 0) &&
-              (kv.getTimestamp() > chosenTimestamp)))) {
-          chosen = kv;
-          chosenTimestamp = chosen.getTimestamp();
-        }
-      }
+      int top = this.heap.peek();
+      KeyValue chosen = top < 0? null: this.keys[top];
+      long chosenTimestamp = chosen == null? -1: chosen.getTimestamp();
 
       // Filter whole row by row key?
       filtered = dataFilter == null || chosen == null? false:
@@ -172,14 +176,20 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
 
       // Store results for each sub-scanner.
       if (chosenTimestamp >= 0 && !filtered) {
+        // Take the sub-scanners on the 'chosen' row out of the heap; their
+        // result sets move on below.
+        boolean [] onRow = new boolean[scanners.length];
+        while (!this.heap.isEmpty() && this.store.comparator.matchingRows(
+            this.keys[this.heap.peek()], chosen)) {
+          onRow[this.heap.poll()] = true;
+        }
         NavigableSet<KeyValue> deletes =
           new TreeSet<KeyValue>(this.store.comparatorIgnoringType);
         for (int i = 0; i < scanners.length && !filtered; i++) {
           if ((scanners[i] != null && !filtered && moreToFollow &&
               this.resultSets[i] != null && !this.resultSets[i].isEmpty())) {
             // Test this resultset is for the 'chosen' row.
-            KeyValue firstkv = resultSets[i].get(0);
-            if (!this.store.comparator.matchingRows(firstkv, chosen)) {
+            if (!onRow[i]) {
               continue;
             }
             // Its for the 'chosen' row, work it.
@@ -222,6 +232,12 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
             }
           }
         }
+        for (int i = 0; i < scanners.length; i++) {
+          if (onRow[i]) {
+            setCurrent(i);
+            this.heap.add(i);
+          }
+        }
       }
 
       moreToFollow = chosenTimestamp >= 0;
@@ -245,6 +261,7 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
     
     // Make sure scanners closed if no more results
     if (!moreToFollow) {
+      this.heap.clear();
       for (int i = 0; i < scanners.length; i++) {
         if (null != scanners[i]) {
           closeScanner(i);
@@ -270,6 +287,7 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
     } finally {
       scanners[i] = null;
       resultSets[i] = null;
+      keys[i] = null;
     }
   }
 
@@ -280,6 +298,7 @@ class StoreScanner implements InternalScanner,  ChangedReadersObserver {
   }
   
   private void doClose() {
+    this.heap.clear();
     for (int i = MEMS_INDEX; i < scanners.length; i++) {
       if (scanners[i] != null) {
         closeScanner(i);
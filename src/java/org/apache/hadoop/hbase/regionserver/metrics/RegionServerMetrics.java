@@ -30,6 +30,7 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.jvm.JvmMetrics;
 import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 
 /** 
  * This class is for maintaining the various regionserver statistics
@@ -76,6 +77,30 @@ public class RegionServerMetrics implements Updater {
   public final MetricsIntValue memcacheSizeMB =
     new MetricsIntValue("hbase_memcacheSizeMB");
 
+  /**
+   * Count of compactions waiting on the small compaction pool
+   */
+  public final MetricsIntValue smallCompactionQueueSize =
+    new MetricsIntValue("hbase_smallCompactionQueueSize");
+
+  /**
+   * Count of compactions waiting on the large compaction pool
+   */
+  public final MetricsIntValue largeCompactionQueueSize =
+    new MetricsIntValue("hbase_largeCompactionQueueSize");
+
+  /**
+   * KB a second read by compactions
+   */
+  public final MetricsRate compactionThroughputKB =
+    new MetricsRate("hbase_compactionThroughputKB");
+
+  /**
+   * Waits on row locks held by others and how long they took
+   */
+  public final MetricsTimeVaryingRate rowLockWait =
+    new MetricsTimeVaryingRate("hbase_rowLockWait");
+
   public RegionServerMetrics() {
     MetricsContext context = MetricsUtil.getContext("hbase");
     metricsRecord = MetricsUtil.createRecord(context, "regionserver");
@@ -104,13 +129,17 @@ public class RegionServerMetrics implements Updater {
       this.memcacheSizeMB.pushMetric(this.metricsRecord);
       this.regions.pushMetric(this.metricsRecord);
       this.requests.pushMetric(this.metricsRecord);
+      this.smallCompactionQueueSize.pushMetric(this.metricsRecord);
+      this.largeCompactionQueueSize.pushMetric(this.metricsRecord);
+      this.compactionThroughputKB.pushMetric(this.metricsRecord);
+      this.rowLockWait.pushMetric(this.metricsRecord);
     }
     this.metricsRecord.update();
     this.lastUpdate = System.currentTimeMillis();
   }
   
   public void resetAllMinMax() {
-    // Nothing to do
+    this.rowLockWait.resetMinMax();
   }
 
   /**
@@ -146,6 +175,16 @@ public class RegionServerMetrics implements Updater {
       Integer.valueOf(this.storefileIndexSizeMB.get()));
     sb = Strings.appendKeyValue(sb, "memcacheSize",
       Integer.valueOf(this.memcacheSizeMB.get()));
+    sb = Strings.appendKeyValue(sb, "smallCompactionQueueSize",
+      Integer.valueOf(this.smallCompactionQueueSize.get()));
+    sb = Strings.appendKeyValue(sb, "largeCompactionQueueSize",
+      Integer.valueOf(this.largeCompactionQueueSize.get()));
+    sb = Strings.appendKeyValue(sb, "compactionThroughputKB",
+      Float.valueOf(this.compactionThroughputKB.getPreviousIntervalValue()));
+    sb = Strings.appendKeyValue(sb, "rowLockWaits",
+      Integer.valueOf(this.rowLockWait.getPreviousIntervalNumOps()));
+    sb = Strings.appendKeyValue(sb, "rowLockWaitTime",
+      Long.valueOf(this.rowLockWait.getPreviousIntervalAverageTime()));
     // Duplicate from jvmmetrics because metrics are private there so
     // inaccessible.
     MemoryUsage memory =
@@ -61,8 +61,9 @@ public class IndexedRegionServer extends TransactionalRegionServer implements
   protected HRegion instantiateRegion(final HRegionInfo regionInfo)
       throws IOException {
     HRegion r = new IndexedRegion(HTableDescriptor.getTableDir(super
-        .getRootDir(), regionInfo.getTableDesc().getName()), super.log, super
-        .getFileSystem(), super.conf, regionInfo, super.getFlushRequester());
+        .getRootDir(), regionInfo.getTableDesc().getName()),
+        getLog(regionInfo), super.getFileSystem(), super.conf, regionInfo,
+        super.getFlushRequester());
     r.initialize(null, new Progressable() {
       public void progress() {
         addProcessingMessage(regionInfo);
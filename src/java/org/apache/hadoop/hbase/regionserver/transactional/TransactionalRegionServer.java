@@ -111,8 +111,9 @@ public class TransactionalRegionServer extends HRegionServer implements
   protected HRegion instantiateRegion(final HRegionInfo regionInfo)
       throws IOException {
     HRegion r = new TransactionalRegion(HTableDescriptor.getTableDir(super
-        .getRootDir(), regionInfo.getTableDesc().getName()), super.log, super
-        .getFileSystem(), super.conf, regionInfo, super.getFlushRequester());
+        .getRootDir(), regionInfo.getTableDesc().getName()),
+        getLog(regionInfo), super.getFileSystem(), super.conf, regionInfo,
+        super.getFlushRequester());
     r.initialize(null, new Progressable() {
       public void progress() {
         addProcessingMessage(regionInfo);
@@ -29,12 +29,15 @@ import org.apache.hadoop.hbase.filter.InclusiveStopRowFilter;
 import org.apache.hadoop.hbase.io.Delete;
 import org.apache.hadoop.hbase.io.Get;
 import org.apache.hadoop.hbase.io.HbaseMapWritable;
+import org.apache.hadoop.hbase.io.HbaseObjectWritable;
 import org.apache.hadoop.hbase.io.Put;
 import org.apache.hadoop.hbase.io.Scan;
 import org.apache.hadoop.hbase.io.Result;
 import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Writables;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 
 /**
  * Test HBase Writables serializations
@@ -289,6 +292,77 @@ public class TestSerialization extends HBaseTestCase {
   }
   
 
+  public void testResult() throws Exception {
+    byte [] row = getName().getBytes();
+    byte [] fam = "fam".getBytes();
+    KeyValue [] kvs = new KeyValue [] {
+      new KeyValue(row, fam, "qf1".getBytes(), 1, "val1".getBytes()),
+      new KeyValue(row, fam, "qf2".getBytes(), 2, "val2".getBytes())
+    };
+    Result result = new Result(kvs);
+    byte [] rb = Writables.getBytes(result);
+    Result desResult = (Result)Writables.getWritable(rb, new Result());
+    assertTrue(Bytes.equals(row, desResult.getRow()));
+    assertEquals(kvs.length, desResult.raw().length);
+    for (int i = 0; i < kvs.length; i++) {
+      assertTrue(kvs[i].equals(desResult.raw()[i]));
+    }
+
+    // An empty Result is how a multi-get reports a row that was not found.
+    Result empty = new Result(new KeyValue[0]);
+    rb = Writables.getBytes(empty);
+    Result desEmpty = (Result)Writables.getWritable(rb, new Result());
+    assertTrue(desEmpty.isEmpty());
+    assertNull(desEmpty.getRow());
+  }
+
+  /**
+   * The multi-get RPC passes a Get [] and returns a Result [].  Make sure
+   * HbaseObjectWritable knows the classes.
+   * @throws Exception
+   */
+  public void testMultiGetObjects() throws Exception {
+    byte [] fam = "fam".getBytes();
+    Get [] gets = new Get [] {
+      new Get("row1".getBytes()),
+      new Get("row2".getBytes())
+    };
+    gets[1].addColumn(fam, "qf".getBytes());
+    Object o = writeAndRead(gets, Get [].class);
+    assertTrue(o instanceof Get []);
+    Get [] desGets = (Get [])o;
+    assertEquals(gets.length, desGets.length);
+    for (int i = 0; i < gets.length; i++) {
+      assertTrue(Bytes.equals(gets[i].getRow(), desGets[i].getRow()));
+    }
+    assertTrue(desGets[1].getFamilyMap().containsKey(fam));
+
+    Result [] results = new Result [] {
+      new Result(new KeyValue [] {new KeyValue("row1".getBytes(), fam,
+        "qf".getBytes(), 1, "val".getBytes())}),
+      new Result(new KeyValue[0]),
+      // A get whose region moved
+      null
+    };
+    o = writeAndRead(results, Result [].class);
+    assertTrue(o instanceof Result []);
+    Result [] desResults = (Result [])o;
+    assertEquals(results.length, desResults.length);
+    assertTrue(Bytes.equals(results[0].getRow(), desResults[0].getRow()));
+    assertTrue(results[0].raw()[0].equals(desResults[0].raw()[0]));
+    assertTrue(desResults[1].isEmpty());
+    assertNull(desResults[2]);
+  }
+
+  private Object writeAndRead(final Object instance, final Class<?> declared)
+  throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    HbaseObjectWritable.writeObject(out, instance, declared, this.conf);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    return HbaseObjectWritable.readObject(in, this.conf);
+  }
+
   public void testScan() throws Exception{
     byte[] startRow = "startRow".getBytes();
     byte[] stopRow  = "stopRow".getBytes();
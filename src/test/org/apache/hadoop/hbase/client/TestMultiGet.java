@@ -0,0 +1,125 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HServerAddress;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MultiRegionTable;
+import org.apache.hadoop.hbase.io.Get;
+import org.apache.hadoop.hbase.io.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Tests {@link HTable#get(List)}, the multi-get, against a table of many
+ * regions.
+ */
+public class TestMultiGet extends MultiRegionTable {
+  private static final String TABLE_NAME = "multiget";
+  private static final String COLUMN = "contents:";
+  private static final byte [] FAMILY = Bytes.toBytes("contents");
+
+  // Rows spread over several regions.  Values equal row keys.
+  private static final String [] ROWS = {
+    "aaa", "abc", "bbb", "bcd", "ccc", "mmm", "mzz", "xyz", "zzz"
+  };
+
+  /** constructor */
+  public TestMultiGet() {
+    super(COLUMN);
+    desc = new HTableDescriptor(TABLE_NAME);
+    desc.addFamily(new HColumnDescriptor(COLUMN));
+  }
+
+  /**
+   * Gets for rows in many regions come back in order; missing rows are null.
+   * @throws IOException
+   */
+  public void testMultiGet() throws IOException {
+    HTable table = new HTable(conf, TABLE_NAME);
+    assertTrue(table.getRegionsInfo().size() > 1);
+    List<Get> gets = makeGets();
+    gets.add(1, new Get(Bytes.toBytes("nosuchrow")));
+    Result [] results = table.get(gets);
+    assertEquals(gets.size(), results.length);
+    assertNull(results[1]);
+    List<Result> found = new ArrayList<Result>();
+    for (int i = 0; i < results.length; i++) {
+      if (i != 1) {
+        found.add(results[i]);
+      }
+    }
+    assertRows(found.toArray(new Result[found.size()]));
+  }
+
+  /**
+   * Split a region after its location was cached.  The server refuses gets
+   * for the closed parent and the client relocates and retries them.
+   * @throws Exception
+   */
+  public void testMultiGetAfterSplit() throws Exception {
+    HTable table = new HTable(conf, TABLE_NAME);
+    // Warm the client's region location cache.
+    assertRows(table.get(makeGets()));
+
+    Map<HRegionInfo, HServerAddress> regions = table.getRegionsInfo();
+    int count = regions.size();
+    byte [] regionName = null;
+    for (HRegionInfo info: regions.keySet()) {
+      if (Bytes.equals(info.getStartKey(), Bytes.toBytes("mmm"))) {
+        regionName = info.getRegionName();
+      }
+    }
+    assertNotNull(regionName);
+    new HBaseAdmin(conf).split(regionName);
+    for (int i = 0; i < 60 && table.getRegionsInfo().size() == count; i++) {
+      Thread.sleep(500);
+    }
+    assertTrue(table.getRegionsInfo().size() > count);
+
+    // Same table instance so the stale parent location is still cached.
+    assertRows(table.get(makeGets()));
+  }
+
+  private List<Get> makeGets() {
+    List<Get> gets = new ArrayList<Get>();
+    for (String row: ROWS) {
+      Get get = new Get(Bytes.toBytes(row));
+      get.addFamily(FAMILY);
+      gets.add(get);
+    }
+    return gets;
+  }
+
+  private void assertRows(final Result [] results) {
+    assertEquals(ROWS.length, results.length);
+    for (int i = 0; i < ROWS.length; i++) {
+      assertNotNull(ROWS[i], results[i]);
+      assertEquals(ROWS[i], Bytes.toString(results[i].getRow()));
+      assertEquals(ROWS[i], Bytes.toString(results[i].value()));
+    }
+  }
+}
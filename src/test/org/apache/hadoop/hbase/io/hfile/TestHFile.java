@@ -127,10 +127,15 @@ public class TestHFile extends TestCase {
    * test none codecs
    */
   void basicWithSomeCodec(String codec) throws IOException {
+    basicWithSomeCodec(codec, false);
+  }
+
+  void basicWithSomeCodec(String codec, boolean pipelined) throws IOException {
     Path ncTFile = new Path(ROOT_DIR, "basic.hfile");
     FSDataOutputStream fout = createFSOutput(ncTFile);
     Writer writer = new Writer(fout, minBlockSize,
       Compression.getCompressionAlgorithmByName(codec), null, false);
+    writer.setPipelined(pipelined);
     LOG.info(writer);
     writeRecords(writer);
     fout.close();
@@ -167,6 +172,11 @@ public class TestHFile extends TestCase {
     basicWithSomeCodec("gz");
   }
 
+  public void testPipelinedWriter() throws IOException {
+    basicWithSomeCodec("none", true);
+    basicWithSomeCodec("gz", true);
+  }
+
   private void writeNumMetablocks(Writer writer, int n) {
     for (int i = 0; i < n; i++) {
       writer.appendMetaBlock("HFileMeta" + i, ("something to test" + i).getBytes());
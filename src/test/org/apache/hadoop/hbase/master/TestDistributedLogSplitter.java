@@ -0,0 +1,112 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HMsg;
+import org.apache.hadoop.hbase.HRegionInfo;
+
+/**
+ * Test handing out and taking back of log split tasks.
+ */
+public class TestDistributedLogSplitter extends TestCase {
+  private static final String DEAD = "dead,60020,1";
+  private static final String HUNG = "hung,60020,1";
+  private static final String OTHER = "other,60020,1";
+
+  private DistributedLogSplitter createSplitter(final int retries) {
+    HBaseConfiguration conf = new HBaseConfiguration();
+    conf.setInt("hbase.master.distributed.log.splitting.retries", retries);
+    conf.setLong("hbase.master.distributed.log.splitting.timeout", 1);
+    DistributedLogSplitter splitter = new DistributedLogSplitter(conf);
+    splitter.submit(DEAD, new FileStatus [] {
+      new FileStatus(0, false, 1, 0, 0, new Path("/hbase/log.1"))});
+    return splitter;
+  }
+
+  /**
+   * A task a hung server does not report on goes to another server.
+   * @throws Exception
+   */
+  public void testTimedOutTaskRequeued() throws Exception {
+    DistributedLogSplitter splitter = createSplitter(3);
+    List<HMsg> msgs = new ArrayList<HMsg>();
+    splitter.assignTasks(HUNG, msgs);
+    assertEquals(1, msgs.size());
+    Thread.sleep(10);
+    splitter.checkTimeouts();
+    assertFalse(splitter.isDone(DEAD));
+    // Not handed back to the server it timed out on
+    msgs.clear();
+    splitter.assignTasks(HUNG, msgs);
+    assertEquals(0, msgs.size());
+    splitter.assignTasks(OTHER, msgs);
+    assertEquals(1, msgs.size());
+    // A late report from the hung server is ignored
+    splitter.taskDone(new HMsg(HMsg.Type.MSG_REPORT_SPLIT_LOG,
+      new HRegionInfo(),
+      msgs.get(0).getMessage()), HUNG);
+    assertFalse(splitter.isDone(DEAD));
+    splitter.taskDone(new HMsg(HMsg.Type.MSG_REPORT_SPLIT_LOG,
+      new HRegionInfo(),
+      msgs.get(0).getMessage()), OTHER);
+    assertTrue(splitter.isDone(DEAD));
+    assertTrue(splitter.finish(DEAD).isEmpty());
+  }
+
+  /**
+   * A timed out task no other server takes up is left for the master.
+   * @throws Exception
+   */
+  public void testTimedOutTaskLeftForMaster() throws Exception {
+    DistributedLogSplitter splitter = createSplitter(3);
+    List<HMsg> msgs = new ArrayList<HMsg>();
+    splitter.assignTasks(HUNG, msgs);
+    Thread.sleep(10);
+    splitter.checkTimeouts();
+    assertFalse(splitter.isDone(DEAD));
+    Thread.sleep(10);
+    splitter.checkTimeouts();
+    assertTrue(splitter.isDone(DEAD));
+    assertEquals(1, splitter.finish(DEAD).size());
+  }
+
+  /**
+   * A task that times out more than the allowed retries is left for the
+   * master.
+   * @throws Exception
+   */
+  public void testTimeoutsCountAsFailures() throws Exception {
+    DistributedLogSplitter splitter = createSplitter(0);
+    List<HMsg> msgs = new ArrayList<HMsg>();
+    splitter.assignTasks(HUNG, msgs);
+    Thread.sleep(10);
+    splitter.checkTimeouts();
+    assertTrue(splitter.isDone(DEAD));
+    assertEquals(1, splitter.finish(DEAD).size());
+  }
+}
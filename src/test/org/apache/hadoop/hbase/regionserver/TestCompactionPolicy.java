@@ -0,0 +1,111 @@
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link CompactionPolicy}s and {@link CompactionSimulator}.
+ */
+public class TestCompactionPolicy extends TestCase {
+  private final boolean PRINT = false;
+
+  private Configuration conf;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    this.conf = new Configuration();
+    conf.setInt("hbase.hstore.compactionThreshold", 3);
+    conf.setInt("hbase.hstore.compaction.max", 10);
+  }
+
+  public void testDefault(){
+    CompactionPolicy policy = new DefaultCompactionPolicy(conf);
+    //Files over twice the next are left out
+    assertSelection(2, 4, policy.select(new long [] {100, 40, 10, 10},
+      new long[4]));
+    //No more than max files
+    long [] sizes = new long[12];
+    Arrays.fill(sizes, 10);
+    assertSelection(2, 12, policy.select(sizes, new long[12]));
+    //The newest file is never left out on its own
+    assertSelection(1, 2, policy.select(new long [] {100, 10}, new long[2]));
+  }
+
+  public void testRatio(){
+    conf.set("hbase.hstore.compaction.ratio", "1.2");
+    CompactionPolicy policy = new RatioCompactionPolicy(conf);
+    assertSelection(1, 5, policy.select(new long [] {1000, 100, 50, 50, 50},
+      new long[5]));
+    //Not enough files after the big one
+    assertNull(policy.select(new long [] {1000, 100, 50}, new long[3]));
+    //Takes max files starting at the oldest that qualifies
+    long [] sizes = new long[12];
+    Arrays.fill(sizes, 10);
+    assertSelection(0, 10, policy.select(sizes, new long[12]));
+  }
+
+  public void testDateTiered(){
+    conf.setLong("hbase.hstore.compaction.date.tiered.base.window.millis",
+      1000);
+    conf.setInt("hbase.hstore.compaction.date.tiered.windows.per.tier", 4);
+    DateTieredCompactionPolicy policy = new DateTieredCompactionPolicy(conf);
+    assertEquals(0, policy.getWindow(0));
+    assertEquals(0, policy.getWindow(999));
+    assertEquals(1, policy.getWindow(1000));
+    assertEquals(3, policy.getWindow(3999));
+    assertEquals(4, policy.getWindow(4000));
+    assertEquals(4, policy.getWindow(7999));
+    assertEquals(5, policy.getWindow(8000));
+
+    long [] sizes = new long [] {10, 10, 10, 10, 10};
+    //Too few files in the newest windows; the two in window 4 are merged
+    assertSelection(0, 2, policy.select(sizes,
+      new long [] {5000, 4500, 2500, 500, 100}));
+    //Enough files in the newest window
+    assertSelection(2, 5, policy.select(sizes,
+      new long [] {5000, 2500, 600, 500, 100}));
+    //The newest window is picked from by size ratio
+    assertSelection(3, 6, policy.select(new long [] {10, 10, 1000, 10, 10, 10},
+      new long [] {5000, 2500, 600, 500, 400, 300}));
+
+    conf.setLong("hbase.hstore.compaction.date.tiered.max.age.millis", 4000);
+    policy = new DateTieredCompactionPolicy(conf);
+    assertNull(policy.select(sizes,
+      new long [] {5000, 4500, 2500, 500, 100}));
+  }
+
+  public void testSimulator(){
+    int flushes = 500;
+    long [] times = new long[flushes];
+    long [] sizes = new long[flushes];
+    for(int i=0; i<flushes; i++){
+      times[i] = i * 60 * 1000L;
+      sizes[i] = 64 * 1024 * 1024;
+    }
+    CompactionSimulator simulator = new CompactionSimulator(conf);
+    CompactionPolicy [] policies = new CompactionPolicy [] {
+      new DefaultCompactionPolicy(conf), new RatioCompactionPolicy(conf),
+      new DateTieredCompactionPolicy(conf)};
+    for(CompactionPolicy policy: policies){
+      CompactionSimulator.Result result =
+        simulator.simulate(policy, times, sizes);
+      if(PRINT){
+        System.out.println(result);
+      }
+      assertTrue(result.toString(), result.getCompactions() > 0);
+      assertTrue(result.toString(), result.getWriteAmplification() > 1);
+      assertTrue(result.toString(), result.getFilesPerRead() >= 1);
+      assertTrue(result.toString(), result.getMaxFiles() < flushes / 2);
+    }
+  }
+
+  private void assertSelection(int first, int last, int [] selection){
+    assertNotNull(selection);
+    assertEquals(first, selection[0]);
+    assertEquals(last, selection[1]);
+  }
+}
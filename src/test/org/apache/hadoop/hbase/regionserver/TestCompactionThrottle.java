@@ -0,0 +1,77 @@
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link CompactionThrottle}.
+ */
+public class TestCompactionThrottle extends TestCase {
+  private static final long LIMIT = 1024 * 1024;
+
+  private Configuration conf;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    this.conf = new Configuration();
+    conf.setLong("hbase.regionserver.compaction.throughput.limit", LIMIT);
+    conf.setLong("hbase.regionserver.compaction.throughput.limit.offpeak",
+      4 * LIMIT);
+    conf.setInt("hbase.hstore.blockingStoreFiles", 7);
+  }
+
+  public void testOffPeakHours(){
+    conf.setInt("hbase.regionserver.compaction.offpeak.start.hour", 22);
+    conf.setInt("hbase.regionserver.compaction.offpeak.end.hour", 6);
+    CompactionThrottle throttle = new CompactionThrottle(conf);
+    assertTrue(throttle.isOffPeak(23));
+    assertTrue(throttle.isOffPeak(0));
+    assertTrue(throttle.isOffPeak(5));
+    assertFalse(throttle.isOffPeak(6));
+    assertFalse(throttle.isOffPeak(12));
+    assertEquals(4 * LIMIT, throttle.getLimit(1, 2));
+    assertEquals(LIMIT, throttle.getLimit(1, 12));
+
+    conf.setInt("hbase.regionserver.compaction.offpeak.start.hour", 1);
+    conf.setInt("hbase.regionserver.compaction.offpeak.end.hour", 5);
+    throttle = new CompactionThrottle(conf);
+    assertFalse(throttle.isOffPeak(0));
+    assertTrue(throttle.isOffPeak(1));
+    assertFalse(throttle.isOffPeak(5));
+
+    //No off-peak hours by default
+    throttle = new CompactionThrottle(new Configuration());
+    for(int hour=0; hour<24; hour++){
+      assertFalse(throttle.isOffPeak(hour));
+    }
+  }
+
+  public void testNoLimitWhenTooManyFiles(){
+    CompactionThrottle throttle = new CompactionThrottle(conf);
+    assertEquals(LIMIT, throttle.getLimit(6, 12));
+    assertEquals(0, throttle.getLimit(7, 12));
+  }
+
+  public void testControl(){
+    conf.setInt("hbase.regionserver.compaction.offpeak.start.hour", -1);
+    CompactionThrottle throttle = new CompactionThrottle(conf);
+    long start = System.currentTimeMillis();
+    for(int i=0; i<8; i++){
+      throttle.control(LIMIT / 16, 1);
+    }
+    //Half the limit was read; the first chunk goes through free
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue("elapsed " + elapsed, elapsed >= 400);
+    assertEquals(LIMIT / 2, throttle.getAndResetBytes());
+    assertEquals(0, throttle.getAndResetBytes());
+
+    //Not held back when the store has too many files
+    start = System.currentTimeMillis();
+    for(int i=0; i<8; i++){
+      throttle.control(LIMIT, 7);
+    }
+    assertTrue(System.currentTimeMillis() - start < 400);
+  }
+}
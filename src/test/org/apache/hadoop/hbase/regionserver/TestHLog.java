@@ -23,12 +23,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseTestCase;
+import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.Reader;
 
@@ -91,6 +98,458 @@ public class TestHLog extends HBaseTestCase implements HConstants {
     }
   }
 
+  /**
+   * Edits already in a store file of their family are not split out.
+   * @throws IOException
+   */
+  public void testSplitSkipsFlushedEdits() throws IOException {
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] regionName = Bytes.toBytes("region");
+    final byte [] column = Bytes.toBytes("column:a");
+    final int EDITS = 10;
+    final long FLUSHED = 4;
+    HLog log = new HLog(this.fs, this.dir, this.conf, null);
+    try {
+      for (int i = 0; i < EDITS; i++) {
+        List<KeyValue> edit = new ArrayList<KeyValue>();
+        edit.add(new KeyValue(Bytes.toBytes(i), column,
+          System.currentTimeMillis(), column));
+        log.append(regionName, tableName, edit, false);
+      }
+      log.close();
+      Path regiondir = HRegion.getRegionDir(
+        HTableDescriptor.getTableDir(this.testDir, tableName),
+        HRegionInfo.encodeRegionName(regionName));
+      // Make a store file as though edits up to FLUSHED had been flushed.
+      Path familydir = new Path(regiondir, "column");
+      HFile.Writer w = StoreFile.getWriter(this.fs, familydir);
+      w.append(new KeyValue(Bytes.toBytes(0), column,
+        System.currentTimeMillis(), column));
+      StoreFile.appendMetadata(w, FLUSHED);
+      w.close();
+      HLog.splitLog(this.testDir, this.dir, this.fs, this.conf);
+      log = null;
+      assertEquals(EDITS - FLUSHED - 1,
+        countEdits(new Path(regiondir, HREGION_OLDLOGFILE_NAME)));
+    } finally {
+      if (log != null) {
+        log.closeAndDelete();
+      }
+    }
+  }
+
+  /**
+   * Times splitting the logs of a server with one split thread and with
+   * several.
+   * @throws IOException
+   */
+  public void testSplitPerformance() throws IOException {
+    final int LOGS = 8;
+    final int REGIONS = 20;
+    final int EDITS = 50;
+    for (int threads: new int [] {1, 3}) {
+      this.conf.setInt("hbase.regionserver.hlog.splitlog.reader.threads",
+        threads);
+      this.conf.setInt("hbase.regionserver.hlog.splitlog.writer.threads",
+        threads);
+      final byte [] tableName = Bytes.toBytes(getName() + threads);
+      HLog log = new HLog(this.fs, this.dir, this.conf, null);
+      try {
+        for (int l = 0; l < LOGS; l++) {
+          for (int r = 0; r < REGIONS; r++) {
+            for (int e = 0; e < EDITS; e++) {
+              List<KeyValue> edit = new ArrayList<KeyValue>();
+              byte [] column = Bytes.toBytes("column:" + e);
+              edit.add(new KeyValue(Bytes.toBytes(r), column,
+                System.currentTimeMillis(), column));
+              log.append(Bytes.toBytes(Integer.toString(r)), tableName, edit,
+                false);
+            }
+          }
+          log.rollWriter();
+        }
+        log.close();
+        long start = System.currentTimeMillis();
+        HLog.splitLog(this.testDir, this.dir, this.fs, this.conf);
+        System.out.println("Split " + LOGS + " logs of " + REGIONS +
+          " regions with " + threads + " thread(s) in " +
+          (System.currentTimeMillis() - start) + "ms");
+        log = null;
+        for (int r = 0; r < REGIONS; r++) {
+          Path regiondir = HRegion.getRegionDir(
+            HTableDescriptor.getTableDir(this.testDir, tableName),
+            HRegionInfo.encodeRegionName(Bytes.toBytes(Integer.toString(r))));
+          assertEquals(LOGS * EDITS,
+            countEdits(new Path(regiondir, HREGION_OLDLOGFILE_NAME)));
+        }
+      } finally {
+        if (log != null) {
+          log.closeAndDelete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Logs split one at a time leave a piece per log in the region directory
+   * that are gathered up, in log order, into the reconstruction log.
+   * @throws IOException
+   */
+  public void testSplitLogFileAndMerge() throws IOException {
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] regionName = Bytes.toBytes("region");
+    final byte [] column = Bytes.toBytes("column:a");
+    final int LOGS = 3;
+    final int EDITS = 5;
+    HLog log = new HLog(this.fs, this.dir, this.conf, null);
+    try {
+      for (int l = 0; l < LOGS; l++) {
+        for (int i = 0; i < EDITS; i++) {
+          List<KeyValue> edit = new ArrayList<KeyValue>();
+          edit.add(new KeyValue(Bytes.toBytes(i), column,
+            System.currentTimeMillis(), column));
+          log.append(regionName, tableName, edit, false);
+        }
+        log.rollWriter();
+      }
+      log.close();
+      log = null;
+      Path regiondir = HRegion.getRegionDir(
+        HTableDescriptor.getTableDir(this.testDir, tableName),
+        HRegionInfo.encodeRegionName(regionName));
+      FileStatus [] logfiles = this.fs.listStatus(this.dir);
+      // Split out of order; merge must still replay in log order.
+      for (int i = logfiles.length - 1; i >= 0; i--) {
+        HLog.splitLogFile(this.testDir, logfiles[i].getPath(), this.fs,
+          this.conf);
+        assertFalse(this.fs.exists(logfiles[i].getPath()));
+      }
+      assertFalse(this.fs.exists(new Path(regiondir, HREGION_OLDLOGFILE_NAME)));
+      HLog.mergeSplitLogPieces(this.fs, regiondir, this.conf);
+      Path logfile = new Path(regiondir, HREGION_OLDLOGFILE_NAME);
+      assertEquals(LOGS * EDITS, countEdits(logfile));
+      assertEquals(1, this.fs.listStatus(regiondir).length);
+      Reader reader = new SequenceFile.Reader(this.fs, logfile, this.conf);
+      try {
+        HLogKey key = new HLogKey();
+        HLogEdit val = new HLogEdit();
+        long seqnum = -1;
+        while (reader.next(key, val)) {
+          assertTrue(key.getLogSeqNum() > seqnum);
+          seqnum = key.getLogSeqNum();
+        }
+      } finally {
+        reader.close();
+      }
+    } finally {
+      if (log != null) {
+        log.closeAndDelete();
+      }
+    }
+  }
+
+  /**
+   * Several logs can share a server's log directory and are split together.
+   * @throws IOException
+   */
+  public void testMultipleLogs() throws IOException {
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] column = Bytes.toBytes("column:a");
+    final int LOGS = 3;
+    final int EDITS = 5;
+    HLog [] logs = new HLog[LOGS];
+    for (int l = 0; l < LOGS; l++) {
+      logs[l] = new HLog(this.fs, this.dir, this.conf, null, l);
+    }
+    for (int l = 0; l < LOGS; l++) {
+      for (int i = 0; i < EDITS; i++) {
+        List<KeyValue> edit = new ArrayList<KeyValue>();
+        edit.add(new KeyValue(Bytes.toBytes(i), column,
+          System.currentTimeMillis(), column));
+        logs[l].append(Bytes.toBytes(Integer.toString(l)), tableName, edit,
+          false);
+      }
+      logs[l].rollWriter();
+    }
+    for (int l = LOGS - 1; l >= 0; l--) {
+      logs[l].close();
+    }
+    // Each log has its own files.
+    assertTrue(this.fs.listStatus(this.dir).length >= LOGS);
+    HLog.splitLog(this.testDir, this.dir, this.fs, this.conf);
+    for (int l = 0; l < LOGS; l++) {
+      Path regiondir = HRegion.getRegionDir(
+        HTableDescriptor.getTableDir(this.testDir, tableName),
+        HRegionInfo.encodeRegionName(Bytes.toBytes(Integer.toString(l))));
+      assertEquals(EDITS,
+        countEdits(new Path(regiondir, HREGION_OLDLOGFILE_NAME)));
+    }
+  }
+
+  /**
+   * A roll is asked for once the log passes hbase.regionserver.hlog.rollsize
+   * bytes, and the log opened ahead of a roll is removed on close.
+   * @throws IOException
+   */
+  public void testRollBySize() throws IOException {
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] column = Bytes.toBytes("column:a");
+    this.conf.setLong("hbase.regionserver.hlog.rollsize", 1024);
+    final int [] requests = new int [] {0};
+    HLog log = new HLog(this.fs, this.dir, this.conf, new LogRollListener() {
+      public void logRollRequested() {
+        requests[0]++;
+      }
+    });
+    final int ROLLS = 3;
+    try {
+      for (int r = 0; r < ROLLS; r++) {
+        for (int i = 0; requests[0] <= r; i++) {
+          assertTrue("No roll requested after " + i + " edits", i < 1000);
+          List<KeyValue> edit = new ArrayList<KeyValue>();
+          edit.add(new KeyValue(Bytes.toBytes(i), column,
+            System.currentTimeMillis(), new byte [64]));
+          log.append(Bytes.toBytes("region"), tableName, edit, false);
+        }
+        log.rollWriter();
+      }
+    } finally {
+      log.close();
+    }
+    // One file per roll plus the one written last; the next log opened
+    // ahead of time is gone.
+    assertTrue(this.fs.listStatus(this.dir).length <= ROLLS + 1);
+  }
+
+  /**
+   * Edits of a table with deferred log flush are not synced as they are
+   * appended but when the LogFlusher gets to them.
+   * @throws Exception
+   */
+  public void testDeferredLogFlush() throws Exception {
+    final byte [] regionName = Bytes.toBytes("regionname");
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] column = Bytes.toBytes("column:a");
+    this.conf.setInt("hbase.regionserver.flushlogentries", 1);
+    this.conf.setLong("hbase.regionserver.optionallogflushinterval", 0);
+    HLog log = new HLog(this.fs, this.dir, this.conf, null);
+    try {
+      long synced = log.getSyncedTillTxid();
+      for (int i = 0; i < 10; i++) {
+        List<KeyValue> edit = new ArrayList<KeyValue>();
+        edit.add(new KeyValue(Bytes.toBytes(i), column,
+          System.currentTimeMillis(), column));
+        log.append(regionName, tableName, edit, false, true);
+      }
+      Thread.sleep(1000);
+      assertEquals(synced, log.getSyncedTillTxid());
+      // What the LogFlusher does
+      log.optionalSync();
+      for (int i = 0; i < 100 && log.getSyncedTillTxid() == synced; i++) {
+        Thread.sleep(100);
+      }
+      assertTrue(log.getSyncedTillTxid() > synced);
+    } finally {
+      log.closeAndDelete();
+    }
+  }
+
+  /**
+   * A region's reconstruction log is replayed into all of its stores in one
+   * pass, each store getting a new file of just its own family's edits.
+   * @throws IOException
+   */
+  public void testReplayReconstructionLog() throws IOException {
+    final String [] families = new String [] {"a", "b", "c"};
+    final int EDITS = 10;
+    HTableDescriptor htd = new HTableDescriptor(getName());
+    List<HColumnDescriptor> hcds = new ArrayList<HColumnDescriptor>();
+    for (String family: families) {
+      HColumnDescriptor hcd = new HColumnDescriptor(family + ":");
+      htd.addFamily(hcd);
+      hcds.add(hcd);
+    }
+    HRegionInfo info = new HRegionInfo(htd, null, null);
+    HLog log = new HLog(this.fs, this.dir, this.conf, null);
+    for (int i = 0; i < EDITS; i++) {
+      List<KeyValue> edit = new ArrayList<KeyValue>();
+      for (String family: families) {
+        byte [] column = Bytes.toBytes(family + ":q");
+        edit.add(new KeyValue(Bytes.toBytes(i), column,
+          System.currentTimeMillis(), column));
+      }
+      log.append(info.getRegionName(), htd.getName(), edit, false);
+    }
+    log.close();
+    HLog.splitLog(this.testDir, this.dir, this.fs, this.conf);
+    Path tabledir = HTableDescriptor.getTableDir(this.testDir, htd.getName());
+    Path logfile = new Path(HRegion.getRegionDir(tabledir,
+      info.getEncodedName()), HREGION_OLDLOGFILE_NAME);
+    assertTrue(this.fs.exists(logfile));
+
+    this.conf.setInt("hbase.hregion.replay.threads", 2);
+    List<Store> stores = new ArrayList<Store>();
+    for (HColumnDescriptor hcd: hcds) {
+      stores.add(new Store(tabledir, info, hcd, this.fs, null, this.conf,
+        null));
+    }
+    Store.runReconstructionLog(logfile, info, stores, this.fs, this.conf,
+      null);
+    for (Store store: stores) {
+      assertEquals(1, store.getStorefilesCount());
+      assertEquals(EDITS, store.getStorefiles().firstEntry().getValue().
+        getReader().getEntries());
+      assertTrue(store.getMaxSequenceId() > 0);
+      store.close();
+    }
+  }
+
+  /**
+   * A tailer reads edits in order across rolled logs, logs it has not
+   * committed are kept, and a new tailer resumes from a saved position.
+   * @throws IOException
+   */
+  public void testTail() throws IOException {
+    final byte [] regionName = Bytes.toBytes("regionname");
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] column = Bytes.toBytes("column:a");
+    final int EDITS = 5;
+    HLog log = new HLog(this.fs, this.dir, this.conf, null);
+    try {
+      HLogTailer tailer = log.tail(getName(), -1);
+      appendEdits(log, regionName, tableName, column, EDITS);
+      log.rollWriter();
+      // The rolled log and the one being written.
+      assertEquals(2, log.getLogFiles().size());
+      Path first = log.getLogFiles().values().iterator().next();
+      // All edits of the first log are flushed so it could go ...
+      log.completeCacheFlush(regionName, tableName, log.startCacheFlush());
+      appendEdits(log, regionName, tableName, column, EDITS);
+      log.rollWriter();
+      // ... but for the tailer.
+      assertTrue(this.fs.exists(first));
+
+      List<HLog.Entry> entries = tailer.next(1000);
+      assertEquals(2 * EDITS, entries.size());
+      long seqnum = -1;
+      for (HLog.Entry e: entries) {
+        assertTrue(e.getKey().getLogSeqNum() > seqnum);
+        seqnum = e.getKey().getLogSeqNum();
+        assertTrue(Bytes.equals(regionName, e.getKey().getRegionName()));
+      }
+      assertEquals(seqnum, tailer.getPosition());
+      assertEquals(0, tailer.next(1000).size());
+      tailer.commit();
+      log.rollWriter();
+      assertFalse(this.fs.exists(first));
+
+      // Resume from the end of the first batch.
+      HLogTailer resumed = log.tail(getName(),
+        entries.get(EDITS - 1).getKey().getLogSeqNum());
+      List<HLog.Entry> rest = resumed.next(1000);
+      assertEquals(EDITS, rest.size());
+      assertEquals(entries.get(EDITS).getKey().getLogSeqNum(),
+        rest.get(0).getKey().getLogSeqNum());
+      resumed.close();
+    } finally {
+      log.closeAndDelete();
+    }
+  }
+
+  private void appendEdits(final HLog log, final byte [] regionName,
+      final byte [] tableName, final byte [] column, final int count)
+  throws IOException {
+    for (int i = 0; i < count; i++) {
+      List<KeyValue> edit = new ArrayList<KeyValue>();
+      edit.add(new KeyValue(Bytes.toBytes(i), column,
+        System.currentTimeMillis(), column));
+      log.append(regionName, tableName, edit, false);
+    }
+  }
+
+  /**
+   * A dictionary compressed log is smaller and splits to the same edits.
+   * @throws IOException
+   */
+  public void testDictionaryCompression() throws IOException {
+    final byte [] tableName = Bytes.toBytes(getName());
+    final byte [] column = Bytes.toBytes("column:a");
+    final int REGIONS = 3;
+    final int ROWS = 50;
+    long [] sizes = new long[2];
+    for (int pass = 0; pass < 2; pass++) {
+      boolean compressed = pass == 1;
+      this.conf.setBoolean("hbase.regionserver.hlog.compression.dictionary",
+        compressed);
+      Path logdir = new Path(this.dir, "pass" + pass);
+      HLog log = new HLog(this.fs, logdir, this.conf, null);
+      try {
+        for (int r = 0; r < REGIONS; r++) {
+          for (int i = 0; i < ROWS; i++) {
+            // Two cells per row so rows repeat within the file.
+            List<KeyValue> edit = new ArrayList<KeyValue>();
+            edit.add(new KeyValue(Bytes.toBytes("row" + i), column,
+              System.currentTimeMillis(), column));
+            edit.add(new KeyValue(Bytes.toBytes("row" + i),
+              Bytes.toBytes("column:b"), System.currentTimeMillis(), column));
+            log.append(Bytes.toBytes("region" + r), tableName, edit, false);
+          }
+        }
+        log.close();
+        log = null;
+        for (FileStatus f: this.fs.listStatus(logdir)) {
+          sizes[pass] += f.getLen();
+        }
+        Path rootdir = new Path(this.testDir, "pass" + pass);
+        HLog.splitLog(rootdir, logdir, this.fs, this.conf);
+        for (int r = 0; r < REGIONS; r++) {
+          Path regiondir = HRegion.getRegionDir(
+            HTableDescriptor.getTableDir(rootdir, tableName),
+            HRegionInfo.encodeRegionName(Bytes.toBytes("region" + r)));
+          Path logfile = new Path(regiondir, HREGION_OLDLOGFILE_NAME);
+          assertEquals(ROWS, countEdits(logfile));
+          Reader reader = new SequenceFile.Reader(this.fs, logfile, this.conf);
+          try {
+            HLogKey key = new HLogKey();
+            HLogEdit val = new HLogEdit();
+            for (int i = 0; reader.next(key, val); i++) {
+              assertTrue(Bytes.equals(tableName, key.getTablename()));
+              assertEquals(2, val.getKeyValues().size());
+              KeyValue kv = val.getKeyValues().get(1);
+              assertTrue(Bytes.equals(Bytes.toBytes("row" + i), kv.getRow()));
+              assertTrue(Bytes.equals(Bytes.toBytes("column:b"),
+                kv.getColumn()));
+              assertTrue(Bytes.equals(column, kv.getValue()));
+            }
+          } finally {
+            reader.close();
+          }
+        }
+      } finally {
+        if (log != null) {
+          log.closeAndDelete();
+        }
+      }
+    }
+    assertTrue("compressed " + sizes[1] + " >= plain " + sizes[0],
+      sizes[1] < sizes[0]);
+  }
+
+  private int countEdits(final Path p) throws IOException {
+    Reader reader = new SequenceFile.Reader(this.fs, p, this.conf);
+    try {
+      HLogKey key = new HLogKey();
+      HLogEdit val = new HLogEdit();
+      int count = 0;
+      while (reader.next(key, val)) {
+        count++;
+      }
+      return count;
+    } finally {
+      reader.close();
+    }
+  }
+
   /**
    * @throws IOException
    */
@@ -120,14 +579,17 @@ public class TestHLog extends HBaseTestCase implements HConstants {
       reader = new SequenceFile.Reader(fs, filename, conf);
       HLogKey key = new HLogKey();
       HLogEdit val = new HLogEdit();
+      // All columns of the row come back in the one row edit.
+      assertTrue(reader.next(key, val));
+      assertTrue(Bytes.equals(regionName, key.getRegionName()));
+      assertTrue(Bytes.equals(tableName, key.getTablename()));
+      assertEquals(COL_COUNT, val.getKeyValues().size());
       for (int i = 0; i < COL_COUNT; i++) {
-        reader.next(key, val);
-        assertTrue(Bytes.equals(regionName, key.getRegionName()));
-        assertTrue(Bytes.equals(tableName, key.getTablename()));
-        assertTrue(Bytes.equals(row, val.getKeyValue().getRow()));
-        assertEquals((byte)(i + '0'), val.getKeyValue().getValue()[0]);
-        System.out.println(key + " " + val);
+        KeyValue kv = val.getKeyValues().get(i);
+        assertTrue(Bytes.equals(row, kv.getRow()));
+        assertEquals((byte)(i + '0'), kv.getValue()[0]);
       }
+      System.out.println(key + " " + val);
       while (reader.next(key, val)) {
         // Assert only one more row... the meta flushed row.
         assertTrue(Bytes.equals(regionName, key.getRegionName()));
@@ -148,4 +610,89 @@ public class TestHLog extends HBaseTestCase implements HConstants {
     }
   }
 
+  /**
+   * Row edits and single KeyValue edits, as written by older logs, both
+   * read back.
+   * @throws IOException
+   */
+  public void testRowEditSerialization() throws IOException {
+    final byte [] row = Bytes.toBytes("row");
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (int i = 0; i < 3; i++) {
+      kvs.add(new KeyValue(row, Bytes.toBytes("column:" + i),
+        System.currentTimeMillis(), Bytes.toBytes(i)));
+    }
+    DataOutputBuffer out = new DataOutputBuffer();
+    new HLogEdit(kvs.get(0)).write(out);
+    new HLogEdit(kvs).write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    HLogEdit val = new HLogEdit();
+    val.readFields(in);
+    assertEquals(1, val.getKeyValues().size());
+    assertTrue(kvs.get(0).equals(val.getKeyValue()));
+    val.readFields(in);
+    assertEquals(kvs.size(), val.getKeyValues().size());
+    for (int i = 0; i < kvs.size(); i++) {
+      assertTrue(kvs.get(i).equals(val.getKeyValues().get(i)));
+    }
+  }
+
+  /**
+   * Have a bunch of threads append with sync at once.  All should come back
+   * and all their edits should be in the log.
+   * @throws Exception
+   */
+  public void testGroupCommit() throws Exception {
+    final int THREADS = 10;
+    final int EDITS = 100;
+    final byte [] regionName = Bytes.toBytes("regionname");
+    final byte [] tableName = Bytes.toBytes("tablename");
+    final HLog log = new HLog(fs, dir, this.conf, null);
+    Reader reader = null;
+    try {
+      final List<Throwable> failures = new ArrayList<Throwable>();
+      Thread [] threads = new Thread[THREADS];
+      for (int t = 0; t < THREADS; t++) {
+        final byte [] row = Bytes.toBytes("row" + t);
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < EDITS; i++) {
+                List<KeyValue> edit = new ArrayList<KeyValue>();
+                edit.add(new KeyValue(row, Bytes.toBytes("column:" + i),
+                  System.currentTimeMillis(), Bytes.toBytes(i)));
+                log.append(regionName, tableName, edit, true);
+              }
+            } catch (Throwable e) {
+              synchronized (failures) {
+                failures.add(e);
+              }
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for (int t = 0; t < THREADS; t++) {
+        threads[t].join();
+      }
+      assertTrue(failures.toString(), failures.isEmpty());
+      log.close();
+      Path filename = log.computeFilename(log.getFilenum());
+      reader = new SequenceFile.Reader(fs, filename, conf);
+      HLogKey key = new HLogKey();
+      HLogEdit val = new HLogEdit();
+      int count = 0;
+      while (reader.next(key, val)) {
+        count++;
+      }
+      assertEquals(THREADS * EDITS, count);
+    } finally {
+      log.closeAndDelete();
+      if (reader != null) {
+        reader.close();
+      }
+    }
+  }
 }
\ No newline at end of file
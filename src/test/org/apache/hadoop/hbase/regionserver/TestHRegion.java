@@ -27,15 +27,23 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HBaseTestCase;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.RegionTooBusyException;
 import org.apache.hadoop.hbase.io.BatchUpdate;
 import org.apache.hadoop.hbase.io.Cell;
+import org.apache.hadoop.hbase.io.Delete;
+import org.apache.hadoop.hbase.io.Get;
+import org.apache.hadoop.hbase.io.Put;
+import org.apache.hadoop.hbase.ipc.HRegionInterface;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.Writable;
 
 /**
  * Basic stand-alone testing of HRegion.
@@ -72,6 +80,8 @@ public class TestHRegion extends HBaseTestCase {
 
     conf.setLong("hbase.hregion.max.filesize", 65536);
 
+    conf.setLong("hbase.rowlock.wait.duration", 5000);
+
     cluster = new MiniDFSCluster(conf, 2, true, (String[])null);
     fs = cluster.getFileSystem();
     
@@ -92,6 +102,11 @@ public class TestHRegion extends HBaseTestCase {
     try {
       init();
       locks();
+      lockTimeout();
+      batchMutate();
+      increments();
+      coalescedIncrements();
+      tooBusy();
       badPuts();
       basic();
       scan();
@@ -248,6 +263,239 @@ public class TestHRegion extends HBaseTestCase {
     LOG.info("locks completed.");
   }
 
+  /**
+   * Test a held row lock does not hold up other rows and that waiting on it
+   * times out.
+   */
+  private void lockTimeout() throws IOException {
+    final byte [] row = Bytes.toBytes("lockTimeout");
+    Integer lockid = r.obtainRowLock(row);
+    try {
+      // Another row can be locked.
+      r.releaseRowLock(r.obtainRowLock(Bytes.toBytes("lockTimeout2")));
+      final List<IOException> failures = new ArrayList<IOException>();
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            r.releaseRowLock(r.obtainRowLock(row));
+          } catch (IOException e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+          }
+        }
+      };
+      t.start();
+      while (t.isAlive()) {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          // Go around again.
+        }
+      }
+      assertEquals(1, failures.size());
+      assertTrue(r.rowLockWaits.get() > 0);
+    } finally {
+      r.releaseRowLock(lockid);
+    }
+    // Free again.
+    r.releaseRowLock(r.obtainRowLock(row));
+    LOG.info("lockTimeout completed.");
+  }
+
+  /*
+   * Test a batch of Puts and Deletes over several rows, one of them already
+   * locked by the caller.
+   */
+  private void batchMutate() throws IOException {
+    byte [] family = r.getTableDesc().getFamilies().iterator().next().getName();
+    byte [] qualifier = Bytes.toBytes("batch");
+    byte [] doomed = Bytes.toBytes("doomed");
+    byte [] row1 = Bytes.toBytes("batchMutate1");
+    byte [] row2 = Bytes.toBytes("batchMutate2");
+    Put put1 = new Put(row1);
+    put1.add(family, qualifier, Bytes.toBytes("value1"));
+    Put put2 = new Put(row2);
+    put2.add(family, qualifier, Bytes.toBytes("value2"));
+    put2.add(family, doomed, Bytes.toBytes("doomed"));
+    Put bad = new Put(row1);
+    bad.add(Bytes.toBytes("nosuchfamily:"), qualifier, Bytes.toBytes("bad"));
+    Delete delete = new Delete(row2);
+    delete.deleteColumns(family, doomed);
+    Integer lockid = r.obtainRowLock(row2);
+    int [] status = null;
+    try {
+      status = r.batchMutate(new Writable [] {put2, put1, bad, delete},
+        new Integer [] {lockid, null, null, lockid});
+      assertEquals(HRegionInterface.MUTATION_APPLIED, status[0]);
+      assertEquals(HRegionInterface.MUTATION_APPLIED, status[1]);
+      assertEquals(HRegionInterface.MUTATION_FAILED, status[2]);
+      assertEquals(HRegionInterface.MUTATION_APPLIED, status[3]);
+      // The caller's lock is still held.
+      assertTrue(Bytes.equals(row2, r.getRowFromLock(lockid)));
+    } finally {
+      r.releaseRowLock(lockid);
+    }
+    // Locks taken by the batch were let go.
+    r.releaseRowLock(r.obtainRowLock(row1));
+    // The puts landed and the delete, applied after put2, took its cell.
+    List<KeyValue> result = new ArrayList<KeyValue>();
+    r.getRow(new Get(row1), result, null);
+    assertEquals(1, result.size());
+    assertEquals("value1", Bytes.toString(result.get(0).getValue()));
+    result.clear();
+    r.getRow(new Get(row2), result, null);
+    assertEquals(1, result.size());
+    assertEquals("value2", Bytes.toString(result.get(0).getValue()));
+
+    // A Put after a Delete of its row in the same batch is not masked by it.
+    Delete rowDelete = new Delete(row1);
+    Put after = new Put(row1);
+    after.add(family, qualifier, Bytes.toBytes("after"));
+    status = r.batchMutate(new Writable [] {rowDelete, after}, null);
+    assertEquals(HRegionInterface.MUTATION_APPLIED, status[0]);
+    assertEquals(HRegionInterface.MUTATION_APPLIED, status[1]);
+    result.clear();
+    r.getRow(new Get(row1), result, null);
+    assertEquals(1, result.size());
+    assertEquals("after", Bytes.toString(result.get(0).getValue()));
+    LOG.info("batchMutate completed.");
+  }
+
+  /*
+   * Test single and multi-column increments.
+   */
+  private void increments() throws IOException {
+    byte [] family = r.getTableDesc().getFamilies().iterator().next().getName();
+    byte [] row = Bytes.toBytes("increments");
+    byte [] hits = Bytes.toBytes("hits");
+    byte [] bytes = Bytes.toBytes("bytes");
+    assertEquals(1L, r.incrementColumnValue(row, family, hits, 1L));
+    assertEquals(2L, r.incrementColumnValue(row, family, hits, 1L));
+    long [] values = r.incrementColumnValues(row, family,
+      new byte [][] {hits, bytes, hits}, new long [] {1L, 100L, 2L});
+    assertEquals(3, values.length);
+    assertEquals(5L, values[0]);
+    assertEquals(100L, values[1]);
+    assertEquals(5L, values[2]);
+    // Current value comes back from the store files after a flush.
+    r.flushcache();
+    assertEquals(6L, r.incrementColumnValue(row, family, hits, 1L));
+    // A hot counter is not stamped ahead of the clock.
+    for (int i = 0; i < 1000; i++) {
+      r.incrementColumnValue(row, family, hits, 1L);
+    }
+    Get get = new Get(row);
+    get.addColumn(family, hits);
+    List<KeyValue> result = new ArrayList<KeyValue>();
+    r.getRow(get, result, null);
+    assertEquals(1, result.size());
+    assertEquals(1006L, Bytes.toLong(result.get(0).getValue()));
+    assertTrue(result.get(0).getTimestamp() <= System.currentTimeMillis());
+    LOG.info("increments completed.");
+  }
+
+  /*
+   * Test increments of a family that coalesces them are only written out
+   * when asked and that callers still see every increment.
+   */
+  private void coalescedIncrements() throws IOException {
+    HTableDescriptor counterDesc = new HTableDescriptor("counters");
+    HColumnDescriptor hcd = new HColumnDescriptor("totals:");
+    hcd.setCoalesceIncrements(true);
+    counterDesc.addFamily(hcd);
+    HRegion c = createNewHRegion(counterDesc, null, null);
+    try {
+      byte [] family = hcd.getName();
+      byte [] row = Bytes.toBytes("global");
+      byte [] hits = Bytes.toBytes("hits");
+      for (int i = 1; i <= 10; i++) {
+        assertEquals(i, c.incrementColumnValue(row, family, hits, 1L));
+      }
+      // Nothing written out yet.
+      assertEquals(0, c.memcacheSize.get());
+      c.flushCoalescedCounters();
+      long size = c.memcacheSize.get();
+      assertTrue(size > 0);
+      Get get = new Get(row);
+      get.addColumn(family, hits);
+      List<KeyValue> result = new ArrayList<KeyValue>();
+      c.getRow(get, result, null);
+      assertEquals(1, result.size());
+      assertEquals(10L, Bytes.toLong(result.get(0).getValue()));
+      // A Put on the row writes out pending increments first.
+      assertEquals(15L, c.incrementColumnValue(row, family, hits, 5L));
+      List<KeyValue> put = new ArrayList<KeyValue>();
+      put.add(new KeyValue(row, family, Bytes.toBytes("other"),
+        System.currentTimeMillis(), KeyValue.Type.Put, Bytes.toBytes(1L)));
+      Integer lockid = c.obtainRowLock(row);
+      try {
+        c.putRow(family, put, true);
+      } finally {
+        c.releaseRowLock(lockid);
+      }
+      result.clear();
+      c.getRow(get, result, null);
+      assertEquals(15L, Bytes.toLong(result.get(0).getValue()));
+      // Writing counters out often does not stamp them ahead of the clock.
+      for (int i = 0; i < 1000; i++) {
+        c.incrementColumnValue(row, family, hits, 1L);
+        c.flushCoalescedCounters();
+      }
+      result.clear();
+      c.getRow(get, result, null);
+      assertEquals(1015L, Bytes.toLong(result.get(0).getValue()));
+      assertTrue(result.get(0).getTimestamp() <= System.currentTimeMillis());
+    } finally {
+      c.close();
+      c.getLog().closeAndDelete();
+    }
+    LOG.info("coalescedIncrements completed.");
+  }
+
+  /*
+   * Test an update to a region whose memcache is past the blocking size, and
+   * that cannot flush, is rejected once it has waited
+   * hbase.hregion.memcache.block.waittime.
+   */
+  private void tooBusy() throws IOException {
+    final long waitTime = 1000;
+    HTableDescriptor busyDesc = new HTableDescriptor("busy");
+    busyDesc.addFamily(new HColumnDescriptor("contents:"));
+    busyDesc.setMemcacheFlushSize(1024);
+    HBaseConfiguration busyConf = new HBaseConfiguration(conf);
+    busyConf.setInt("hbase.hregion.memcache.block.multiplier", 1);
+    busyConf.setLong("hbase.hregion.memcache.block.waittime", waitTime);
+    // No flush listener so nothing will flush the region.
+    HRegion b = HRegion.createHRegion(new HRegionInfo(busyDesc, null, null),
+      fs.makeQualified(new Path(conf.get(HConstants.HBASE_DIR))), busyConf);
+    try {
+      byte [] family = Bytes.toBytes("contents:");
+      byte [] qualifier = Bytes.toBytes("busy");
+      Put put = new Put(Bytes.toBytes("tooBusy1"));
+      put.add(family, qualifier, new byte[2048]);
+      b.batchMutate(new Writable [] {put}, null);
+      long size = b.memcacheSize.get();
+      assertTrue(size > 1024);
+      put = new Put(Bytes.toBytes("tooBusy2"));
+      put.add(family, qualifier, new byte[1]);
+      long start = System.currentTimeMillis();
+      try {
+        b.batchMutate(new Writable [] {put}, null);
+        fail("Update to a blocked region should have been rejected");
+      } catch (RegionTooBusyException e) {
+        assertTrue(System.currentTimeMillis() - start >= waitTime);
+      }
+      // Nothing went in.
+      assertEquals(size, b.memcacheSize.get());
+    } finally {
+      b.close();
+      b.getLog().closeAndDelete();
+    }
+    LOG.info("tooBusy completed.");
+  }
+
   // Test scanners. Writes contents:firstcol and anchor:secondcol
   
   private void scan() throws IOException {
@@ -0,0 +1,166 @@
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link KeyValueHeap} and compares its merge against the linear scan
+ * over all sources it replaces.
+ */
+public class TestKeyValueHeap extends TestCase {
+  private final boolean PRINT = false;
+
+  private static final int SOURCES = 24;
+  private static final int KEYS = 5000;
+
+  private byte [] family = "fam1".getBytes();
+  private byte [] qualifier = "col1".getBytes();
+  private byte [] value = "val1".getBytes();
+
+  private KeyValue.KVComparator comparator = KeyValue.COMPARATOR;
+  private KeyValue [][] sources;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    Random rand = new Random(1);
+    this.sources = new KeyValue[SOURCES][];
+    for(int s=0; s<SOURCES; s++){
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      for(int k=0; k<KEYS; k++){
+        kvs.add(new KeyValue(Bytes.toBytes(rand.nextInt(KEYS * SOURCES)),
+          family, qualifier, s, KeyValue.Type.Put, value));
+      }
+      Collections.sort(kvs, comparator);
+      this.sources[s] = kvs.toArray(new KeyValue[0]);
+    }
+  }
+
+  public void testMergeIsSorted(){
+    int [] pos = new int[SOURCES];
+    KeyValue [] keys = new KeyValue[SOURCES];
+    KeyValueHeap heap = new KeyValueHeap(keys, comparator);
+    for(int s=0; s<SOURCES; s++){
+      keys[s] = sources[s][0];
+      heap.add(s);
+    }
+    assertEquals(SOURCES, heap.size());
+
+    List<KeyValue> merged = new ArrayList<KeyValue>();
+    while(!heap.isEmpty()){
+      int s = heap.peek();
+      merged.add(keys[s]);
+      keys[s] = ++pos[s] < sources[s].length? sources[s][pos[s]]: null;
+      heap.topChanged();
+    }
+    assertEquals(SOURCES * KEYS, merged.size());
+    for(int i=1; i<merged.size(); i++){
+      assertTrue(comparator.compare(merged.get(i - 1), merged.get(i)) <= 0);
+    }
+    assertEquals(-1, heap.peek());
+    assertEquals(-1, heap.poll());
+  }
+
+  public void testEqualKeysLowestIndexFirst(){
+    byte [] row = "row1".getBytes();
+    KeyValue [] keys = new KeyValue[4];
+    KeyValueHeap heap = new KeyValueHeap(keys, comparator);
+    for(int i=keys.length - 1; i>=0; i--){
+      keys[i] = new KeyValue(row, family, qualifier, 1L, KeyValue.Type.Put,
+        value);
+      heap.add(i);
+    }
+    for(int i=0; i<keys.length; i++){
+      assertEquals(i, heap.poll());
+    }
+    assertTrue(heap.isEmpty());
+  }
+
+  public void testNullKeysAreNotAdded(){
+    KeyValue [] keys = new KeyValue[2];
+    KeyValueHeap heap = new KeyValueHeap(keys, comparator);
+    heap.add(0);
+    assertTrue(heap.isEmpty());
+    keys[1] = sources[0][0];
+    heap.add(1);
+    assertEquals(1, heap.peek());
+    keys[1] = null;
+    heap.topChanged();
+    assertTrue(heap.isEmpty());
+  }
+
+  public void testRowTimestampComparator(){
+    KeyValueHeap.RowTimestampComparator c =
+      new KeyValueHeap.RowTimestampComparator(comparator);
+    KeyValue older = new KeyValue("row1".getBytes(), family, qualifier, 1L,
+      KeyValue.Type.Put, value);
+    KeyValue newer = new KeyValue("row1".getBytes(), family,
+      "col2".getBytes(), 2L, KeyValue.Type.Put, value);
+    KeyValue next = new KeyValue("row2".getBytes(), family, qualifier, 3L,
+      KeyValue.Type.Put, value);
+    assertTrue(c.compare(newer, older) < 0);
+    assertTrue(c.compare(older, next) < 0);
+    assertEquals(0, c.compare(older, older));
+  }
+
+  public void testMergePerformance(){
+    int [] pos = new int[SOURCES];
+    KeyValue [] keys = new KeyValue[SOURCES];
+
+    long start = System.nanoTime();
+    boolean [] done = new boolean[SOURCES];
+    int numDone = 0;
+    for(int s=0; s<SOURCES; s++){
+      keys[s] = sources[s][0];
+    }
+    long linearCount = 0;
+    while(numDone < SOURCES){
+      int lowest = -1;
+      for(int s=0; s<SOURCES; s++){
+        if(done[s]){
+          continue;
+        }
+        if(lowest < 0 || comparator.compare(keys[s], keys[lowest]) < 0){
+          lowest = s;
+        }
+      }
+      linearCount++;
+      if(++pos[lowest] < sources[lowest].length){
+        keys[lowest] = sources[lowest][pos[lowest]];
+      } else {
+        done[lowest] = true;
+        numDone++;
+      }
+    }
+    long linear = System.nanoTime() - start;
+
+    pos = new int[SOURCES];
+    start = System.nanoTime();
+    KeyValueHeap heap = new KeyValueHeap(keys, comparator);
+    for(int s=0; s<SOURCES; s++){
+      keys[s] = sources[s][0];
+      heap.add(s);
+    }
+    long heapCount = 0;
+    while(!heap.isEmpty()){
+      int s = heap.peek();
+      heapCount++;
+      keys[s] = ++pos[s] < sources[s].length? sources[s][pos[s]]: null;
+      heap.topChanged();
+    }
+    long merged = System.nanoTime() - start;
+    assertEquals(linearCount, heapCount);
+
+    if(PRINT){
+      System.out.println("linear " + (linear / linearCount) + "ns/kv, heap " +
+        (merged / heapCount) + "ns/kv merging " + SOURCES + " sources");
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.Get;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import junit.framework.TestCase;
+
+/**
+ * Microbenchmark comparing the general {@link Memcache#getRow} path against
+ * the direct seek path in {@link Memcache#getColumns} for point gets of
+ * explicit columns.
+ */
+public class TestMemcacheGetPerformance extends TestCase {
+  private final boolean PRINT = false;
+
+  private static final int ROWS = 10000;
+  private static final int COLUMNS = 20;
+  private static final int VERSIONS = 3;
+  private static final int GETS = 100000;
+
+  private Memcache memcache;
+  private boolean multiFamily;
+
+  private byte [] family = "fam1".getBytes();
+  private byte [] value = "val1".getBytes();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    this.memcache = new Memcache(HConstants.FOREVER, KeyValue.COMPARATOR);
+    this.multiFamily = false;
+    long ts = System.currentTimeMillis();
+    for(int r=0; r<ROWS; r++){
+      byte [] row = Bytes.toBytes(r);
+      for(int c=0; c<COLUMNS; c++){
+        for(int v=0; v<VERSIONS; v++){
+          memcache.put(new KeyValue(row, family, Bytes.toBytes(c), ts + v,
+            KeyValue.Type.Put, value), multiFamily);
+        }
+      }
+    }
+  }
+
+  public void testGetColumnsMatchesGetRow() throws IOException {
+    byte [] row = Bytes.toBytes(ROWS / 2);
+    byte [] qualifier = Bytes.toBytes(COLUMNS / 2);
+    List<KeyValue> fast = new ArrayList<KeyValue>();
+    assertTrue(memcache.getColumns(row, family,
+      createGet(row, qualifier).getFamilyMap().get(family), 1,
+      createGet(row, qualifier).getTimeRange(), System.currentTimeMillis(),
+      fast));
+    assertEquals(1, fast.size());
+    //Newest version first
+    KeyValue kv = fast.get(0);
+    assertTrue(KeyValue.COMPARATOR.matchingRows(kv, row));
+    assertEquals(memcache.getMemcache().ceiling(new KeyValue(row, family,
+      qualifier, HConstants.LATEST_TIMESTAMP, KeyValue.Type.Maximum)), kv);
+
+    //Not enough versions in memory, nothing should be returned
+    List<KeyValue> partial = new ArrayList<KeyValue>();
+    assertFalse(memcache.getColumns(row, family,
+      createGet(row, qualifier).getFamilyMap().get(family), VERSIONS + 1,
+      createGet(row, qualifier).getTimeRange(), System.currentTimeMillis(),
+      partial));
+    assertEquals(0, partial.size());
+  }
+
+  public void testGetColumnsFamilyDeleteBehindPut() {
+    byte [] row = "familydelete".getBytes();
+    byte [] qualifier = "q".getBytes();
+    Memcache mc = new Memcache(HConstants.FOREVER, KeyValue.COMPARATOR);
+    mc.put(new KeyValue(row, family, qualifier, 1L, KeyValue.Type.Put, value),
+      multiFamily);
+    mc.put(new KeyValue(row, family, null, 2L, KeyValue.Type.DeleteFamily),
+      multiFamily);
+    // A newer put of the empty qualifier sorts ahead of the family delete.
+    mc.put(new KeyValue(row, family, null, 3L, KeyValue.Type.Put, value),
+      multiFamily);
+    Get get = createGet(row, qualifier);
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertFalse(mc.getColumns(row, family, get.getFamilyMap().get(family), 1,
+      get.getTimeRange(), System.currentTimeMillis(), results));
+    assertEquals(0, results.size());
+
+    // Same again with the family delete in the snapshot.
+    mc.snapshot();
+    mc.put(new KeyValue(row, family, null, 4L, KeyValue.Type.Put, value),
+      multiFamily);
+    assertFalse(mc.getColumns(row, family, get.getFamilyMap().get(family), 1,
+      get.getTimeRange(), System.currentTimeMillis(), results));
+    assertEquals(0, results.size());
+  }
+
+  public void testGetPerformance() throws IOException {
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    long now = System.currentTimeMillis();
+
+    long start = System.nanoTime();
+    for(int i=0; i<GETS; i++){
+      byte [] row = Bytes.toBytes(i % ROWS);
+      Get get = createGet(row, Bytes.toBytes(i % COLUMNS));
+      ServerGet sget = new ServerGetColumns(get);
+      List<byte []> columns = new ArrayList<byte []>();
+      columns.addAll(get.getFamilyMap().get(family));
+      sget.setColumns(columns);
+      sget.setNow(now);
+      results.clear();
+      memcache.getRow(sget, results, multiFamily);
+    }
+    long general = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for(int i=0; i<GETS; i++){
+      byte [] row = Bytes.toBytes(i % ROWS);
+      Get get = createGet(row, Bytes.toBytes(i % COLUMNS));
+      results.clear();
+      memcache.getColumns(row, family, get.getFamilyMap().get(family),
+        get.getMaxVersions(), get.getTimeRange(), now, results);
+      assertEquals(1, results.size());
+    }
+    long seek = System.nanoTime() - start;
+
+    if(PRINT){
+      System.out.println("getRow " + (general / GETS) + "ns/get, getColumns " +
+        (seek / GETS) + "ns/get over " + memcache.getMemcache().size() + " kvs");
+    }
+  }
+
+  private Get createGet(byte [] row, byte [] qualifier){
+    Get get = new Get(row);
+    get.addColumn(family, qualifier);
+    return get;
+  }
+}
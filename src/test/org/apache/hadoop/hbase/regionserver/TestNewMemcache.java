@@ -6,6 +6,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 
 import junit.framework.TestCase;
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TestNewMemcache extends TestCase {
   private final boolean PRINT = false;
@@ -90,27 +91,27 @@ public class TestNewMemcache extends TestCase {
   public void testAdd(){
     memcache.put(put1, multiFamily);
     
-    KeyValue kv = memcache.memcache.first();
+    KeyValue kv = memcache.getMemcache().first();
     int ret = kvComparator.compare(put1, kv);
     assertEquals(0, ret);
   }
 
   public void testMultiAdd(){
     memcache.put(put1, multiFamily);
-    assertEquals(1, memcache.memcache.size());
+    assertEquals(1, memcache.getMemcache().size());
 
     memcache.put(put1, multiFamily);
-    assertEquals(1, memcache.memcache.size());
+    assertEquals(1, memcache.getMemcache().size());
     
   
     memcache.put(put2, multiFamily);
-    assertEquals(2, memcache.memcache.size());
+    assertEquals(2, memcache.getMemcache().size());
 
     memcache.put(put3, multiFamily);
-    assertEquals(3, memcache.memcache.size());
+    assertEquals(3, memcache.getMemcache().size());
     
     memcache.put(put4, multiFamily);
-    assertEquals(4, memcache.memcache.size());
+    assertEquals(4, memcache.getMemcache().size());
 
     if(PRINT){
       System.out.println(new Exception().getStackTrace()[0].getMethodName());
@@ -135,7 +136,7 @@ public class TestNewMemcache extends TestCase {
       printMemCache();
       System.out.println();
     }
-    assertEquals(0, memcache.memcache.size());
+    assertEquals(0, memcache.getMemcache().size());
   }  
   
   public void testAddAndDeleteColumn(){
@@ -144,7 +145,7 @@ public class TestNewMemcache extends TestCase {
 
     //Adding deletecolumn
     memcache.delete(delCol1, multiFamily);
-    assertEquals(1, memcache.memcache.size()); 
+    assertEquals(1, memcache.getMemcache().size()); 
 
     if(PRINT){
       System.out.println(new Exception().getStackTrace()[0].getMethodName());
@@ -160,7 +161,7 @@ public class TestNewMemcache extends TestCase {
     //Adding deleteFamily
     memcache.delete(delFam1, multiFamily);
 
-    assertEquals(1, memcache.memcache.size()); 
+    assertEquals(1, memcache.getMemcache().size()); 
 
     if(PRINT){
       System.out.println(new Exception().getStackTrace()[0].getMethodName());
@@ -172,19 +173,19 @@ public class TestNewMemcache extends TestCase {
   public void testAddAndMultiDelete(){
     //Adding put
     memcache.put(put1, multiFamily);
-    assertEquals(1, memcache.memcache.size()); 
+    assertEquals(1, memcache.getMemcache().size()); 
 
     //Adding delete for the same ts
     memcache.delete(del1, multiFamily);
-    assertEquals(0, memcache.memcache.size()); 
+    assertEquals(0, memcache.getMemcache().size()); 
     
     //Adding delete for the same ts
     memcache.delete(delCol1, multiFamily);
-    assertEquals(1, memcache.memcache.size()); 
+    assertEquals(1, memcache.getMemcache().size()); 
     
     //Adding delete for the same ts
     memcache.delete(delFam1, multiFamily);
-    assertEquals(1, memcache.memcache.size());
+    assertEquals(1, memcache.getMemcache().size());
     
     if(PRINT){
       System.out.println(new Exception().getStackTrace()[0].getMethodName());
@@ -197,30 +198,30 @@ public class TestNewMemcache extends TestCase {
   public void testAddAddAddMultiDeleteAdd(){
     //Adding put with a different row
     memcache.put(put3, multiFamily);
-    assertEquals(1, memcache.memcache.size());
+    assertEquals(1, memcache.getMemcache().size());
     
     //Adding put with a different family
     memcache.put(put2, multiFamily);
-    assertEquals(2, memcache.memcache.size()); 
+    assertEquals(2, memcache.getMemcache().size()); 
 
     //Adding put 
     memcache.put(put1, multiFamily);
-    assertEquals(3, memcache.memcache.size()); 
+    assertEquals(3, memcache.getMemcache().size()); 
     
     if(PRINT){
       printMemCache();
     }
     //Adding delete for the same ts
     memcache.delete(del1, multiFamily);
-    assertEquals(2, memcache.memcache.size()); 
+    assertEquals(2, memcache.getMemcache().size()); 
     
     //Adding delete for the same ts
     memcache.delete(delCol1, multiFamily);
-    assertEquals(3, memcache.memcache.size()); 
+    assertEquals(3, memcache.getMemcache().size()); 
     
     //Adding delete for the same ts
     memcache.delete(delFam1, multiFamily);
-    assertEquals(2, memcache.memcache.size());
+    assertEquals(2, memcache.getMemcache().size());
     
     if(PRINT){
       System.out.println(new Exception().getStackTrace()[0].getMethodName());
@@ -229,8 +230,84 @@ public class TestNewMemcache extends TestCase {
     }
   }
   
+  public void testCompactVersions(){
+    int maxVersions = 3;
+    for(int i=0; i<10; i++){
+      memcache.put(new KeyValue(putRow1, putFam1, putCol1, putTs + i,
+        KeyValue.Type.Put, putVal1), multiFamily);
+    }
+    memcache.put(put2, multiFamily);
+    assertEquals(11, memcache.getMemcache().size());
+
+    long freed = memcache.compact(maxVersions, multiFamily);
+    assertTrue(freed > 0);
+    assertEquals(maxVersions + 1, memcache.getMemcache().size());
+    //Newest versions are the ones kept
+    assertEquals(putTs + 9, memcache.getMemcache().first().getTimestamp());
+
+    //Nothing left to collapse
+    assertEquals(0, memcache.compact(maxVersions, multiFamily));
+  }
+
+  public void testCompactStop(){
+    for(int i=0; i<10; i++){
+      memcache.put(new KeyValue(putRow1, putFam1, putCol1, putTs + i,
+        KeyValue.Type.Put, putVal1), multiFamily);
+    }
+    //A compaction told to stop, as when a flush is pending, does nothing
+    AtomicBoolean stop = new AtomicBoolean(true);
+    assertEquals(0, memcache.compact(1, multiFamily, stop));
+    assertEquals(10, memcache.getMemcache().size());
+    stop.set(false);
+    assertTrue(memcache.compact(1, multiFamily, stop) > 0);
+    assertEquals(1, memcache.getMemcache().size());
+  }
+
+  public void testCompactDeletes(){
+    KeyValue older = new KeyValue(putRow1, putFam1, putCol1,
+      put1.getTimestamp() - 1,
+      KeyValue.Type.Put, putVal1);
+    //Puts added after the deletes are not removed by Memcache.delete
+    memcache.delete(delCol1, multiFamily);
+    memcache.put(put1, multiFamily);
+    memcache.put(older, multiFamily);
+    memcache.put(put3, multiFamily);
+    assertEquals(4, memcache.getMemcache().size());
+
+    memcache.compact(HConstants.ALL_VERSIONS, multiFamily);
+    if(PRINT){
+      System.out.println(new Exception().getStackTrace()[0].getMethodName());
+      printMemCache();
+      System.out.println();
+    }
+    //Delete marker and the put on the other row are kept
+    assertEquals(2, memcache.getMemcache().size());
+    assertTrue(memcache.getMemcache().contains(delCol1));
+    assertTrue(memcache.getMemcache().contains(put3));
+  }
+
+  public void testUpsert(){
+    memcache.put(put2, multiFamily);
+    for(int i=0; i<10; i++){
+      memcache.upsert(new KeyValue(putRow1, putFam1, putCol1, putTs + i,
+        KeyValue.Type.Put, Bytes.toBytes((long)i)));
+    }
+    //Only the newest version of the upserted column is left
+    assertEquals(2, memcache.getMemcache().size());
+    KeyValue kv = memcache.getMemcache().first();
+    assertEquals(putTs + 9, kv.getTimestamp());
+    assertEquals(9L, Bytes.toLong(kv.getValue()));
+    assertTrue(memcache.getMemcache().contains(put2));
+
+    //Replacing a version frees its size
+    long size = memcache.upsert(new KeyValue(putRow1, putFam1, putCol1,
+      putTs + 10, KeyValue.Type.Put, Bytes.toBytes(10L)));
+    assertEquals(0, size);
+    assertEquals(2, memcache.getMemcache().size());
+  }
+
   private void printMemCache(){
-    for(KeyValue keyvalue : memcache.memcache){
+    for(KeyValue keyvalue : memcache.getMemcache()){
       System.out.println("keyValue " +keyvalue);
     }
   }
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2009 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HMsg;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MultiRegionTable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Tests that the region server opens regions in parallel and that a close
+ * which comes in while its region is being opened is done after the open.
+ */
+public class TestRegionOpenClose extends MultiRegionTable {
+  private static final String COLUMN = "contents:";
+  private static final byte [] RACE_TABLE = Bytes.toBytes("race");
+  private static final int OPEN_THREADS = 4;
+
+  // Opens running now and the most seen running at once.
+  static final AtomicInteger opening = new AtomicInteger(0);
+  static final AtomicInteger maxOpening = new AtomicInteger(0);
+  // Opens of RACE_TABLE regions wait on the gate.
+  static volatile CountDownLatch raceOpenStarted = new CountDownLatch(1);
+  static volatile CountDownLatch raceGate = new CountDownLatch(1);
+  // Set by the first close of a RACE_TABLE region: 1 if the region was
+  // online, 0 if not.
+  static final AtomicInteger raceCloseFoundRegion = new AtomicInteger(-1);
+
+  /**
+   * Region server whose region opens are slow so several overlap.
+   */
+  public static class SlowOpenRegionServer extends HRegionServer {
+    /**
+     * @param conf
+     * @throws IOException
+     */
+    public SlowOpenRegionServer(HBaseConfiguration conf) throws IOException {
+      super(conf);
+    }
+
+    @Override
+    protected HRegion instantiateRegion(final HRegionInfo regionInfo)
+    throws IOException {
+      int n = opening.incrementAndGet();
+      try {
+        for (int max = maxOpening.get(); n > max &&
+            !maxOpening.compareAndSet(max, n); max = maxOpening.get()) {
+          continue;
+        }
+        if (Bytes.equals(regionInfo.getTableDesc().getName(), RACE_TABLE)) {
+          raceOpenStarted.countDown();
+          raceGate.await();
+        } else {
+          Thread.sleep(200);
+        }
+      } catch (InterruptedException e) {
+        // continue
+      } finally {
+        opening.decrementAndGet();
+      }
+      return super.instantiateRegion(regionInfo);
+    }
+
+    @Override
+    void closeRegion(final HRegionInfo hri, final boolean reportWhenCompleted)
+    throws IOException {
+      if (Bytes.equals(hri.getTableDesc().getName(), RACE_TABLE)) {
+        raceCloseFoundRegion.compareAndSet(-1,
+          getOnlineRegion(hri.getRegionName()) == null? 0: 1);
+      }
+      super.closeRegion(hri, reportWhenCompleted);
+    }
+  }
+
+  /** constructor */
+  public TestRegionOpenClose() {
+    super(COLUMN);
+    desc = new HTableDescriptor("openclose");
+    desc.addFamily(new HColumnDescriptor(COLUMN));
+    conf.setClass(HConstants.REGION_SERVER_IMPL, SlowOpenRegionServer.class,
+      HRegionServer.class);
+    conf.setInt("hbase.regionserver.open.threads", OPEN_THREADS);
+  }
+
+  /**
+   * All regions of the table come online and more than one was opened at a
+   * time, never more than the pool size.
+   * @throws Exception
+   */
+  public void testConcurrentOpens() throws Exception {
+    HRegionServer server = cluster.getRegionServer(0);
+    // The table's regions plus root and meta.
+    int expected = 27;
+    for (int i = 0; i < 120 && server.getOnlineRegions().size() < expected;
+        i++) {
+      Thread.sleep(500);
+    }
+    assertTrue(server.getOnlineRegions().size() >= expected);
+    assertTrue(maxOpening.get() > 1);
+    assertTrue(maxOpening.get() <= OPEN_THREADS);
+  }
+
+  /**
+   * Send a close while the region is being opened.  The close must wait on
+   * the open; run now, it would find nothing to close and the open would
+   * then leave the region online.
+   * @throws Exception
+   */
+  public void testCloseRacingOpen() throws Exception {
+    HRegionServer server = cluster.getRegionServer(0);
+    HTableDescriptor htd = new HTableDescriptor(RACE_TABLE);
+    htd.addFamily(new HColumnDescriptor(COLUMN));
+    HRegionInfo info = new HRegionInfo(htd, HConstants.EMPTY_START_ROW,
+      HConstants.EMPTY_END_ROW);
+    server.toDo.put(new HRegionServer.ToDoEntry(
+      new HMsg(HMsg.Type.MSG_REGION_OPEN, info)));
+    assertTrue(raceOpenStarted.await(30, TimeUnit.SECONDS));
+    server.toDo.put(new HRegionServer.ToDoEntry(
+      new HMsg(HMsg.Type.MSG_REGION_CLOSE_WITHOUT_REPORT, info)));
+    // Give the worker time to take the close.
+    Thread.sleep(2000);
+    assertEquals(-1, raceCloseFoundRegion.get());
+    raceGate.countDown();
+    for (int i = 0; i < 60 && raceCloseFoundRegion.get() == -1; i++) {
+      Thread.sleep(500);
+    }
+    assertEquals(1, raceCloseFoundRegion.get());
+    for (int i = 0; i < 60 &&
+        server.getOnlineRegion(info.getRegionName()) != null; i++) {
+      Thread.sleep(500);
+    }
+    assertNull(server.getOnlineRegion(info.getRegionName()));
+  }
+}